@@ -0,0 +1,70 @@
+package com.portswigger.globalmatchreplace;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+// Times each DiffAlgorithm on a corpus of captured message pairs and reports highlight counts, so
+// readability (fewer, larger hunks) can be compared alongside speed. A corpus is a directory of
+// <name>.original / <name>.modified files, e.g. exported from the Original and Modified panes.
+final class DiffBenchmark {
+    private static final int WARM_UP_RUNS = 3;
+    private static final int TIMED_RUNS = 7;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0 || args[0].isEmpty()) {
+            System.err.println("Usage: gradle diffBenchmark -Pcorpus=<directory of *.original/*.modified pairs>");
+            return;
+        }
+        List<Path> originals;
+        try (Stream<Path> files = Files.list(Path.of(args[0]))) {
+            originals = files.filter(path -> path.toString().endsWith(".original")).sorted().toList();
+        }
+        System.out.printf("%-32s %-10s %10s %8s %8s%n", "pair", "algorithm", "median ms", "hunks", "approx");
+        long[] totals = new long[DiffAlgorithm.values().length];
+        int pairs = 0;
+        for (Path original : originals) {
+            String name = original.getFileName().toString().replace(".original", "");
+            Path modified = original.resolveSibling(name + ".modified");
+            if (!Files.exists(modified)) {
+                continue;
+            }
+            String a = Files.readString(original, StandardCharsets.ISO_8859_1);
+            String b = Files.readString(modified, StandardCharsets.ISO_8859_1);
+            for (DiffAlgorithm algorithm : DiffAlgorithm.values()) {
+                Measurement measurement = measure(a, b, algorithm);
+                totals[algorithm.ordinal()] += measurement.medianNanos;
+                System.out.printf("%-32s %-10s %10.2f %8d %8s%n", name, algorithm.displayName(),
+                    measurement.medianNanos / 1e6, measurement.hunks, measurement.approximate ? "yes" : "");
+            }
+            pairs++;
+        }
+        System.out.println();
+        for (DiffAlgorithm algorithm : DiffAlgorithm.values()) {
+            System.out.printf("%-10s total %.2f ms over %d pairs%n", algorithm.displayName(), totals[algorithm.ordinal()] / 1e6, pairs);
+        }
+    }
+
+    private static Measurement measure(String original, String modified, DiffAlgorithm algorithm) {
+        TextDiffHighlighter.DiffResult result = null;
+        for (int i = 0; i < WARM_UP_RUNS; i++) {
+            result = TextDiffHighlighter.diff(original, modified, algorithm);
+        }
+        List<Long> timings = new ArrayList<>(TIMED_RUNS);
+        for (int i = 0; i < TIMED_RUNS; i++) {
+            long start = System.nanoTime();
+            result = TextDiffHighlighter.diff(original, modified, algorithm);
+            timings.add(System.nanoTime() - start);
+        }
+        long[] sorted = timings.stream().mapToLong(Long::longValue).toArray();
+        Arrays.sort(sorted);
+        return new Measurement(sorted[sorted.length / 2], result.modifiedHighlights().size(), result.approximate());
+    }
+
+    private record Measurement(long medianNanos, int hunks, boolean approximate) {}
+}
@@ -0,0 +1,199 @@
+package com.portswigger.globalmatchreplace;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+// Byte-level diff for messages with non-text bodies (protobuf, gRPC, msgpack...), where a line diff
+// would see one huge changed line. Messages are Burp's one-char-per-byte strings, so char offsets
+// are byte offsets and the result uses the same highlight types as TextDiffHighlighter.
+final class BinaryDiff {
+    // Anchor size: blocks of the original are indexed at this stride and found in the modified
+    // message with a rolling hash, so any shared run of at least 2 * BLOCK - 1 bytes is matched.
+    private static final int BLOCK = 16;
+    private static final int HASH_BASE = 0x01000193;
+    // Bytes of the body sampled when deciding whether a message is binary.
+    private static final int SAMPLE_CHARS = 8 * 1024;
+    private static final int CHECK_INTERRUPT_MASK = 0xFFFF;
+    // Repeated blocks (padding, zero runs) are indexed this many times at most, bounding probe chains.
+    private static final int MAX_DUPLICATES = 8;
+
+    private BinaryDiff() {
+    }
+
+    // A body is binary if it has a NUL, or if more than 1 in 10 sampled chars are control chars
+    // (other than tab/CR/LF) or undecodable. Headers are skipped; they are always text.
+    static boolean isBinary(String message) {
+        if (message == null) {
+            return false;
+        }
+        int body = bodyStart(message);
+        int end = Math.min(message.length(), body + SAMPLE_CHARS);
+        int suspicious = 0;
+        for (int i = body; i < end; i++) {
+            char c = message.charAt(i);
+            if (c == 0) {
+                return true;
+            }
+            if ((c < 0x20 && c != '\t' && c != '\r' && c != '\n') || c == 0x7F || c == '\uFFFD') {
+                suspicious++;
+            }
+        }
+        return suspicious * 10 > end - body;
+    }
+
+    static TextDiffHighlighter.DiffResult diff(String original, String modified) {
+        String a = original == null ? "" : original;
+        String b = modified == null ? "" : modified;
+        List<TextDiffHighlighter.Highlight> originalHighlights = new ArrayList<>();
+        List<TextDiffHighlighter.Highlight> modifiedHighlights = new ArrayList<>();
+        int prefix = 0;
+        int limit = Math.min(a.length(), b.length());
+        while (prefix < limit && a.charAt(prefix) == b.charAt(prefix)) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < limit - prefix && a.charAt(a.length() - 1 - suffix) == b.charAt(b.length() - 1 - suffix)) {
+            suffix++;
+        }
+        int aEnd = a.length() - suffix;
+        int bEnd = b.length() - suffix;
+        BlockIndex index = new BlockIndex(a, prefix, aEnd);
+        // Greedy left-to-right scan: every verified anchor after the last match ends the current
+        // changed region. Content moved backwards is reported as deleted and inserted.
+        int aCursor = prefix;
+        int bCursor = prefix;
+        int j = prefix;
+        int hash = j + BLOCK <= bEnd ? hash(b, j) : 0;
+        while (j + BLOCK <= bEnd) {
+            if ((j & CHECK_INTERRUPT_MASK) == 0 && Thread.currentThread().isInterrupted()) {
+                throw new CancellationException();
+            }
+            int match = index.find(hash, b, j, aCursor);
+            if (match < 0) {
+                if (j + BLOCK < bEnd) {
+                    hash = roll(hash, b.charAt(j), b.charAt(j + BLOCK));
+                }
+                j++;
+                continue;
+            }
+            int aStart = match;
+            int bStart = j;
+            while (aStart > aCursor && bStart > bCursor && a.charAt(aStart - 1) == b.charAt(bStart - 1)) {
+                aStart--;
+                bStart--;
+            }
+            int aMatchEnd = match + BLOCK;
+            int bMatchEnd = j + BLOCK;
+            while (aMatchEnd < aEnd && bMatchEnd < bEnd && a.charAt(aMatchEnd) == b.charAt(bMatchEnd)) {
+                aMatchEnd++;
+                bMatchEnd++;
+            }
+            addChange(originalHighlights, modifiedHighlights, aCursor, aStart, bCursor, bStart);
+            aCursor = aMatchEnd;
+            bCursor = bMatchEnd;
+            j = bMatchEnd;
+            if (j + BLOCK <= bEnd) {
+                hash = hash(b, j);
+            }
+        }
+        addChange(originalHighlights, modifiedHighlights, aCursor, aEnd, bCursor, bEnd);
+        return new TextDiffHighlighter.DiffResult(originalHighlights, modifiedHighlights, false);
+    }
+
+    private static void addChange(List<TextDiffHighlighter.Highlight> originalHighlights,
+                                  List<TextDiffHighlighter.Highlight> modifiedHighlights,
+                                  int aStart, int aEnd, int bStart, int bEnd) {
+        if (aEnd > aStart) {
+            originalHighlights.add(new TextDiffHighlighter.Highlight(aStart, aEnd, TextDiffHighlighter.DELETE_COLOR));
+        }
+        if (bEnd > bStart) {
+            modifiedHighlights.add(new TextDiffHighlighter.Highlight(bStart, bEnd, TextDiffHighlighter.INSERT_COLOR));
+        }
+    }
+
+    private static int bodyStart(String message) {
+        int crlf = message.indexOf("\r\n\r\n");
+        int lf = message.indexOf("\n\n");
+        if (crlf >= 0 && (lf < 0 || crlf < lf)) {
+            return crlf + 4;
+        }
+        return lf >= 0 ? lf + 2 : 0;
+    }
+
+    private static int hash(String text, int start) {
+        int hash = 0;
+        for (int i = start; i < start + BLOCK; i++) {
+            hash = hash * HASH_BASE + text.charAt(i);
+        }
+        return hash;
+    }
+
+    // Drops the outgoing char and appends the incoming one (arithmetic wraps modulo 2^32).
+    private static int roll(int hash, char outgoing, char incoming) {
+        return (hash - outgoing * BlockIndex.OUTGOING_FACTOR) * HASH_BASE + incoming;
+    }
+
+    // Open-addressing table of BLOCK-aligned original blocks by hash; holds ints only, so it stays
+    // small (about 16 bytes per block) even for multi-megabyte bodies.
+    private static final class BlockIndex {
+        static final int OUTGOING_FACTOR = power(HASH_BASE, BLOCK - 1);
+
+        private final String text;
+        private final int[] hashes;
+        private final int[] positions;
+        private final int mask;
+
+        BlockIndex(String text, int start, int end) {
+            this.text = text;
+            int blocks = Math.max(0, (end - start) / BLOCK);
+            int capacity = Integer.highestOneBit(Math.max(2, blocks * 2 - 1)) << 1;
+            this.hashes = new int[capacity];
+            this.positions = new int[capacity];
+            this.mask = capacity - 1;
+            Arrays.fill(positions, -1);
+            for (int i = start; i + BLOCK <= end; i += BLOCK) {
+                int hash = hash(text, i);
+                int slot = mix(hash) & mask;
+                int duplicates = 0;
+                while (positions[slot] >= 0) {
+                    if (hashes[slot] == hash) {
+                        duplicates++;
+                    }
+                    slot = (slot + 1) & mask;
+                }
+                if (duplicates < MAX_DUPLICATES) {
+                    hashes[slot] = hash;
+                    positions[slot] = i;
+                }
+            }
+        }
+
+        // Earliest block at or after minPosition whose bytes equal other[start, start + BLOCK), or -1.
+        int find(int hash, String other, int start, int minPosition) {
+            int best = -1;
+            for (int slot = mix(hash) & mask; positions[slot] >= 0; slot = (slot + 1) & mask) {
+                int position = positions[slot];
+                if (hashes[slot] == hash && position >= minPosition && (best < 0 || position < best)
+                    && text.regionMatches(position, other, start, BLOCK)) {
+                    best = position;
+                }
+            }
+            return best;
+        }
+
+        private static int mix(int hash) {
+            int h = hash * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+
+        private static int power(int base, int exponent) {
+            int result = 1;
+            for (int i = 0; i < exponent; i++) {
+                result *= base;
+            }
+            return result;
+        }
+    }
+}
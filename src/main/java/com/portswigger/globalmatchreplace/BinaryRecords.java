@@ -0,0 +1,159 @@
+package com.portswigger.globalmatchreplace;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// Length-prefixed binary fields for the persisted diff cache index (no base64, no separators).
+final class BinaryRecords {
+    // Upper bound for any single length prefix; anything larger means the data is corrupt.
+    private static final int MAX_FIELD_BYTES = 64 * 1024 * 1024;
+
+    private BinaryRecords() {
+    }
+
+    static final class Writer {
+        private final ByteArrayOutputStream buffer;
+        private final DataOutputStream out;
+
+        Writer(int sizeHint) {
+            this.buffer = new ByteArrayOutputStream(Math.max(64, sizeHint));
+            this.out = new DataOutputStream(buffer);
+        }
+
+        Writer writeInt(int value) throws IOException {
+            out.writeInt(value);
+            return this;
+        }
+
+        Writer writeByte(int value) throws IOException {
+            out.writeByte(value);
+            return this;
+        }
+
+        Writer writeString(String value) throws IOException {
+            byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            return this;
+        }
+
+        Writer writeStrings(List<String> values) throws IOException {
+            out.writeInt(values.size());
+            for (String value : values) {
+                writeString(value);
+            }
+            return this;
+        }
+
+        Writer writeChunkId(ChunkStore.ChunkId id) throws IOException {
+            out.writeLong(id.high());
+            out.writeLong(id.low());
+            return this;
+        }
+
+        Writer writeChunkIds(List<ChunkStore.ChunkId> ids) throws IOException {
+            out.writeInt(ids.size());
+            for (ChunkStore.ChunkId id : ids) {
+                writeChunkId(id);
+            }
+            return this;
+        }
+
+        Writer writeInts(int[] values) throws IOException {
+            out.writeInt(values.length);
+            for (int value : values) {
+                out.writeInt(value);
+            }
+            return this;
+        }
+
+        Writer writeLongs(long[] values) throws IOException {
+            out.writeInt(values.length);
+            for (long value : values) {
+                out.writeLong(value);
+            }
+            return this;
+        }
+
+        byte[] toByteArray() throws IOException {
+            out.flush();
+            return buffer.toByteArray();
+        }
+    }
+
+    static final class Reader {
+        private final DataInputStream in;
+
+        Reader(byte[] data) {
+            this.in = new DataInputStream(new ByteArrayInputStream(data));
+        }
+
+        int readInt() throws IOException {
+            return in.readInt();
+        }
+
+        int readByte() throws IOException {
+            return in.readUnsignedByte();
+        }
+
+        String readString() throws IOException {
+            byte[] bytes = new byte[readLength()];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        List<String> readStrings() throws IOException {
+            int count = readLength();
+            List<String> values = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                values.add(readString());
+            }
+            return values;
+        }
+
+        ChunkStore.ChunkId readChunkId() throws IOException {
+            return new ChunkStore.ChunkId(in.readLong(), in.readLong());
+        }
+
+        List<ChunkStore.ChunkId> readChunkIds() throws IOException {
+            int count = readLength();
+            List<ChunkStore.ChunkId> ids = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                ids.add(readChunkId());
+            }
+            return ids;
+        }
+
+        int[] readInts() throws IOException {
+            int count = readLength();
+            int[] values = new int[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = in.readInt();
+            }
+            return values;
+        }
+
+        long[] readLongs() throws IOException {
+            int count = readLength();
+            long[] values = new long[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = in.readLong();
+            }
+            return values;
+        }
+
+        int readLength() throws IOException {
+            int length = in.readInt();
+            if (length < 0 || length > MAX_FIELD_BYTES) {
+                throw new IOException("Invalid field length: " + length);
+            }
+            return length;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.portswigger.globalmatchreplace;
+
+import burp.api.montoya.core.ToolType;
+
+// Diff cache partitions: the busiest tools get their own byte budget, the rest share one.
+enum CachePartition {
+    PROXY("Proxy", 40),
+    REPEATER("Repeater", 25),
+    SCANNER("Scanner", 15),
+    INTRUDER("Intruder", 10),
+    OTHER("Other tools", 10);
+
+    private final String displayName;
+    private final int defaultSharePercent;
+
+    CachePartition(String displayName, int defaultSharePercent) {
+        this.displayName = displayName;
+        this.defaultSharePercent = defaultSharePercent;
+    }
+
+    String displayName() {
+        return displayName;
+    }
+
+    int defaultSharePercent() {
+        return defaultSharePercent;
+    }
+
+    static CachePartition of(ToolType toolType) {
+        if (toolType == null) {
+            return OTHER;
+        }
+        return switch (toolType) {
+            case PROXY -> PROXY;
+            case REPEATER -> REPEATER;
+            case SCANNER -> SCANNER;
+            case INTRUDER -> INTRUDER;
+            default -> OTHER;
+        };
+    }
+}
@@ -4,18 +4,34 @@ import burp.api.montoya.MontoyaApi;
 import burp.api.montoya.ui.settings.SettingsPanel;
 
 import javax.swing.BorderFactory;
+import javax.swing.BoxLayout;
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JComboBox;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
 import javax.swing.JTextField;
+import javax.swing.table.AbstractTableModel;
 import java.awt.BorderLayout;
+import java.awt.Dimension;
 import java.awt.FlowLayout;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 final class CacheSettingsPanel implements SettingsPanel {
     private final JPanel panel;
     private final JTextField cacheSizeField;
+    private final JTextField hostQuotaField;
+    private final JCheckBox admissionCheck;
+    private final JComboBox<DiffAlgorithm> algorithmCombo;
+    private final JLabel usageLabel;
+    private final PartitionTableModel partitionModel;
     private final ChangeStore changeStore;
     private final MontoyaApi api;
 
@@ -24,41 +40,109 @@ final class CacheSettingsPanel implements SettingsPanel {
         this.changeStore = changeStore;
         this.panel = new JPanel(new BorderLayout(8, 8));
         this.cacheSizeField = new JTextField(6);
+        this.hostQuotaField = new JTextField(6);
+        this.admissionCheck = new JCheckBox("Admission filter (keep frequently viewed diffs over one-off newcomers)");
+        this.algorithmCombo = new JComboBox<>(DiffAlgorithm.values());
+        this.usageLabel = new JLabel(" ");
+        this.partitionModel = new PartitionTableModel();
 
-        // Settings panel is intentionally minimal: only cache size is configurable.
+        // Settings cover the cache cap plus how it is split between tools.
         buildUi(api);
     }
 
     private void buildUi(MontoyaApi api) {
         panel.setBorder(BorderFactory.createEmptyBorder(12, 12, 12, 12));
 
+        JPanel form = new JPanel();
+        form.setLayout(new BoxLayout(form, BoxLayout.Y_AXIS));
+
         JPanel row = new JPanel(new FlowLayout(FlowLayout.LEFT, 8, 0));
         row.add(new JLabel("GMR diff cache cap (MB):"));
         cacheSizeField.setText(Integer.toString(changeStore.maxBytesMb()));
         row.add(cacheSizeField);
+        row.add(usageLabel);
+        form.add(row);
+
+        JPanel hostRow = new JPanel(new FlowLayout(FlowLayout.LEFT, 8, 0));
+        hostRow.add(new JLabel("Per-host quota within a partition (MB, 0 = off):"));
+        hostQuotaField.setText(Integer.toString(changeStore.hostQuotaMb()));
+        hostRow.add(hostQuotaField);
+        form.add(hostRow);
+
+        JPanel admissionRow = new JPanel(new FlowLayout(FlowLayout.LEFT, 8, 0));
+        admissionCheck.setSelected(changeStore.isAdmissionEnabled());
+        admissionRow.add(admissionCheck);
+        form.add(admissionRow);
+
+        JPanel algorithmRow = new JPanel(new FlowLayout(FlowLayout.LEFT, 8, 0));
+        algorithmRow.add(new JLabel("Diff algorithm (when no recorded rule edits apply):"));
+        algorithmCombo.setSelectedItem(changeStore.diffAlgorithm());
+        algorithmCombo.setToolTipText("Histogram anchors on rare lines: clearer hunks for moved blocks and reordered keys.");
+        algorithmRow.add(algorithmCombo);
+        form.add(algorithmRow);
+
+        JTable partitionTable = new JTable(partitionModel);
+        partitionTable.setRowHeight(22);
+        JScrollPane tableScroll = new JScrollPane(partitionTable);
+        tableScroll.setPreferredSize(new Dimension(560, 140));
+        JPanel tablePanel = new JPanel(new BorderLayout());
+        tablePanel.setBorder(BorderFactory.createTitledBorder("Partitions (share of cap per tool)"));
+        tablePanel.add(tableScroll, BorderLayout.CENTER);
 
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.LEFT, 8, 0));
         JButton save = new JButton("Save");
         save.addActionListener(event -> saveSettings());
-        row.add(save);
+        JButton refresh = new JButton("Refresh usage");
+        refresh.addActionListener(event -> refreshUsage());
+        buttons.add(save);
+        buttons.add(refresh);
 
         // Settings UI lives under Burp's extension settings, not the suite tab.
-        panel.add(row, BorderLayout.NORTH);
+        panel.add(form, BorderLayout.NORTH);
+        panel.add(tablePanel, BorderLayout.CENTER);
+        panel.add(buttons, BorderLayout.SOUTH);
+        refreshUsage();
         api.userInterface().applyThemeToComponent(panel);
     }
 
+    private void refreshUsage() {
+        partitionModel.setRows(changeStore.partitionUsage());
+        usageLabel.setText("In use: " + formatMb(changeStore.currentBytes()) + " MB");
+    }
+
     private void saveSettings() {
         String text = cacheSizeField.getText().trim();
+        int mb;
+        int hostQuotaMb;
         try {
-            int mb = Integer.parseInt(text);
-            if (mb <= 0) {
+            mb = Integer.parseInt(text);
+            hostQuotaMb = Integer.parseInt(hostQuotaField.getText().trim());
+            if (mb <= 0 || hostQuotaMb < 0) {
                 throw new NumberFormatException();
             }
-            // Persists the size cap and evicts entries if the cache is too large.
-            changeStore.setMaxBytesMb(mb);
-            api.logging().logToOutput("[GMR] Updated cache cap to " + mb + " MB.");
         } catch (NumberFormatException ex) {
             api.logging().logToOutput("[GMR] Enter a positive integer for MB.");
+            return;
+        }
+        Map<CachePartition, Integer> shares = partitionModel.shares();
+        int total = 0;
+        for (int share : shares.values()) {
+            total += share;
+        }
+        if (total > 100) {
+            api.logging().logToOutput("[GMR] Partition shares add up to " + total + "%; they must not exceed 100%.");
+            return;
         }
+        // Persists the size cap and evicts entries if the cache is too large.
+        changeStore.setMaxBytesMb(mb);
+        changeStore.setPartitioning(shares, hostQuotaMb, admissionCheck.isSelected());
+        changeStore.setDiffAlgorithm((DiffAlgorithm) algorithmCombo.getSelectedItem());
+        api.logging().logToOutput("[GMR] Updated cache cap to " + mb + " MB.");
+        refreshUsage();
+    }
+
+    private static String formatMb(long bytes) {
+        return String.format("%.1f", bytes / (1024.0 * 1024.0));
     }
 
     @Override
@@ -68,6 +152,81 @@ final class CacheSettingsPanel implements SettingsPanel {
 
     @Override
     public Set<String> keywords() {
-        return Collections.unmodifiableSet(Set.of("match", "replace", "diff", "cache"));
+        return Collections.unmodifiableSet(Set.of("match", "replace", "diff", "cache", "partition"));
+    }
+
+    private static final class PartitionTableModel extends AbstractTableModel {
+        private static final String[] COLUMN_NAMES = {"Partition", "Share (%)", "Budget (MB)", "Used (MB)", "Entries"};
+
+        private List<ChangeStore.PartitionUsage> rows = new ArrayList<>();
+        private final Map<CachePartition, Integer> editedShares = new EnumMap<>(CachePartition.class);
+
+        void setRows(List<ChangeStore.PartitionUsage> rows) {
+            this.rows = new ArrayList<>(rows);
+            editedShares.clear();
+            fireTableDataChanged();
+        }
+
+        Map<CachePartition, Integer> shares() {
+            Map<CachePartition, Integer> shares = new EnumMap<>(CachePartition.class);
+            for (ChangeStore.PartitionUsage row : rows) {
+                shares.put(row.partition(), editedShares.getOrDefault(row.partition(), row.sharePercent()));
+            }
+            return shares;
+        }
+
+        @Override
+        public int getRowCount() {
+            return rows.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMN_NAMES.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMN_NAMES[column];
+        }
+
+        @Override
+        public Class<?> getColumnClass(int columnIndex) {
+            return columnIndex == 1 || columnIndex == 4 ? Integer.class : String.class;
+        }
+
+        @Override
+        public boolean isCellEditable(int rowIndex, int columnIndex) {
+            // Only shares are edited here; they take effect on Save.
+            return columnIndex == 1;
+        }
+
+        @Override
+        public Object getValueAt(int rowIndex, int columnIndex) {
+            ChangeStore.PartitionUsage row = rows.get(rowIndex);
+            switch (columnIndex) {
+                case 0:
+                    return row.partition().displayName();
+                case 1:
+                    return editedShares.getOrDefault(row.partition(), row.sharePercent());
+                case 2:
+                    return formatMb(row.budgetBytes());
+                case 3:
+                    return formatMb(row.usedBytes());
+                case 4:
+                    return row.entries();
+                default:
+                    return "";
+            }
+        }
+
+        @Override
+        public void setValueAt(Object aValue, int rowIndex, int columnIndex) {
+            if (columnIndex != 1 || !(aValue instanceof Integer share) || share < 0) {
+                return;
+            }
+            editedShares.put(rows.get(rowIndex).partition(), share);
+            fireTableCellUpdated(rowIndex, columnIndex);
+        }
     }
 }
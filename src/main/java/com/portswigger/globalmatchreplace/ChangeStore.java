@@ -1,19 +1,23 @@
 package com.portswigger.globalmatchreplace;
 
 import burp.api.montoya.MontoyaApi;
+import burp.api.montoya.core.ByteArray;
+import burp.api.montoya.core.ToolType;
 import burp.api.montoya.persistence.PersistedObject;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.Set;
+import java.util.function.Supplier;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Base64;
@@ -21,26 +25,84 @@ import java.util.Base64;
 final class ChangeStore {
     private static final String ROOT_KEY = "gmr-diff-cache";
     private static final String MAX_MB_KEY = "maxMb";
+    // Legacy format: one line per entry with inline gzipped payloads (migrated on load).
     private static final String DATA_KEY = "data";
+    private static final String FORMAT_KEY = "format";
+    // Format 2: one binary index record (see serializeIndex()), raw chunk payloads as byte arrays.
+    private static final String BINARY_INDEX_KEY = "index.bin";
+    private static final String CHUNKS_KEY = "chunks";
+    private static final String SHARE_KEY_PREFIX = "share.";
+    private static final String HOST_QUOTA_MB_KEY = "hostQuotaMb";
+    private static final String ADMISSION_KEY = "admission";
+    private static final String DIFF_ALGORITHM_KEY = "diffAlgorithm";
+    // Number of most-recent entries whose chunk payloads are preloaded after startup.
+    private static final int WARM_UP_ENTRIES = 64;
+    private static final int INDEX_FORMAT = 2;
+    // Approximate cost of one applied-rule reference (record + list slot); summary text lives in the catalog.
+    private static final int APPLIED_RULE_BYTES = 32;
+    // Byte cap for computed highlight lists and the texts they match (see DiffResultCache); separate from the diff cache cap.
+    private static final long DIFF_RESULT_CACHE_BYTES = 4L * 1024 * 1024;
+    // 512K four-bit counters (256 KB): well under 1% false positives for the default cache size.
+    private static final int MEMBERSHIP_COUNTERS = 1 << 19;
+    // Leading chars covered by a content fingerprint; with the length this separates most messages.
+    private static final int FINGERPRINT_PREFIX_CHARS = 256;
+    private static final int INDEX_MAGIC = 0x474D5243; // "GMRC"
     private static final char FIELD_SEP = '\u0001';
-    private static final Base64.Encoder BASE64_ENCODER = Base64.getEncoder();
     private static final Base64.Decoder BASE64_DECODER = Base64.getDecoder();
 
     private final MontoyaApi api;
+    private final RuleCatalog catalog;
     private PersistedObject root;
     // Access-ordered LinkedHashMap provides LRU behavior for eviction.
     private final LinkedHashMap<Key, Entry> lru = new LinkedHashMap<>(16, 0.75f, true);
     private final Map<String, Key> aliasByHash = new java.util.HashMap<>();
+    // Correlation IDs (carried in history notes) resolve records without hashing message content.
+    private final Map<IdKey, Key> keyById = new java.util.HashMap<>();
+    // Originals and modifieds are stored as shared, content-defined chunks.
+    private final ChunkStore chunks = new ChunkStore();
+    // Each tool partition has its own LRU and budget so one noisy tool cannot evict the others.
+    private final Map<CachePartition, PartitionState> partitions = new EnumMap<>(CachePartition.class);
+    // Frequency of lookups/stores per key; newcomers may not evict entries that are used more often.
+    private final FrequencySketch sketch = new FrequencySketch(4096);
+    // Highlights computed by GMR Diff tabs, keyed by the Entry they were computed for.
+    private final DiffResultCache diffResults = new DiffResultCache(DIFF_RESULT_CACHE_BYTES);
+    // Lock-free pre-check for lookups: editors ask about every message shown, and almost none were changed.
+    private final MembershipFilter membership = new MembershipFilter(MEMBERSHIP_COUNTERS);
     private long maxBytes;
     private long currentBytes;
+    // Reduced below 1.0 while the JVM is under memory pressure (see onMemoryPressure).
+    private double capFactor = 1.0;
+    private MemoryPressureMonitor.Level pressure = MemoryPressureMonitor.Level.NORMAL;
+    // Entries evicted only because of memory pressure, eldest first. Their payloads and lookups are gone,
+    // but the project file keeps them: persist() still writes their index records and does not delete
+    // their chunks, so the next load restores them under the normal cap.
+    private final LinkedHashMap<Key, Entry> spilled = new LinkedHashMap<>();
+    // Sizes and spilled-entry reference counts of the chunks those entries use.
+    private final Map<ChunkStore.ChunkId, SpilledChunk> spilledChunks = new HashMap<>();
+    // Pre-deduplication size of the spilled entries; with currentBytes it is kept within the configured cap.
+    private long spilledBytes;
+    private long hostQuotaBytes;
+    private boolean admissionEnabled = true;
+    // Read by diff workers without taking the store lock.
+    private volatile DiffAlgorithm diffAlgorithm = DiffAlgorithm.MYERS;
 
-    ChangeStore(MontoyaApi api, int maxMb) {
+    ChangeStore(MontoyaApi api, int maxMb, RuleCatalog catalog) {
         this.api = api;
+        this.catalog = catalog;
         PersistedObject extensionData = api.persistence().extensionData();
         this.root = getOrCreateChild(extensionData, ROOT_KEY);
         this.maxBytes = mbToBytes(maxMb);
-        // Load any persisted diffs for the current Burp session.
+        for (CachePartition partition : CachePartition.values()) {
+            partitions.put(partition, new PartitionState(partition.defaultSharePercent()));
+        }
+        // Load only the persisted index here; payloads are fetched lazily or by the warm-up thread.
         load();
+        PersistedObject store = ensureRoot();
+        if (store != null && store.stringKeys().contains(DATA_KEY)) {
+            // Legacy caches must be decompressed and re-chunked; keep that off the startup path. Started
+            // only now, so it never runs alongside load().
+            startBackground("GMR-cache-migrate", () -> migrateLegacy(store));
+        }
     }
 
     synchronized int maxBytesMb() {
@@ -50,44 +112,176 @@ final class ChangeStore {
     synchronized void setMaxBytesMb(int mb) {
         this.maxBytes = mbToBytes(mb);
         // Shrink immediately so the cache never exceeds the configured cap.
+        evictPartitions();
         evictToSize();
         persist();
     }
 
-    void storeRequest(String original, String modified, List<String> summaries) {
+    // Stages follow the level: every escalation first drops payloads that can be re-read from the project
+    // file and the computed highlights; levels with a lower cap factor then evict down to it. Those
+    // evictions are not persisted, so the project copy of the cache survives the pressure.
+    synchronized void onMemoryPressure(MemoryPressureMonitor.Level level, int heapUsedPercent) {
+        boolean escalating = level.ordinal() > pressure.ordinal();
+        pressure = level;
+        capFactor = level.capFactor();
+        if (!escalating) {
+            // Growth resumes naturally as new diffs are stored under the restored cap.
+            log("[GMR] Heap at " + heapUsedPercent + "% after GC; diff cache cap restored to "
+                + Math.round(capFactor * 100) + "% (" + level + ").");
+            return;
+        }
+        long unloaded = chunks.unloadPersisted();
+        diffResults.clear();
+        long before = currentBytes;
+        evictPartitions();
+        evictToSize();
+        long evicted = before - currentBytes;
+        log("[GMR] Heap at " + heapUsedPercent + "% after GC (" + level + "): shrank diff cache by "
+            + (unloaded + evicted) + " bytes (" + unloaded + " unloaded, " + evicted + " evicted from memory only); cap now "
+            + Math.round(capFactor * 100) + "%.");
+    }
+
+    private void log(String message) {
+        if (api != null) {
+            api.logging().logToOutput(message);
+        }
+    }
+
+    synchronized Map<CachePartition, Integer> partitionShares() {
+        Map<CachePartition, Integer> shares = new EnumMap<>(CachePartition.class);
+        for (Map.Entry<CachePartition, PartitionState> entry : partitions.entrySet()) {
+            shares.put(entry.getKey(), entry.getValue().sharePercent);
+        }
+        return shares;
+    }
+
+    synchronized int hostQuotaMb() {
+        return (int) (hostQuotaBytes / (1024 * 1024));
+    }
+
+    synchronized boolean isAdmissionEnabled() {
+        return admissionEnabled;
+    }
+
+    // Shares are percentages of the overall cap; hostQuotaMb of 0 disables per-host quotas.
+    synchronized void setPartitioning(Map<CachePartition, Integer> shares, int hostQuotaMb, boolean admission) {
+        for (Map.Entry<CachePartition, Integer> entry : shares.entrySet()) {
+            partitions.get(entry.getKey()).sharePercent = Math.max(0, entry.getValue());
+        }
+        this.hostQuotaBytes = mbToBytes(Math.max(0, hostQuotaMb));
+        this.admissionEnabled = admission;
+        evictPartitions();
+        persist();
+    }
+
+    DiffAlgorithm diffAlgorithm() {
+        return diffAlgorithm;
+    }
+
+    synchronized void setDiffAlgorithm(DiffAlgorithm algorithm) {
+        if (algorithm == diffAlgorithm) {
+            return;
+        }
+        diffAlgorithm = algorithm;
+        // Highlights computed with the previous algorithm would otherwise keep being shown.
+        diffResults.clear();
+        persist();
+    }
+
+    synchronized List<PartitionUsage> partitionUsage() {
+        List<PartitionUsage> usage = new ArrayList<>();
+        for (Map.Entry<CachePartition, PartitionState> entry : partitions.entrySet()) {
+            PartitionState state = entry.getValue();
+            usage.add(new PartitionUsage(entry.getKey(), state.sharePercent, budgetOf(state), state.usedBytes, state.lru.size()));
+        }
+        return usage;
+    }
+
+    synchronized long currentBytes() {
+        return currentBytes;
+    }
+
+    void storeRequest(String original, String modified, List<RuleCatalog.AppliedRule> appliedRules, EditSpans spans, String correlationId,
+                      ToolType toolType, String host) {
         if (original != null && modified != null && !original.equals(modified)) {
             // Store request diffs under the hash of the modified content.
-            store(Type.REQUEST, modified, original, summaries);
+            store(Type.REQUEST, modified, original, appliedRules, spans, correlationId, toolType, host);
         }
     }
 
-    void storeResponse(String original, String modified, List<String> summaries) {
+    void storeResponse(String original, String modified, List<RuleCatalog.AppliedRule> appliedRules, EditSpans spans, String correlationId,
+                      ToolType toolType, String host) {
         if (original != null && modified != null && !original.equals(modified)) {
             // Store response diffs under the hash of the modified content.
-            store(Type.RESPONSE, modified, original, summaries);
+            store(Type.RESPONSE, modified, original, appliedRules, spans, correlationId, toolType, host);
         }
     }
 
-    Optional<ChangeRecord> requestChangeFor(String modified) {
-        return lookup(Type.REQUEST, modified);
+    Optional<ChangeRecord> requestChangeFor(String correlationId, Supplier<String> modified) {
+        return lookup(Type.REQUEST, correlationId, modified);
     }
 
-    Optional<ChangeRecord> responseChangeFor(String modified) {
-        return lookup(Type.RESPONSE, modified);
+    Optional<ChangeRecord> responseChangeFor(String correlationId, Supplier<String> modified) {
+        return lookup(Type.RESPONSE, correlationId, modified);
     }
 
-    private synchronized Optional<ChangeRecord> lookup(Type type, String modified) {
-        if (modified == null) {
+    private Optional<ChangeRecord> lookup(Type type, String correlationId, Supplier<String> modified) {
+        if (correlationId != null && membership.mightContain(idFingerprint(type, correlationId))) {
+            Optional<ChangeRecord> byId = lookupById(new IdKey(type, correlationId));
+            if (byId.isPresent()) {
+                return byId;
+            }
+        }
+        // Fall back to content hashing for items without an ID (e.g. older history, Repeater edits).
+        String text = modified == null ? null : modified.get();
+        if (text == null) {
             return Optional.empty();
         }
-        // Lookups are done by hash to avoid large string keys.
-        String hash = hashOf(modified);
-        Key key = resolveKey(type, hash);
+        // A negative filter answer is exact, so unchanged messages skip the copy, the digest and the lock.
+        if (membership.isComplete() && !membership.mightContain(contentFingerprint(type, text))) {
+            return Optional.empty();
+        }
+        // Lookups are done by hash to avoid large string keys; hashing happens outside the lock.
+        return lookupByHash(type, digestOf(normalize(text)));
+    }
+
+    private synchronized Optional<ChangeRecord> lookupById(IdKey idKey) {
+        Key key = keyById.get(idKey);
+        return key == null ? Optional.empty() : recordFor(touch(key));
+    }
+
+    private synchronized Optional<ChangeRecord> lookupByHash(Type type, String hash) {
+        return recordFor(touch(resolveKey(type, hash)));
+    }
+
+    private Optional<ChangeRecord> recordFor(Entry entry) {
+        if (entry == null) {
+            return Optional.empty();
+        }
+        // Pin chunk payloads now; text is only assembled if the caller reads it.
+        List<byte[]> original = chunks.pin(entry.originalChunks);
+        List<byte[]> modified = chunks.pin(entry.modifiedChunks);
+        if (original == null || modified == null) {
+            // A persisted chunk went missing; drop the entry rather than show a partial diff.
+            detach(entry);
+            return Optional.empty();
+        }
+        return Optional.of(new ChangeRecord(entry, original, modified, entry.appliedRules, entry.spans, catalog, diffResults));
+    }
+
+    private Entry touch(Key key) {
         Entry entry = lru.get(key);
-        return entry == null ? Optional.empty() : Optional.of(entry.record);
+        if (entry != null) {
+            // Keep the partition LRU in step and count the hit for admission decisions.
+            partitions.get(entry.partition).lru.get(key);
+            sketch.increment(key);
+        }
+        return entry;
     }
 
-    private synchronized void store(Type type, String modified, String original, List<String> summaries) {
+    private synchronized void store(Type type, String modified, String original, List<RuleCatalog.AppliedRule> appliedRules, EditSpans spans,
+                                    String correlationId,
+                                    ToolType toolType, String host) {
         if (modified == null || original == null) {
             return;
         }
@@ -95,18 +289,21 @@ final class ChangeStore {
         String bodyHash = hashOf(extractBody(modified));
         String headersHash = hashOf(normalizeHeaders(modified));
         String originalHash = hashOf(original);
-        // Store compressed original + modified to keep session size small.
-        byte[] compressed = compress(original);
-        byte[] compressedModified = compress(modified);
-        long entrySize = compressed.length + compressedModified.length + summariesSize(summaries);
         Key key = new Key(type, hash);
-        Entry existing = lru.remove(key);
+        sketch.increment(key);
+        Entry existing = lru.get(key);
+        // A newer diff for a message already cached replaces it rather than competing for admission,
+        // which could otherwise reject it after the old diff was already detached.
+        boolean replacing = existing != null || spilled.containsKey(key);
         if (existing != null) {
-            currentBytes -= existing.sizeBytes;
-            removeAliases(existing.aliases, key);
+            detach(existing);
         }
+        unspill(key);
         // Keep original+modified so diffs remain stable even if rules change later.
-        ChangeRecord record = new ChangeRecord(original, modified, summaries);
+        // Content-defined chunks let repeated headers/bodies across messages be held once.
+        long heldBefore = chunks.heldBytes();
+        List<ChunkStore.ChunkId> originalChunks = chunks.acquire(original);
+        List<ChunkStore.ChunkId> modifiedChunks = chunks.acquire(modified);
         List<String> aliases = new ArrayList<>();
         // Aliases allow lookups even when Burp supplies different request variants (body/headers/original).
         if (!bodyHash.equals(hash)) {
@@ -118,19 +315,243 @@ final class ChangeStore {
         if (!originalHash.equals(hash) && !aliases.contains(originalHash)) {
             aliases.add(originalHash);
         }
-        lru.put(key, new Entry(record, compressed, compressedModified, entrySize, aliases, key));
-        registerAliases(aliases, key);
-        currentBytes += entrySize;
+        Entry entry = new Entry(originalChunks, modifiedChunks, appliedRules, spans, aliases,
+            contentFingerprints(type, modified, original), key, correlationId, CachePartition.of(toolType), normalizeHost(host), logicalSize(originalChunks, modifiedChunks));
+        currentBytes += chunks.heldBytes() - heldBefore;
+        if (!replacing && !admit(entry)) {
+            // Rejected newcomers give back the chunks they just acquired.
+            long rejectedBefore = chunks.heldBytes();
+            chunks.release(originalChunks);
+            chunks.release(modifiedChunks);
+            currentBytes -= rejectedBefore - chunks.heldBytes();
+            return;
+        }
+        attach(entry);
+        currentBytes += entry.sizeBytes;
+        evictPartition(partitions.get(entry.partition), entry);
+        evictHost(entry);
         evictToSize();
         persist();
     }
 
+    private boolean admit(Entry candidate) {
+        PartitionState state = partitions.get(candidate.partition);
+        if (!admissionEnabled || state.usedBytes + candidate.logicalBytes <= budgetOf(state) || state.lru.isEmpty()) {
+            return true;
+        }
+        // TinyLFU: a full partition only admits a newcomer at least as popular as its LRU victim.
+        Key victim = state.lru.keySet().iterator().next();
+        return sketch.frequency(candidate.key) >= sketch.frequency(victim);
+    }
+
+    private void evictPartitions() {
+        for (PartitionState state : partitions.values()) {
+            evictPartition(state, null);
+        }
+    }
+
+    private void evictPartition(PartitionState state, Entry keep) {
+        long budget = budgetOf(state);
+        long fullBudget = maxBytes * state.sharePercent / 100;
+        Iterator<Entry> iterator = state.lru.values().iterator();
+        while (state.usedBytes > budget && iterator.hasNext()) {
+            Entry eldest = iterator.next();
+            if (eldest == keep) {
+                continue;
+            }
+            iterator.remove();
+            evict(eldest, state.usedBytes <= fullBudget);
+        }
+    }
+
+    private void evictHost(Entry entry) {
+        if (hostQuotaBytes <= 0 || entry.host.isEmpty()) {
+            return;
+        }
+        PartitionState state = partitions.get(entry.partition);
+        Iterator<Entry> iterator = state.lru.values().iterator();
+        // Per-host quotas apply within a partition, evicting that host's least recently used diffs.
+        while (state.hostBytes.getOrDefault(entry.host, 0L) > hostQuotaBytes && iterator.hasNext()) {
+            Entry eldest = iterator.next();
+            if (eldest == entry || !eldest.host.equals(entry.host)) {
+                continue;
+            }
+            iterator.remove();
+            detach(eldest);
+        }
+    }
+
     private void evictToSize() {
-        while (currentBytes > maxBytes && !lru.isEmpty()) {
-            Map.Entry<Key, Entry> eldest = lru.entrySet().iterator().next();
-            currentBytes -= eldest.getValue().sizeBytes;
-            removeAliases(eldest.getValue().aliases, eldest.getKey());
-            lru.remove(eldest.getKey());
+        while (currentBytes > effectiveMaxBytes() && !lru.isEmpty()) {
+            evict(lru.values().iterator().next(), currentBytes <= maxBytes);
+        }
+    }
+
+    // pressureOnly: the entry would fit under the configured cap and is only going because of capFactor.
+    private void evict(Entry entry, boolean pressureOnly) {
+        // Chunks not yet written cannot be re-read later, so such entries are evicted for good.
+        boolean spill = pressureOnly && !isPending(entry.originalChunks) && !isPending(entry.modifiedChunks);
+        if (spill) {
+            // Sizes must be read while the chunks are still held.
+            spillChunks(entry.originalChunks);
+            spillChunks(entry.modifiedChunks);
+            spilled.put(entry.key, entry);
+            spilledBytes += entry.logicalBytes;
+        }
+        detach(entry);
+        // The project copy stays within the configured cap; beyond it the eldest spilled entries go for good.
+        while (currentBytes + spilledBytes > maxBytes && !spilled.isEmpty()) {
+            unspill(spilled.keySet().iterator().next());
+        }
+    }
+
+    private boolean isPending(List<ChunkStore.ChunkId> refs) {
+        for (ChunkStore.ChunkId id : refs) {
+            if (chunks.isPending(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void spillChunks(List<ChunkStore.ChunkId> refs) {
+        for (ChunkStore.ChunkId id : refs) {
+            SpilledChunk chunk = spilledChunks.computeIfAbsent(id, key -> new SpilledChunk(Math.max(0, chunks.sizeOf(key))));
+            chunk.refs++;
+        }
+    }
+
+    // A newer diff for the same message replaces the spilled one in the project file too.
+    private void unspill(Key key) {
+        Entry entry = spilled.remove(key);
+        if (entry == null) {
+            return;
+        }
+        spilledBytes -= entry.logicalBytes;
+        for (List<ChunkStore.ChunkId> refs : List.of(entry.originalChunks, entry.modifiedChunks)) {
+            for (ChunkStore.ChunkId id : refs) {
+                SpilledChunk chunk = spilledChunks.get(id);
+                if (chunk != null && --chunk.refs <= 0) {
+                    spilledChunks.remove(id);
+                    chunks.markRemoved(id);
+                }
+            }
+        }
+    }
+
+    private long budgetOf(PartitionState state) {
+        return effectiveMaxBytes() * state.sharePercent / 100;
+    }
+
+    private long effectiveMaxBytes() {
+        return (long) (maxBytes * capFactor);
+    }
+
+    private void attach(Entry entry) {
+        lru.put(entry.key, entry);
+        PartitionState state = partitions.get(entry.partition);
+        state.lru.put(entry.key, entry);
+        state.usedBytes += entry.logicalBytes;
+        if (!entry.host.isEmpty()) {
+            state.hostBytes.merge(entry.host, entry.logicalBytes, Long::sum);
+        }
+        registerAliases(entry.aliases, entry.key);
+        registerId(entry);
+        updateMembership(entry, true);
+    }
+
+    private void detach(Entry entry) {
+        lru.remove(entry.key);
+        diffResults.invalidate(entry);
+        PartitionState state = partitions.get(entry.partition);
+        state.lru.remove(entry.key);
+        state.usedBytes -= entry.logicalBytes;
+        if (!entry.host.isEmpty()) {
+            state.hostBytes.computeIfPresent(entry.host, (host, bytes) -> bytes - entry.logicalBytes <= 0 ? null : bytes - entry.logicalBytes);
+        }
+        // Chunks shared with other entries stay held; only the last reference frees them.
+        long heldBefore = chunks.heldBytes();
+        chunks.release(entry.originalChunks);
+        chunks.release(entry.modifiedChunks);
+        currentBytes -= entry.sizeBytes + (heldBefore - chunks.heldBytes());
+        removeAliases(entry.aliases, entry.key);
+        if (entry.correlationId != null) {
+            keyById.remove(new IdKey(entry.key.type, entry.correlationId), entry.key);
+        }
+        updateMembership(entry, false);
+    }
+
+    // Entries migrated from the legacy format have no fingerprints, so content answers are "maybe" until they leave.
+    private void updateMembership(Entry entry, boolean add) {
+        if (entry.fingerprints == null) {
+            if (add) {
+                membership.addUnknown();
+            } else {
+                membership.removeUnknown();
+            }
+        } else {
+            for (long fingerprint : entry.fingerprints) {
+                if (add) {
+                    membership.add(fingerprint);
+                } else {
+                    membership.remove(fingerprint);
+                }
+            }
+        }
+        if (entry.correlationId != null) {
+            long fingerprint = idFingerprint(entry.key.type, entry.correlationId);
+            if (add) {
+                membership.add(fingerprint);
+            } else {
+                membership.remove(fingerprint);
+            }
+        }
+    }
+
+    // One fingerprint per lookup variant the aliases cover: modified, body, normalized headers, original.
+    private long[] contentFingerprints(Type type, String modified, String original) {
+        return new long[] {
+            contentFingerprint(type, normalize(modified)),
+            contentFingerprint(type, normalize(extractBody(modified))),
+            contentFingerprint(type, normalize(normalizeHeaders(modified))),
+            contentFingerprint(type, normalize(original))
+        };
+    }
+
+    // Length and leading chars of the normalized text (CRLF read as LF), taken straight from the raw
+    // text: one pass with no copy, and the same value for a text and its normalized form.
+    private static long contentFingerprint(Type type, String text) {
+        int length = 0;
+        int prefixHash = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\r' && i + 1 < text.length() && text.charAt(i + 1) == '\n') {
+                continue;
+            }
+            if (length < FINGERPRINT_PREFIX_CHARS) {
+                prefixHash = 31 * prefixHash + c;
+            }
+            length++;
+        }
+        return MembershipFilter.fingerprint(type.ordinal(), prefixHash, length);
+    }
+
+    private static long idFingerprint(Type type, String correlationId) {
+        return MembershipFilter.fingerprint(Type.values().length + type.ordinal(), correlationId);
+    }
+
+    // Partition usage counts each entry's full (pre-deduplication) compressed size.
+    private long logicalSize(List<ChunkStore.ChunkId> originalChunks, List<ChunkStore.ChunkId> modifiedChunks) {
+        return chunks.sizeOf(originalChunks) + chunks.sizeOf(modifiedChunks);
+    }
+
+    private String normalizeHost(String host) {
+        return host == null ? "" : host.toLowerCase(java.util.Locale.ROOT);
+    }
+
+    private void registerId(Entry entry) {
+        if (entry.correlationId != null) {
+            keyById.put(new IdKey(entry.key.type, entry.correlationId), entry.key);
         }
     }
 
@@ -139,11 +560,135 @@ final class ChangeStore {
         if (store == null) {
             return;
         }
-        // Load persisted size cap and diff entries for this session.
+        // Load persisted size cap and the entry/chunk index; payloads stay in the project file.
         Integer mb = store.getInteger(MAX_MB_KEY);
         if (mb != null && mb > 0) {
             maxBytes = mbToBytes(mb);
         }
+        loadPartitioning(store);
+        PersistedObject chunkObject = getOrCreateChild(store, CHUNKS_KEY);
+        if (chunkObject == null) {
+            return;
+        }
+        // Persisted chunks can always be re-read, so their payloads may be loaded lazily or unloaded.
+        chunks.setLoader(id -> loadChunk(chunkObject, id));
+        if (store.getInteger(FORMAT_KEY) == null) {
+            return;
+        }
+        ByteArray index = store.getByteArray(BINARY_INDEX_KEY);
+        if (index != null) {
+            loadBinaryIndex(index.getBytes());
+        }
+        // Orphaned chunks (e.g. from an interrupted persist) are released and deleted on next persist.
+        chunks.dropUnreferenced();
+        currentBytes += chunks.heldBytes();
+        evictPartitions();
+        evictToSize();
+        startBackground("GMR-cache-warmup", this::warmUp);
+    }
+
+    private void loadBinaryIndex(byte[] data) {
+        // Records stream straight into the chunk table and LRU; no intermediate text or copies.
+        BinaryRecords.Reader reader = new BinaryRecords.Reader(data);
+        try {
+            int magic = reader.readInt();
+            int format = reader.readByte();
+            if (magic != INDEX_MAGIC || format != INDEX_FORMAT) {
+                log("[GMR] Ignoring diff cache index with unknown format.");
+                return;
+            }
+            int chunkCount = reader.readLength();
+            for (int i = 0; i < chunkCount; i++) {
+                chunks.restoreIndexed(reader.readChunkId(), reader.readInt());
+            }
+            int ruleCount = reader.readLength();
+            for (int i = 0; i < ruleCount; i++) {
+                RuleCatalog.RuleVersion version = new RuleCatalog.RuleVersion(reader.readString(), reader.readInt());
+                catalog.restore(version, reader.readString());
+            }
+            int entryCount = reader.readLength();
+            for (int i = 0; i < entryCount; i++) {
+                restoreEntry(readEntry(reader));
+            }
+        } catch (IOException ex) {
+            // Keep whatever was read before the corruption.
+            log("[GMR] Diff cache index is truncated or corrupt: " + ex.getMessage());
+        }
+    }
+
+    private void restoreEntry(Entry parsed) {
+        if (parsed == null || !chunks.containsAll(parsed.originalChunks) || !chunks.containsAll(parsed.modifiedChunks)) {
+            return;
+        }
+        chunks.retain(parsed.originalChunks);
+        chunks.retain(parsed.modifiedChunks);
+        Entry sized = parsed.withLogicalBytes(logicalSize(parsed.originalChunks, parsed.modifiedChunks));
+        attach(sized);
+        currentBytes += sized.sizeBytes;
+    }
+
+    private void loadPartitioning(PersistedObject store) {
+        for (Map.Entry<CachePartition, PartitionState> entry : partitions.entrySet()) {
+            Integer share = store.getInteger(SHARE_KEY_PREFIX + entry.getKey().name());
+            if (share != null && share >= 0) {
+                entry.getValue().sharePercent = share;
+            }
+        }
+        Integer hostQuota = store.getInteger(HOST_QUOTA_MB_KEY);
+        if (hostQuota != null && hostQuota >= 0) {
+            hostQuotaBytes = mbToBytes(hostQuota);
+        }
+        Boolean admission = store.getBoolean(ADMISSION_KEY);
+        if (admission != null) {
+            admissionEnabled = admission;
+        }
+        diffAlgorithm = DiffAlgorithm.parse(store.getString(DIFF_ALGORITHM_KEY));
+    }
+
+    private byte[] loadChunk(PersistedObject chunkObject, ChunkStore.ChunkId id) {
+        ByteArray raw = chunkObject.getByteArray(id.hex());
+        return raw == null ? null : raw.getBytes();
+    }
+
+    private void warmUp() {
+        List<Entry> recent;
+        synchronized (this) {
+            recent = new ArrayList<>(lru.values());
+        }
+        // Preload the most recently used entries first; each one takes the lock only briefly.
+        int warmed = 0;
+        for (int i = recent.size() - 1; i >= 0 && warmed < WARM_UP_ENTRIES; i--, warmed++) {
+            Entry entry = recent.get(i);
+            synchronized (this) {
+                // containsKey does not disturb LRU order, unlike get().
+                if (!lru.containsKey(entry.key)) {
+                    continue;
+                }
+                if (!chunks.isLoaded(entry.originalChunks) || !chunks.isLoaded(entry.modifiedChunks)) {
+                    chunks.pin(entry.originalChunks);
+                    chunks.pin(entry.modifiedChunks);
+                }
+            }
+        }
+    }
+
+    private void startBackground(String name, Runnable task) {
+        Thread thread = new Thread(() -> {
+            try {
+                task.run();
+            } catch (RuntimeException ex) {
+                if (api != null) {
+                    api.logging().logToError("[GMR] " + name + " failed: " + ex.getMessage());
+                }
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Decoding and re-chunking happen outside the lock; each entry then takes it only briefly to attach,
+    // so live traffic and editor lookups are not held up for the whole migration.
+    private void migrateLegacy(PersistedObject store) {
         String payload = store.getString(DATA_KEY);
         if (payload == null || payload.isEmpty()) {
             return;
@@ -152,14 +697,34 @@ final class ChangeStore {
             if (line.isEmpty()) {
                 continue;
             }
-            Entry parsed = deserializeEntry(line);
-            if (parsed == null) {
+            LegacyEntry legacy = deserializeLegacyEntry(line);
+            if (legacy == null) {
                 continue;
             }
-            Key key = parsed.key;
-            lru.put(key, parsed);
-            registerAliases(parsed.aliases, key);
-            currentBytes += parsed.sizeBytes;
+            List<ChunkStore.PreparedChunk> original = ChunkStore.prepare(legacy.original);
+            List<ChunkStore.PreparedChunk> modified = ChunkStore.prepare(legacy.modified);
+            synchronized (this) {
+                // A diff stored for the same message since startup is newer than the legacy one.
+                if (lru.containsKey(legacy.key)) {
+                    continue;
+                }
+                long heldBefore = chunks.heldBytes();
+                List<ChunkStore.ChunkId> originalChunks = chunks.acquire(original);
+                List<ChunkStore.ChunkId> modifiedChunks = chunks.acquire(modified);
+                // Legacy entries carry no tool or host; they are attributed to the shared partition.
+                // Legacy aliases may not follow the current variant scheme, so no fingerprints are claimed for them.
+                Entry entry = new Entry(originalChunks, modifiedChunks, legacyRules(legacy.summaries), null, legacy.aliases, null,
+                    legacy.key, null, CachePartition.OTHER, "", logicalSize(originalChunks, modifiedChunks));
+                currentBytes += chunks.heldBytes() - heldBefore;
+                attach(entry);
+                currentBytes += entry.sizeBytes;
+            }
+        }
+        synchronized (this) {
+            evictPartitions();
+            evictToSize();
+            persist();
+            store.deleteString(DATA_KEY);
         }
     }
 
@@ -168,38 +733,126 @@ final class ChangeStore {
         if (store == null) {
             return;
         }
-        // Persist a compact, line-delimited cache snapshot under a single key.
+        // Persist a compact binary index; chunk payloads are written/deleted incrementally.
         store.setInteger(MAX_MB_KEY, maxBytesMb());
-        StringBuilder builder = new StringBuilder();
-        for (Map.Entry<Key, Entry> entry : lru.entrySet()) {
-            builder.append(serializeEntry(entry.getKey(), entry.getValue())).append('\n');
+        for (Map.Entry<CachePartition, PartitionState> entry : partitions.entrySet()) {
+            store.setInteger(SHARE_KEY_PREFIX + entry.getKey().name(), entry.getValue().sharePercent);
+        }
+        store.setInteger(HOST_QUOTA_MB_KEY, hostQuotaMb());
+        store.setBoolean(ADMISSION_KEY, admissionEnabled);
+        store.setString(DIFF_ALGORITHM_KEY, diffAlgorithm.name());
+        PersistedObject chunkObject = getOrCreateChild(store, CHUNKS_KEY);
+        if (chunkObject != null) {
+            for (ChunkStore.ChunkId id : chunks.drainRemoved()) {
+                if (spilledChunks.containsKey(id)) {
+                    // still used by a spilled entry's record
+                    continue;
+                }
+                chunkObject.deleteByteArray(id.hex());
+            }
+            for (ChunkStore.ChunkId id : chunks.drainAdded()) {
+                byte[] compressed = chunks.compressed(id);
+                if (compressed != null) {
+                    chunkObject.setByteArray(id.hex(), ByteArray.byteArray(compressed));
+                }
+            }
+        }
+        try {
+            store.setByteArray(BINARY_INDEX_KEY, ByteArray.byteArray(serializeIndex()));
+            store.setInteger(FORMAT_KEY, INDEX_FORMAT);
+        } catch (IOException ex) {
+            log("[GMR] Failed to persist diff cache index: " + ex.getMessage());
         }
-        store.setString(DATA_KEY, builder.toString());
     }
 
-    private long summariesSize(List<String> summaries) {
-        if (summaries == null) {
-            return 0;
+    // Layout: magic, version, chunk table (id, size), rule catalog (id, version, summary),
+    // then entries in LRU order (eldest first). Entries without spans or fingerprints write empty arrays.
+    private byte[] serializeIndex() throws IOException {
+        Map<ChunkStore.ChunkId, Integer> sizes = chunks.sizeIndex();
+        spilledChunks.forEach((id, chunk) -> sizes.putIfAbsent(id, chunk.size));
+        // Spilled entries are older than any entry still in memory, so they go first.
+        List<Entry> entries = new ArrayList<>(spilled.size() + lru.size());
+        entries.addAll(spilled.values());
+        entries.addAll(lru.values());
+        BinaryRecords.Writer writer = new BinaryRecords.Writer(sizes.size() * 20 + entries.size() * 256);
+        writer.writeInt(INDEX_MAGIC).writeByte(INDEX_FORMAT);
+        writer.writeInt(sizes.size());
+        for (Map.Entry<ChunkStore.ChunkId, Integer> entry : sizes.entrySet()) {
+            writer.writeChunkId(entry.getKey()).writeInt(entry.getValue());
         }
-        long size = 0;
-        for (String summary : summaries) {
-            size += summary.length();
+        // Each referenced rule version is written once, however many entries it changed.
+        Set<RuleCatalog.RuleVersion> referenced = new LinkedHashSet<>();
+        for (Entry entry : entries) {
+            for (RuleCatalog.AppliedRule applied : entry.appliedRules) {
+                referenced.add(applied.version());
+            }
+        }
+        writer.writeInt(referenced.size());
+        for (RuleCatalog.RuleVersion version : referenced) {
+            writer.writeString(version.ruleId()).writeInt(version.version()).writeString(catalog.summary(version));
         }
-        return size;
+        writer.writeInt(entries.size());
+        for (Entry entry : entries) {
+            writer.writeByte(entry.key.type.ordinal())
+                .writeString(entry.key.hash)
+                .writeString(entry.correlationId)
+                .writeString(entry.partition.name())
+                .writeString(entry.host)
+                .writeStrings(entry.aliases)
+                .writeInt(entry.appliedRules.size());
+            for (RuleCatalog.AppliedRule applied : entry.appliedRules) {
+                writer.writeString(applied.version().ruleId())
+                    .writeInt(applied.version().version())
+                    .writeInt(applied.position());
+            }
+            writer.writeInts(entry.spans == null ? new int[0] : entry.spans.packed())
+                .writeLongs(entry.fingerprints == null ? new long[0] : entry.fingerprints)
+                .writeChunkIds(entry.originalChunks)
+                .writeChunkIds(entry.modifiedChunks);
+        }
+        return writer.toByteArray();
     }
 
-    private String serializeSummaries(List<String> summaries) {
-        if (summaries == null || summaries.isEmpty()) {
-            return "";
+    private Entry readEntry(BinaryRecords.Reader reader) throws IOException {
+        int typeOrdinal = reader.readByte();
+        String hash = reader.readString();
+        String correlationId = reader.readString();
+        CachePartition partition = parsePartition(reader.readString());
+        String host = reader.readString();
+        List<String> aliases = reader.readStrings();
+        List<RuleCatalog.AppliedRule> appliedRules = readAppliedRules(reader);
+        // Entries migrated from the legacy format have no spans; their diff tabs fall back to diffing the texts.
+        EditSpans spans = EditSpans.fromPacked(reader.readInts());
+        long[] fingerprints = reader.readLongs();
+        List<ChunkStore.ChunkId> originalChunks = reader.readChunkIds();
+        List<ChunkStore.ChunkId> modifiedChunks = reader.readChunkIds();
+        if (typeOrdinal >= Type.values().length || hash.isEmpty()) {
+            return null;
         }
-        StringBuilder builder = new StringBuilder();
-        for (int i = 0; i < summaries.size(); i++) {
-            if (i > 0) {
-                builder.append('\u0001');
-            }
-            builder.append(summaries.get(i));
+        Key key = new Key(Type.values()[typeOrdinal], hash);
+        // Logical size is filled in once chunk sizes are known (see restoreEntry()).
+        return new Entry(originalChunks, modifiedChunks, appliedRules, spans, aliases,
+            fingerprints == null || fingerprints.length == 0 ? null : fingerprints, key,
+            correlationId.isEmpty() ? null : correlationId, partition, host, 0);
+    }
+
+    private static List<RuleCatalog.AppliedRule> readAppliedRules(BinaryRecords.Reader reader) throws IOException {
+        int count = reader.readLength();
+        List<RuleCatalog.AppliedRule> appliedRules = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            RuleCatalog.RuleVersion version = new RuleCatalog.RuleVersion(reader.readString(), reader.readInt());
+            appliedRules.add(new RuleCatalog.AppliedRule(version, reader.readInt()));
         }
-        return builder.toString();
+        return appliedRules;
+    }
+
+    // The legacy format stored summary text per entry; identical summaries share one catalog entry.
+    private List<RuleCatalog.AppliedRule> legacyRules(List<String> summaries) {
+        List<RuleCatalog.AppliedRule> appliedRules = new ArrayList<>(summaries.size());
+        for (String summary : summaries) {
+            appliedRules.add(catalog.restoreLegacy(summary));
+        }
+        return appliedRules;
     }
 
     private List<String> deserializeSummaries(String value) {
@@ -212,33 +865,11 @@ final class ChangeStore {
         return out;
     }
 
-    private byte[] compress(String input) {
-        try {
-            ByteArrayOutputStream output = new ByteArrayOutputStream();
-            try (GZIPOutputStream gzip = new GZIPOutputStream(output)) {
-                gzip.write(input.getBytes(java.nio.charset.StandardCharsets.UTF_8));
-            }
-            return output.toByteArray();
-        } catch (IOException ex) {
-            // Fall back to raw bytes if compression fails.
-            return input.getBytes(java.nio.charset.StandardCharsets.UTF_8);
-        }
-    }
-
-    private String decompress(byte[] data) {
-        if (data == null || data.length == 0) {
-            return "";
-        }
-        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(data))) {
-            return new String(gzip.readAllBytes(), java.nio.charset.StandardCharsets.UTF_8);
-        } catch (IOException ex) {
-            // Fall back to raw bytes if decompression fails.
-            return new String(data, java.nio.charset.StandardCharsets.UTF_8);
-        }
+    private String hashOf(String value) {
+        return digestOf(normalize(value));
     }
 
-    private String hashOf(String value) {
-        String normalized = normalize(value);
+    private String digestOf(String normalized) {
         try {
             MessageDigest digest = MessageDigest.getInstance("SHA-256");
             byte[] bytes = digest.digest(normalized.getBytes(java.nio.charset.StandardCharsets.UTF_8));
@@ -280,54 +911,43 @@ final class ChangeStore {
         return parent.getChildObject(key);
     }
 
-    private String serializeEntry(Key key, Entry entry) {
-        String type = key.type.name();
-        String hash = key.hash;
-        String aliases = serializeAliases(entry.aliases);
-        String summaries = serializeSummaries(entry.record.summaries());
-        String original = BASE64_ENCODER.encodeToString(entry.compressedOriginal);
-        String modified = BASE64_ENCODER.encodeToString(entry.compressedModified);
-        return encode(type) + FIELD_SEP
-            + encode(hash) + FIELD_SEP
-            + encode(aliases) + FIELD_SEP
-            + encode(summaries) + FIELD_SEP
-            + encode(original) + FIELD_SEP
-            + encode(modified);
+    private CachePartition parsePartition(String name) {
+        try {
+            return CachePartition.valueOf(name);
+        } catch (IllegalArgumentException ex) {
+            return CachePartition.OTHER;
+        }
     }
 
-    private Entry deserializeEntry(String line) {
+    private LegacyEntry deserializeLegacyEntry(String line) {
         String[] parts = line.split(String.valueOf(FIELD_SEP), -1);
         if (parts.length < 5) {
             return null;
         }
-        String typeName = decode(parts[0]);
-        String hash = decode(parts[1]);
+        Key key = parseKey(decode(parts[0]), decode(parts[1]));
         String aliasesRaw = decode(parts[2]);
         String summariesRaw = decode(parts[3]);
         String originalB64 = decode(parts[4]);
         String modifiedB64 = parts.length > 5 ? decode(parts[5]) : "";
-        if (typeName.isEmpty() || hash.isEmpty() || originalB64.isEmpty()) {
-            return null;
-        }
-        Type type;
-        try {
-            type = Type.valueOf(typeName);
-        } catch (IllegalArgumentException ex) {
+        if (key == null || originalB64.isEmpty()) {
             return null;
         }
         byte[] compressed = BASE64_DECODER.decode(originalB64);
         byte[] compressedModified = modifiedB64.isEmpty() ? new byte[0] : BASE64_DECODER.decode(modifiedB64);
-        String original = decompress(compressed);
-        String modified = compressedModified.length == 0 ? "" : decompress(compressedModified);
-        List<String> summaries = deserializeSummaries(summariesRaw);
-        ChangeRecord record = new ChangeRecord(original, modified, summaries == null ? List.of() : summaries);
-        long size = compressed.length + compressedModified.length + summariesSize(summaries);
-        List<String> aliases = deserializeAliases(aliasesRaw);
-        return new Entry(record, compressed, compressedModified, size, aliases, new Key(type, hash));
+        String original = ChunkStore.assemble(List.of(compressed));
+        String modified = compressedModified.length == 0 ? "" : ChunkStore.assemble(List.of(compressedModified));
+        return new LegacyEntry(key, original, modified, deserializeSummaries(summariesRaw), deserializeAliases(aliasesRaw));
     }
 
-    private String encode(String value) {
-        return BASE64_ENCODER.encodeToString(value.getBytes(java.nio.charset.StandardCharsets.UTF_8));
+    private Key parseKey(String typeName, String hash) {
+        if (typeName.isEmpty() || hash.isEmpty()) {
+            return null;
+        }
+        try {
+            return new Key(Type.valueOf(typeName), hash);
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
     }
 
     private String decode(String value) {
@@ -419,20 +1039,6 @@ final class ChangeStore {
         }
     }
 
-    private String serializeAliases(List<String> aliases) {
-        if (aliases == null || aliases.isEmpty()) {
-            return "";
-        }
-        StringBuilder builder = new StringBuilder();
-        for (int i = 0; i < aliases.size(); i++) {
-            if (i > 0) {
-                builder.append('\u0001');
-            }
-            builder.append(aliases.get(i));
-        }
-        return builder.toString();
-    }
-
     private List<String> deserializeAliases(String value) {
         if (value == null || value.isEmpty()) {
             return List.of();
@@ -444,48 +1050,145 @@ final class ChangeStore {
     }
 
     static final class ChangeRecord {
-        private final String original;
-        private final String modified;
-        private final List<String> summaries;
+        // The store entry this record was read from; identifies it in the DiffResultCache.
+        private final Object identity;
+        private final DiffResultCache diffResults;
+        private final List<byte[]> originalChunks;
+        private final List<byte[]> modifiedChunks;
+        private final List<RuleCatalog.AppliedRule> appliedRules;
+        private final EditSpans spans;
+        private final RuleCatalog catalog;
+        private String original;
+        private String modified;
+        private List<String> summaries;
 
-        ChangeRecord(String original, String modified, List<String> summaries) {
-            this.original = original;
-            this.modified = modified == null ? "" : modified;
-            this.summaries = summaries == null ? List.of() : List.copyOf(summaries);
+        ChangeRecord(Object identity, List<byte[]> originalChunks, List<byte[]> modifiedChunks, List<RuleCatalog.AppliedRule> appliedRules,
+                     EditSpans spans, RuleCatalog catalog, DiffResultCache diffResults) {
+            this.identity = identity;
+            this.diffResults = diffResults;
+            this.originalChunks = originalChunks;
+            this.modifiedChunks = modifiedChunks;
+            this.appliedRules = appliedRules;
+            this.spans = spans;
+            this.catalog = catalog;
         }
 
-        String original() {
+        synchronized String original() {
+            if (original == null) {
+                original = ChunkStore.assemble(originalChunks);
+            }
             return original;
         }
 
-        String modified() {
+        synchronized String modified() {
+            if (modified == null) {
+                modified = ChunkStore.assemble(modifiedChunks);
+            }
             return modified;
         }
 
-        List<String> summaries() {
+        // Summary text is only built when a diff tab displays the record.
+        synchronized List<String> summaries() {
+            if (summaries == null) {
+                summaries = catalog.summaries(appliedRules);
+            }
             return summaries;
         }
+
+        // Highlights previously computed for this record against the given displayed text, or null.
+        TextDiffHighlighter.DiffResult cachedDiff(String displayedModified) {
+            return diffResults.get(identity, displayedModified);
+        }
+
+        void cacheDiff(String displayedModified, TextDiffHighlighter.DiffResult diff) {
+            diffResults.put(identity, displayedModified, diff);
+        }
+
+        // Edit spans recorded when the rules ran, or null for records stored before spans existed.
+        EditSpans spans() {
+            return spans;
+        }
+
+        // "#position summary" of the rule at the given position, for labelling span highlights.
+        String ruleLabel(int position) {
+            for (RuleCatalog.AppliedRule applied : appliedRules) {
+                if (applied.position() == position) {
+                    return "#" + position + " " + catalog.summary(applied.version());
+                }
+            }
+            return null;
+        }
     }
 
     private enum Type { REQUEST, RESPONSE }
 
     private record Key(Type type, String hash) {}
 
+    private record IdKey(Type type, String correlationId) {}
+
+    record PartitionUsage(CachePartition partition, int sharePercent, long budgetBytes, long usedBytes, int entries) {}
+
+    private static final class PartitionState {
+        private final LinkedHashMap<Key, Entry> lru = new LinkedHashMap<>(16, 0.75f, true);
+        private final Map<String, Long> hostBytes = new HashMap<>();
+        private int sharePercent;
+        private long usedBytes;
+
+        PartitionState(int sharePercent) {
+            this.sharePercent = sharePercent;
+        }
+    }
+
+    private record LegacyEntry(Key key, String original, String modified, List<String> summaries, List<String> aliases) {}
+
+    private static final class SpilledChunk {
+        private final int size;
+        private int refs;
+
+        SpilledChunk(int size) {
+            this.size = size;
+        }
+    }
+
     private static final class Entry {
-        private final ChangeRecord record;
-        private final byte[] compressedOriginal;
-        private final byte[] compressedModified;
+        private final List<ChunkStore.ChunkId> originalChunks;
+        private final List<ChunkStore.ChunkId> modifiedChunks;
+        private final List<RuleCatalog.AppliedRule> appliedRules;
+        private final EditSpans spans;
+        // Per-entry overhead only; chunk bytes are accounted once in the ChunkStore.
         private final long sizeBytes;
         private final List<String> aliases;
+        // Membership filter fingerprints of the alias variants; null for entries migrated from the legacy format.
+        private final long[] fingerprints;
         private final Key key;
+        private final String correlationId;
+        private final CachePartition partition;
+        private final String host;
+        private final long logicalBytes;
 
-        Entry(ChangeRecord record, byte[] compressedOriginal, byte[] compressedModified, long sizeBytes, List<String> aliases, Key key) {
-            this.record = record;
-            this.compressedOriginal = compressedOriginal;
-            this.compressedModified = compressedModified == null ? new byte[0] : compressedModified;
-            this.sizeBytes = sizeBytes;
+        Entry(List<ChunkStore.ChunkId> originalChunks, List<ChunkStore.ChunkId> modifiedChunks, List<RuleCatalog.AppliedRule> appliedRules,
+              EditSpans spans, List<String> aliases, long[] fingerprints, Key key, String correlationId,
+              CachePartition partition, String host, long logicalBytes) {
+            this.originalChunks = List.copyOf(originalChunks);
+            this.modifiedChunks = List.copyOf(modifiedChunks);
+            this.appliedRules = appliedRules == null ? List.of() : List.copyOf(appliedRules);
+            this.spans = spans;
             this.aliases = aliases == null ? List.of() : List.copyOf(aliases);
+            this.fingerprints = fingerprints;
             this.key = key;
+            this.correlationId = correlationId;
+            this.partition = partition;
+            this.host = host == null ? "" : host;
+            this.sizeBytes = (long) (this.originalChunks.size() + this.modifiedChunks.size()) * ChunkStore.REF_OVERHEAD_BYTES
+                + (long) this.appliedRules.size() * APPLIED_RULE_BYTES
+                + (spans == null ? 0 : spans.sizeBytes())
+                + (fingerprints == null ? 0 : 16L + fingerprints.length * 8L);
+            this.logicalBytes = sizeBytes + logicalBytes;
+        }
+
+        Entry withLogicalBytes(long chunkBytes) {
+            return new Entry(originalChunks, modifiedChunks, appliedRules, spans, aliases, fingerprints, key, correlationId,
+                partition, host, chunkBytes);
         }
     }
 }
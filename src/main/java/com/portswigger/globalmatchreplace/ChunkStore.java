@@ -0,0 +1,408 @@
+package com.portswigger.globalmatchreplace;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Reference-counted, content-addressed chunk storage shared by all ChangeStore entries.
+// Not thread-safe: callers (ChangeStore) serialize access under their own lock.
+final class ChunkStore {
+    // Gear rolling hash with ~2 KB average chunks, bounded to [512 B, 16 KB].
+    private static final int MIN_CHUNK = 512;
+    private static final int MAX_CHUNK = 16 * 1024;
+    private static final long BOUNDARY_MASK = (1L << 11) - 1;
+    // Fixed seed keeps chunk boundaries stable across sessions so persisted chunks keep deduplicating.
+    private static final long[] GEAR = gearTable(0x9E3779B97F4A7C15L);
+    // Approximate per-reference cost (id + list slot) charged to the owning entry.
+    static final int REF_OVERHEAD_BYTES = 24;
+
+    private final Map<ChunkId, Chunk> chunks = new HashMap<>();
+    private final Set<ChunkId> added = new HashSet<>();
+    private final Set<ChunkId> removed = new HashSet<>();
+    private final MessageDigest digest = newDigest();
+    // Fetches payloads of chunks restored from the persisted index; see restoreIndexed().
+    private Function<ChunkId, byte[]> loader = id -> null;
+    private boolean reloadable;
+    private long heldBytes;
+
+    List<ChunkId> acquire(String text) {
+        if (text == null || text.isEmpty()) {
+            return List.of();
+        }
+        byte[] data = text.getBytes(StandardCharsets.UTF_8);
+        List<ChunkId> refs = new ArrayList<>();
+        int start = 0;
+        while (start < data.length) {
+            int end = nextBoundary(data, start);
+            refs.add(acquireChunk(data, start, end));
+            start = end;
+        }
+        return refs;
+    }
+
+    // Splits, hashes and compresses text without touching the store, so callers can do the expensive
+    // part outside their lock and then hand the result to acquire(List).
+    static List<PreparedChunk> prepare(String text) {
+        if (text == null || text.isEmpty()) {
+            return List.of();
+        }
+        MessageDigest digest = newDigest();
+        byte[] data = text.getBytes(StandardCharsets.UTF_8);
+        List<PreparedChunk> prepared = new ArrayList<>();
+        int start = 0;
+        while (start < data.length) {
+            int end = nextBoundary(data, start);
+            prepared.add(new PreparedChunk(idOf(digest, data, start, end), compress(data, start, end - start)));
+            start = end;
+        }
+        return prepared;
+    }
+
+    // Same as acquire(String) for chunks from prepare().
+    List<ChunkId> acquire(List<PreparedChunk> prepared) {
+        List<ChunkId> refs = new ArrayList<>(prepared.size());
+        for (PreparedChunk chunk : prepared) {
+            refs.add(acquireChunk(chunk.id(), chunk.compressed(), null, 0, 0));
+        }
+        return refs;
+    }
+
+    void retain(List<ChunkId> refs) {
+        for (ChunkId id : refs) {
+            Chunk chunk = chunks.get(id);
+            if (chunk != null) {
+                chunk.refs++;
+            }
+        }
+    }
+
+    void release(List<ChunkId> refs) {
+        for (ChunkId id : refs) {
+            Chunk chunk = chunks.get(id);
+            if (chunk == null) {
+                continue;
+            }
+            chunk.refs--;
+            if (chunk.refs <= 0) {
+                drop(id, chunk);
+            }
+        }
+    }
+
+    boolean contains(ChunkId id) {
+        return chunks.containsKey(id);
+    }
+
+    boolean containsAll(List<ChunkId> refs) {
+        for (ChunkId id : refs) {
+            if (!chunks.containsKey(id)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Captures the compressed chunk arrays so callers can assemble text outside the store lock.
+    // Payloads of index-only chunks are fetched on first use; returns null if one cannot be loaded.
+    List<byte[]> pin(List<ChunkId> refs) {
+        List<byte[]> pinned = new ArrayList<>(refs.size());
+        for (ChunkId id : refs) {
+            byte[] compressed = load(id);
+            if (compressed == null) {
+                return null;
+            }
+            pinned.add(compressed);
+        }
+        return pinned;
+    }
+
+    // Size of a held chunk, or -1 if it is not held.
+    int sizeOf(ChunkId id) {
+        Chunk chunk = chunks.get(id);
+        return chunk == null ? -1 : chunk.size;
+    }
+
+    // True while the chunk is held but not yet written by the last persist.
+    boolean isPending(ChunkId id) {
+        return added.contains(id);
+    }
+
+    // Queues deletion of a chunk no longer held here that the project file may still have.
+    void markRemoved(ChunkId id) {
+        if (!chunks.containsKey(id)) {
+            removed.add(id);
+        }
+    }
+
+    boolean isLoaded(List<ChunkId> refs) {
+        for (ChunkId id : refs) {
+            Chunk chunk = chunks.get(id);
+            if (chunk != null && chunk.compressed == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void setLoader(Function<ChunkId, byte[]> loader) {
+        this.loader = loader;
+        this.reloadable = true;
+    }
+
+    // Releases in-memory payloads that are already persisted; they are re-read on next pin().
+    long unloadPersisted() {
+        if (!reloadable) {
+            return 0;
+        }
+        long freed = 0;
+        for (Map.Entry<ChunkId, Chunk> entry : chunks.entrySet()) {
+            Chunk chunk = entry.getValue();
+            if (chunk.compressed != null && !added.contains(entry.getKey())) {
+                freed += chunk.compressed.length;
+                chunk.compressed = null;
+            }
+        }
+        return freed;
+    }
+
+    long sizeOf(List<ChunkId> refs) {
+        long size = 0;
+        for (ChunkId id : refs) {
+            Chunk chunk = chunks.get(id);
+            if (chunk != null) {
+                size += chunk.size;
+            }
+        }
+        return size;
+    }
+
+    long heldBytes() {
+        return heldBytes;
+    }
+
+    int chunkCount() {
+        return chunks.size();
+    }
+
+    // Inserts a persisted chunk with no references, recording only its size; entries claim it via
+    // retain() and the payload is loaded on first pin().
+    void restoreIndexed(ChunkId id, int size) {
+        if (size < 0 || chunks.containsKey(id)) {
+            return;
+        }
+        chunks.put(id, new Chunk(null, size));
+        heldBytes += size;
+    }
+
+    void dropUnreferenced() {
+        Iterator<Map.Entry<ChunkId, Chunk>> iterator = chunks.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<ChunkId, Chunk> entry = iterator.next();
+            if (entry.getValue().refs <= 0) {
+                heldBytes -= entry.getValue().size;
+                added.remove(entry.getKey());
+                removed.add(entry.getKey());
+                iterator.remove();
+            }
+        }
+    }
+
+    byte[] compressed(ChunkId id) {
+        return load(id);
+    }
+
+    // Sizes of all held chunks, persisted so the next session can restore accounting without payloads.
+    Map<ChunkId, Integer> sizeIndex() {
+        Map<ChunkId, Integer> index = new HashMap<>(chunks.size() * 2);
+        for (Map.Entry<ChunkId, Chunk> entry : chunks.entrySet()) {
+            index.put(entry.getKey(), entry.getValue().size);
+        }
+        return index;
+    }
+
+    // Chunks created since the last drain; persistence writes only these.
+    Set<ChunkId> drainAdded() {
+        Set<ChunkId> drained = new HashSet<>(added);
+        added.clear();
+        return drained;
+    }
+
+    // Chunks released since the last drain; persistence deletes only these.
+    Set<ChunkId> drainRemoved() {
+        Set<ChunkId> drained = new HashSet<>(removed);
+        removed.clear();
+        return drained;
+    }
+
+    static String assemble(List<byte[]> compressedChunks) {
+        if (compressedChunks == null || compressedChunks.isEmpty()) {
+            return "";
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        for (byte[] compressed : compressedChunks) {
+            byte[] raw = decompress(compressed);
+            output.write(raw, 0, raw.length);
+        }
+        return output.toString(StandardCharsets.UTF_8);
+    }
+
+    static byte[] compress(byte[] input, int offset, int length) {
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(output)) {
+                gzip.write(input, offset, length);
+            }
+            return output.toByteArray();
+        } catch (IOException ex) {
+            // Fall back to raw bytes if compression fails.
+            byte[] raw = new byte[length];
+            System.arraycopy(input, offset, raw, 0, length);
+            return raw;
+        }
+    }
+
+    static byte[] decompress(byte[] data) {
+        if (data == null || data.length == 0) {
+            return new byte[0];
+        }
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            return gzip.readAllBytes();
+        } catch (IOException ex) {
+            // Fall back to raw bytes if decompression fails.
+            return data;
+        }
+    }
+
+    private ChunkId acquireChunk(byte[] data, int start, int end) {
+        return acquireChunk(idOf(digest, data, start, end), null, data, start, end);
+    }
+
+    // compressed is null when the chunk still has to be compressed from data[start, end), which is
+    // only done if the chunk is new.
+    private ChunkId acquireChunk(ChunkId id, byte[] compressed, byte[] data, int start, int end) {
+        Chunk chunk = chunks.get(id);
+        if (chunk == null) {
+            if (compressed == null) {
+                compressed = compress(data, start, end - start);
+            }
+            chunk = new Chunk(compressed, compressed.length);
+            chunks.put(id, chunk);
+            heldBytes += chunk.size;
+            // A chunk released and re-created before persisting must not be deleted afterwards.
+            removed.remove(id);
+            added.add(id);
+        }
+        chunk.refs++;
+        return id;
+    }
+
+    private byte[] load(ChunkId id) {
+        Chunk chunk = chunks.get(id);
+        if (chunk == null) {
+            return null;
+        }
+        if (chunk.compressed == null) {
+            chunk.compressed = loader.apply(id);
+        }
+        return chunk.compressed;
+    }
+
+    private void drop(ChunkId id, Chunk chunk) {
+        chunks.remove(id);
+        heldBytes -= chunk.size;
+        added.remove(id);
+        removed.add(id);
+    }
+
+    private static int nextBoundary(byte[] data, int start) {
+        int limit = Math.min(data.length, start + MAX_CHUNK);
+        int minEnd = start + MIN_CHUNK;
+        if (minEnd >= limit) {
+            return limit;
+        }
+        long hash = 0;
+        for (int i = start; i < limit; i++) {
+            hash = (hash << 1) + GEAR[data[i] & 0xFF];
+            if (i + 1 >= minEnd && (hash & BOUNDARY_MASK) == 0) {
+                return i + 1;
+            }
+        }
+        return limit;
+    }
+
+    private static ChunkId idOf(MessageDigest digest, byte[] data, int start, int end) {
+        if (digest == null) {
+            // Without SHA-256, fall back to a content hash plus length (collisions are unlikely for chunk sizes).
+            long h = 1125899906842597L;
+            for (int i = start; i < end; i++) {
+                h = 31 * h + data[i];
+            }
+            return new ChunkId(h, end - start);
+        }
+        digest.reset();
+        digest.update(data, start, end - start);
+        byte[] bytes = digest.digest();
+        return new ChunkId(readLong(bytes, 0), readLong(bytes, 8));
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            return null;
+        }
+    }
+
+    private static long[] gearTable(long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        long[] table = new long[256];
+        for (int i = 0; i < table.length; i++) {
+            table[i] = random.nextLong();
+        }
+        return table;
+    }
+
+    // A chunk from prepare(): its ID and compressed payload, not yet in any store.
+    record PreparedChunk(ChunkId id, byte[] compressed) {}
+
+    // First 128 bits of the chunk's SHA-256 digest.
+    record ChunkId(long high, long low) {
+        String hex() {
+            return String.format("%016x%016x", high, low);
+        }
+    }
+
+    private static final class Chunk {
+        // Null until loaded for chunks restored from the persisted index.
+        private byte[] compressed;
+        private final int size;
+        private int refs;
+
+        Chunk(byte[] compressed, int size) {
+            this.compressed = compressed;
+            this.size = size;
+        }
+    }
+}
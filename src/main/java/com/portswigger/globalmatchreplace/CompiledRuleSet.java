@@ -0,0 +1,75 @@
+package com.portswigger.globalmatchreplace;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+// The rules one profile applies, ready for the HTTP handler: filtered to enabled rules with a usable
+// match, split by target, in profile order, and with patterns compiled once. Immutable, so the handler
+// can keep using a set while a newer one is being built or swapped in.
+final class CompiledRuleSet {
+    // pattern is null for literal rules; position is the rule's 1-based row in the Rules table.
+    record Entry(Rule rule, int position, Pattern pattern) {}
+
+    private final RuleProfiles.Profile profile;
+    private final long ruleVersion;
+    private final List<Entry> requestRules;
+    private final List<Entry> responseRules;
+
+    private CompiledRuleSet(RuleProfiles.Profile profile, long ruleVersion, List<Entry> requestRules, List<Entry> responseRules) {
+        this.profile = profile;
+        this.ruleVersion = ruleVersion;
+        this.requestRules = requestRules;
+        this.responseRules = responseRules;
+    }
+
+    // profile null means every rule in table order.
+    static CompiledRuleSet compile(RuleStore.Version version, RuleProfiles.Profile profile) {
+        List<Rule> rules = version.rules();
+        Map<String, Integer> rows = new HashMap<>();
+        for (int i = 0; i < rules.size(); i++) {
+            rows.putIfAbsent(rules.get(i).getId(), i);
+        }
+        List<Entry> requestRules = new ArrayList<>();
+        List<Entry> responseRules = new ArrayList<>();
+        int count = profile == null ? rules.size() : profile.ruleIds().size();
+        for (int i = 0; i < count; i++) {
+            // Profiles may still name rules deleted since; those are skipped.
+            Integer row = profile == null ? Integer.valueOf(i) : rows.get(profile.ruleIds().get(i));
+            if (row == null) {
+                continue;
+            }
+            Rule rule = rules.get(row);
+            // Disabled, empty and tool-less rules can never change a message.
+            if (!rule.isEnabled() || rule.getMatch().isEmpty() || rule.getTools().isEmpty()) {
+                continue;
+            }
+            Pattern pattern = rule.compiledPattern();
+            if (pattern == null && (rule.getMatchType() == Rule.MatchType.REGEX || rule.hasWildcards())) {
+                // does not compile, so it could never change anything
+                continue;
+            }
+            Entry entry = new Entry(rule, row + 1, pattern);
+            (rule.getTarget() == Rule.Target.REQUEST ? requestRules : responseRules).add(entry);
+        }
+        return new CompiledRuleSet(profile, version.number(), List.copyOf(requestRules), List.copyOf(responseRules));
+    }
+
+    RuleProfiles.Profile profile() {
+        return profile;
+    }
+
+    long ruleVersion() {
+        return ruleVersion;
+    }
+
+    List<Entry> rules(boolean isRequest) {
+        return isRequest ? requestRules : responseRules;
+    }
+
+    int size() {
+        return requestRules.size() + responseRules.size();
+    }
+}
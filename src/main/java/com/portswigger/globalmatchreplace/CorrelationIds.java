@@ -0,0 +1,44 @@
+package com.portswigger.globalmatchreplace;
+
+import burp.api.montoya.core.Annotations;
+import burp.api.montoya.core.HighlightColor;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Compact IDs linking a history item to its ChangeStore records, carried in the item's notes.
+final class CorrelationIds {
+    static final String NOTE = "Global Match & Replace";
+    private static final String MARKER_PREFIX = "[gmr:";
+    // Random per-session prefix keeps IDs unique across reloads of a persisted cache.
+    private static final String SESSION_PREFIX = Long.toString(new SecureRandom().nextLong() >>> 34, 36);
+    private static final AtomicLong COUNTER = new AtomicLong();
+
+    private CorrelationIds() {
+    }
+
+    static String next() {
+        return SESSION_PREFIX + "." + Long.toString(COUNTER.incrementAndGet(), 36);
+    }
+
+    static String from(Annotations annotations) {
+        if (annotations == null || !annotations.hasNotes()) {
+            return null;
+        }
+        String notes = annotations.notes();
+        int start = notes.lastIndexOf(MARKER_PREFIX);
+        if (start < 0) {
+            return null;
+        }
+        int end = notes.indexOf(']', start);
+        if (end <= start + MARKER_PREFIX.length()) {
+            return null;
+        }
+        return notes.substring(start + MARKER_PREFIX.length(), end);
+    }
+
+    static Annotations annotate(String id) {
+        // Yellow highlight and note make modifications visible; the marker carries the ID.
+        return Annotations.annotations(NOTE + " " + MARKER_PREFIX + id + "]", HighlightColor.YELLOW);
+    }
+}
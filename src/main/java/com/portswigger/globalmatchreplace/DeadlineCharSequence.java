@@ -0,0 +1,55 @@
+package com.portswigger.globalmatchreplace;
+
+import java.util.concurrent.CancellationException;
+
+// Wraps regex input so a runaway match can be stopped: java.util.regex ignores interrupts, but it
+// reads every char through charAt, so the deadline and interrupt flag are checked there.
+final class DeadlineCharSequence implements CharSequence {
+    // Reads between clock checks; nanoTime on every charAt would dominate simple matches.
+    private static final int CHECK_INTERVAL = 4096;
+
+    private final CharSequence text;
+    private final long deadlineNanos;
+    private int untilCheck = CHECK_INTERVAL;
+
+    DeadlineCharSequence(CharSequence text, long deadlineNanos) {
+        this.text = text;
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    @Override
+    public int length() {
+        return text.length();
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (--untilCheck <= 0) {
+            untilCheck = CHECK_INTERVAL;
+            if (Thread.currentThread().isInterrupted()) {
+                throw new CancellationException();
+            }
+            if (System.nanoTime() - deadlineNanos > 0) {
+                throw new DeadlineExceededException();
+            }
+        }
+        return text.charAt(index);
+    }
+
+    // Group values and replacement text need no checks.
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return text.subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return text.toString();
+    }
+
+    static final class DeadlineExceededException extends RuntimeException {
+        DeadlineExceededException() {
+            super("Match time limit exceeded", null, false, false);
+        }
+    }
+}
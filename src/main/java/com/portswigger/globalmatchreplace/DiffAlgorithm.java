@@ -0,0 +1,35 @@
+package com.portswigger.globalmatchreplace;
+
+// Line diff used by the GMR Diff tab when no recorded edit spans apply (see TextDiffHighlighter).
+enum DiffAlgorithm {
+    // Shortest edit script; best for small, scattered edits.
+    MYERS("Myers"),
+    // Anchors on rarely repeated lines; reads better on moved blocks and reordered keys.
+    HISTOGRAM("Histogram");
+
+    private final String displayName;
+
+    DiffAlgorithm(String displayName) {
+        this.displayName = displayName;
+    }
+
+    String displayName() {
+        return displayName;
+    }
+
+    static DiffAlgorithm parse(String name) {
+        if (name != null) {
+            for (DiffAlgorithm algorithm : values()) {
+                if (algorithm.name().equals(name)) {
+                    return algorithm;
+                }
+            }
+        }
+        return MYERS;
+    }
+
+    @Override
+    public String toString() {
+        return displayName;
+    }
+}
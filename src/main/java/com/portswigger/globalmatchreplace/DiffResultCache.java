@@ -0,0 +1,104 @@
+package com.portswigger.globalmatchreplace;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Small LRU of computed highlight lists, keyed by change-record identity and the displayed text,
+// so revisiting a message (or showing it in a second editor) needs no diff. Has its own byte cap,
+// separate from the diff cache budget; the cached text counts towards it.
+final class DiffResultCache {
+    // Rough per-object costs used for the byte estimate.
+    private static final int RESULT_OVERHEAD_BYTES = 96;
+    private static final int HIGHLIGHT_BYTES = 40;
+    private static final int CHAR_BYTES = 2;
+
+    private final LinkedHashMap<Key, Cached> lru = new LinkedHashMap<>(16, 0.75f, true);
+    // Keys per record, so invalidate() touches only that record's results.
+    private final Map<Object, List<Key>> keysByRecord = new IdentityHashMap<>();
+    private final long maxBytes;
+    private long currentBytes;
+
+    DiffResultCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    synchronized TextDiffHighlighter.DiffResult get(Object record, String modified) {
+        Cached cached = lru.get(new Key(record, modified));
+        return cached == null ? null : cached.result;
+    }
+
+    synchronized void put(Object record, String modified, TextDiffHighlighter.DiffResult result) {
+        long size = sizeOf(result) + (long) modified.length() * CHAR_BYTES;
+        if (size > maxBytes) {
+            return;
+        }
+        Key key = new Key(record, modified);
+        Cached previous = lru.put(key, new Cached(result, size));
+        if (previous != null) {
+            currentBytes -= previous.sizeBytes;
+        } else {
+            keysByRecord.computeIfAbsent(record, ignored -> new ArrayList<>(1)).add(key);
+        }
+        currentBytes += size;
+        Iterator<Map.Entry<Key, Cached>> iterator = lru.entrySet().iterator();
+        while (currentBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<Key, Cached> eldest = iterator.next();
+            currentBytes -= eldest.getValue().sizeBytes;
+            iterator.remove();
+            unindex(eldest.getKey());
+        }
+    }
+
+    // Called when the record leaves the change store; its results can never be asked for again.
+    synchronized void invalidate(Object record) {
+        List<Key> keys = keysByRecord.remove(record);
+        if (keys == null) {
+            return;
+        }
+        for (Key key : keys) {
+            Cached cached = lru.remove(key);
+            if (cached != null) {
+                currentBytes -= cached.sizeBytes;
+            }
+        }
+    }
+
+    synchronized void clear() {
+        lru.clear();
+        keysByRecord.clear();
+        currentBytes = 0;
+    }
+
+    private void unindex(Key key) {
+        List<Key> keys = keysByRecord.get(key.record);
+        if (keys != null && keys.remove(key) && keys.isEmpty()) {
+            keysByRecord.remove(key.record);
+        }
+    }
+
+    private static long sizeOf(TextDiffHighlighter.DiffResult result) {
+        long size = RESULT_OVERHEAD_BYTES;
+        size += (long) (result.originalHighlights().size() + result.modifiedHighlights().size()) * HIGHLIGHT_BYTES;
+        return size;
+    }
+
+    // The record object (compared by identity) plus the text it was diffed against, compared in full
+    // so two texts with the same hash never share highlights.
+    private record Key(Object record, String modified) {
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key key && key.record == record && key.modified.equals(modified);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(record) + modified.hashCode();
+        }
+    }
+
+    private record Cached(TextDiffHighlighter.DiffResult result, long sizeBytes) {}
+}
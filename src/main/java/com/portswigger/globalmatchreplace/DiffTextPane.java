@@ -0,0 +1,386 @@
+package com.portswigger.globalmatchreplace;
+
+import javax.swing.JTextPane;
+import javax.swing.JViewport;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultCaret;
+import javax.swing.text.DefaultHighlighter;
+import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.Document;
+import javax.swing.text.Highlighter;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.StyledDocument;
+import java.awt.Color;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Text pane for one side of a GMR diff. Highlights are painted by a layered Highlighter rather than
+// stored as document attributes, and very large texts are only loaded as a window around the viewport.
+// In folded mode only the changed hunks (plus context) are loaded; unchanged runs are placeholders
+// whose text is inserted when clicked.
+final class DiffTextPane extends JTextPane {
+    // Texts up to this size are loaded whole; larger ones are windowed.
+    static final int LARGE_TEXT_CHARS = 512 * 1024;
+    // Window size for large texts: the viewport plus a generous margin either side.
+    private static final int WINDOW_CHARS = 256 * 1024;
+    // Window edges move to the nearest line boundary within this distance.
+    private static final int SNAP_CHARS = 4 * 1024;
+    // Unchanged runs shorter than this many lines are shown rather than folded.
+    private static final int MIN_FOLD_LINES = 4;
+    private static final Color PLACEHOLDER_COLOR = new Color(120, 120, 120);
+
+    private final Map<Color, Highlighter.HighlightPainter> painters = new HashMap<>();
+    private List<TextDiffHighlighter.Highlight> highlights = List.of();
+    private String text = "";
+    private int windowStart;
+    private int windowEnd;
+    private boolean shifting;
+    // Folds still collapsed in the loaded document, in text order.
+    private List<Fold> folds = new ArrayList<>();
+
+    DiffTextPane() {
+        ((DefaultHighlighter) getHighlighter()).setDrawsLayeredHighlights(true);
+        // Swapping windows must not drag the viewport back to the caret.
+        ((DefaultCaret) getCaret()).setUpdatePolicy(DefaultCaret.NEVER_UPDATE);
+        addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent event) {
+                Fold fold = foldAt(viewToModel2D(event.getPoint()));
+                if (fold != null) {
+                    expand(fold);
+                }
+            }
+        });
+    }
+
+    // A detached document for part of a text; safe to build off the EDT. folds lists the unchanged
+    // runs of text[start, end) that the document holds as placeholders.
+    record Window(int start, int end, StyledDocument document, List<Fold> folds) {}
+
+    // text[start, end) is shown as placeholder until expanded.
+    record Fold(int start, int end, String placeholder) {}
+
+    static Window windowAround(String text, int offset) {
+        int start = 0;
+        int end = text.length();
+        if (text.length() > LARGE_TEXT_CHARS) {
+            start = Math.max(0, offset - WINDOW_CHARS / 2);
+            end = Math.min(text.length(), start + WINDOW_CHARS);
+            start = Math.max(0, end - WINDOW_CHARS);
+            start = snapBack(text, start);
+            end = snapForward(text, end);
+        }
+        StyledDocument document = new DefaultStyledDocument();
+        try {
+            document.insertString(0, text.substring(start, end), null);
+        } catch (BadLocationException ignored) {
+            // empty document
+        }
+        return new Window(start, end, document, List.of());
+    }
+
+    // The whole text with unchanged runs more than contextLines away from any highlight folded.
+    // Returns null when there is nothing to fold or the folded text would still be large.
+    static Window folded(String text, List<TextDiffHighlighter.Highlight> highlights, int contextLines) {
+        if (highlights.isEmpty()) {
+            return null;
+        }
+        List<TextDiffHighlighter.Highlight> sorted = new ArrayList<>(highlights);
+        sorted.sort(Comparator.comparingInt(TextDiffHighlighter.Highlight::start));
+        // Visible ranges: each highlight widened to whole lines plus context, merged when they meet.
+        List<int[]> visible = new ArrayList<>();
+        for (TextDiffHighlighter.Highlight highlight : sorted) {
+            int start = linesBefore(text, highlight.start(), contextLines);
+            int end = linesAfter(text, Math.max(highlight.start(), highlight.end() - 1), contextLines);
+            int last = visible.size() - 1;
+            if (last >= 0 && start <= visible.get(last)[1]) {
+                visible.get(last)[1] = Math.max(visible.get(last)[1], end);
+            } else {
+                visible.add(new int[] {start, end});
+            }
+        }
+        List<Fold> folds = new ArrayList<>();
+        int position = 0;
+        for (int[] range : visible) {
+            addFold(text, position, range[0], folds);
+            position = range[1];
+        }
+        addFold(text, position, text.length(), folds);
+        if (folds.isEmpty()) {
+            return null;
+        }
+        StyledDocument document = new DefaultStyledDocument();
+        SimpleAttributeSet placeholderStyle = new SimpleAttributeSet();
+        StyleConstants.setForeground(placeholderStyle, PLACEHOLDER_COLOR);
+        StyleConstants.setItalic(placeholderStyle, true);
+        int length = 0;
+        position = 0;
+        try {
+            for (Fold fold : folds) {
+                document.insertString(length, text.substring(position, fold.start()), null);
+                length += fold.start() - position;
+                document.insertString(length, fold.placeholder(), placeholderStyle);
+                length += fold.placeholder().length();
+                position = fold.end();
+                if (length > LARGE_TEXT_CHARS) {
+                    return null;
+                }
+            }
+            document.insertString(length, text.substring(position), null);
+        } catch (BadLocationException ignored) {
+            return null;
+        }
+        return document.getLength() > LARGE_TEXT_CHARS ? null : new Window(0, text.length(), document, folds);
+    }
+
+    private static void addFold(String text, int start, int end, List<Fold> folds) {
+        int lines = 0;
+        for (int i = start; i < end; i++) {
+            if (text.charAt(i) == '\n') {
+                lines++;
+            }
+        }
+        if (end > start && text.charAt(end - 1) != '\n') {
+            lines++;
+        }
+        if (lines >= MIN_FOLD_LINES) {
+            String placeholder = String.format("[... %,d unchanged lines, click to expand ...]", lines) + "\n";
+            folds.add(new Fold(start, end, placeholder));
+        }
+    }
+
+    // Start of the line contextLines lines above the one containing offset.
+    private static int linesBefore(String text, int offset, int contextLines) {
+        int position = Math.min(offset, text.length());
+        for (int line = 0; line <= contextLines && position > 0; line++) {
+            int newline = text.lastIndexOf('\n', position - 1);
+            if (line == contextLines || newline < 0) {
+                return newline + 1;
+            }
+            position = newline;
+        }
+        return Math.max(0, position);
+    }
+
+    // End (after the newline) of the line contextLines lines below the one containing offset.
+    private static int linesAfter(String text, int offset, int contextLines) {
+        int position = offset;
+        for (int line = 0; line <= contextLines; line++) {
+            int newline = text.indexOf('\n', position);
+            if (newline < 0) {
+                return text.length();
+            }
+            position = newline + 1;
+        }
+        return position;
+    }
+
+    // Must be called on the EDT.
+    void show(String text, Window window, List<TextDiffHighlighter.Highlight> highlights) {
+        this.text = text;
+        this.highlights = highlights;
+        adopt(window);
+    }
+
+    void clear() {
+        show("", windowAround("", 0), List.of());
+    }
+
+    List<TextDiffHighlighter.Highlight> highlights() {
+        return highlights;
+    }
+
+    boolean isWindowed() {
+        return windowStart > 0 || windowEnd < text.length();
+    }
+
+    boolean isFolded() {
+        return !folds.isEmpty();
+    }
+
+    // Selects [start, end) of the full text, moving the window first if needed.
+    void reveal(int start, int end) {
+        if (start < windowStart || start > windowEnd) {
+            adopt(windowAround(text, start));
+        }
+        try {
+            int localStart = toLocal(start);
+            int localEnd = toLocal(Math.min(end, windowEnd));
+            setCaretPosition(localStart);
+            if (localEnd > localStart) {
+                moveCaretPosition(localEnd);
+            }
+            if (getParent() instanceof JViewport viewport) {
+                viewport.validate();
+            }
+            Rectangle2D rect = modelToView2D(localStart);
+            if (rect != null) {
+                scrollRectToVisible(rect.getBounds());
+            }
+        } catch (IllegalArgumentException | BadLocationException ignored) {
+            // ignore selection errors
+        }
+    }
+
+    // Re-centres the window when the viewport nears either of its edges, keeping the top line in place.
+    void followViewport(JViewport viewport) {
+        if (shifting || !isWindowed()) {
+            return;
+        }
+        Rectangle view = viewport.getViewRect();
+        boolean nearTop = windowStart > 0 && view.y < view.height;
+        boolean nearBottom = windowEnd < text.length() && view.y + 2 * view.height > getHeight();
+        if (!nearTop && !nearBottom) {
+            return;
+        }
+        int topOffset = toFull(viewToModel2D(view.getLocation()));
+        shifting = true;
+        try {
+            adopt(windowAround(text, topOffset));
+            viewport.validate();
+            Rectangle2D rect = modelToView2D(toLocal(topOffset));
+            if (rect != null) {
+                viewport.setViewPosition(new Point(view.x, (int) rect.getY()));
+            }
+        } catch (BadLocationException ignored) {
+            // leave the viewport where it is
+        } finally {
+            shifting = false;
+        }
+    }
+
+    @Override
+    public String getToolTipText(MouseEvent event) {
+        int local = viewToModel2D(event.getPoint());
+        if (foldAt(local) != null) {
+            return "Click to show these lines";
+        }
+        int offset = toFull(local);
+        for (TextDiffHighlighter.Highlight highlight : highlights) {
+            if (offset >= highlight.start() && offset < highlight.end()) {
+                return highlight.label();
+            }
+        }
+        return null;
+    }
+
+    private void adopt(Window window) {
+        windowStart = window.start();
+        windowEnd = window.end();
+        folds = new ArrayList<>(window.folds());
+        setDocument(window.document());
+        paintHighlights();
+    }
+
+    // A fold can hide far more than the folded document holds; if expanding it in place would take
+    // the document past LARGE_TEXT_CHARS, switch to the unfolded window around it instead.
+    private void expand(Fold fold) {
+        Document document = getDocument();
+        int expandedLength = document.getLength() - fold.placeholder().length() + (fold.end() - fold.start());
+        if (expandedLength > LARGE_TEXT_CHARS) {
+            adopt(windowAround(text, fold.start()));
+            reveal(fold.start(), fold.start());
+            return;
+        }
+        int local = toLocal(fold.start());
+        try {
+            document.remove(local, fold.placeholder().length());
+            document.insertString(local, text.substring(fold.start(), fold.end()), null);
+        } catch (BadLocationException ignored) {
+            return;
+        }
+        folds.remove(fold);
+        paintHighlights();
+    }
+
+    // Document offset of a text offset; offsets inside a fold map to its placeholder.
+    private int toLocal(int offset) {
+        int shift = -windowStart;
+        for (Fold fold : folds) {
+            if (offset < fold.start()) {
+                break;
+            }
+            if (offset < fold.end()) {
+                return fold.start() + shift;
+            }
+            shift += fold.placeholder().length() - (fold.end() - fold.start());
+        }
+        return offset + shift;
+    }
+
+    // Text offset of a document offset outside any placeholder.
+    private int toFull(int local) {
+        int shift = -windowStart;
+        for (Fold fold : folds) {
+            if (local < fold.start() + shift) {
+                break;
+            }
+            shift += fold.placeholder().length() - (fold.end() - fold.start());
+        }
+        return local - shift;
+    }
+
+    private Fold foldAt(int local) {
+        int shift = -windowStart;
+        for (Fold fold : folds) {
+            int placeholderStart = fold.start() + shift;
+            if (local < placeholderStart) {
+                return null;
+            }
+            if (local < placeholderStart + fold.placeholder().length()) {
+                return fold;
+            }
+            shift += fold.placeholder().length() - (fold.end() - fold.start());
+        }
+        return null;
+    }
+
+    // Only highlights intersecting the loaded window are handed to the Highlighter.
+    private void paintHighlights() {
+        Highlighter highlighter = getHighlighter();
+        highlighter.removeAllHighlights();
+        for (TextDiffHighlighter.Highlight highlight : highlights) {
+            int start = Math.max(highlight.start(), windowStart);
+            int end = Math.min(highlight.end(), windowEnd);
+            if (end <= start) {
+                continue;
+            }
+            try {
+                highlighter.addHighlight(toLocal(start), toLocal(end), painter(highlight.color()));
+            } catch (BadLocationException ignored) {
+                // ignore rendering errors
+            }
+        }
+    }
+
+    private Highlighter.HighlightPainter painter(Color color) {
+        return painters.computeIfAbsent(color, DefaultHighlighter.DefaultHighlightPainter::new);
+    }
+
+    private static int snapBack(String text, int start) {
+        for (int i = start; i > 0 && start - i <= SNAP_CHARS; i--) {
+            if (text.charAt(i - 1) == '\n') {
+                return i;
+            }
+        }
+        return start;
+    }
+
+    private static int snapForward(String text, int end) {
+        for (int i = end; i < text.length() && i - end <= SNAP_CHARS; i++) {
+            if (text.charAt(i - 1) == '\n') {
+                return i;
+            }
+        }
+        return end;
+    }
+}
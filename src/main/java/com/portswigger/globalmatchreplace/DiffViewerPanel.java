@@ -4,52 +4,88 @@ import burp.api.montoya.MontoyaApi;
 
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JSplitPane;
 import javax.swing.JTextArea;
 import javax.swing.JTextPane;
 import javax.swing.SwingUtilities;
+import javax.swing.ToolTipManager;
 import javax.swing.JLabel;
-import javax.swing.text.AttributeSet;
-import javax.swing.text.SimpleAttributeSet;
-import javax.swing.text.StyleConstants;
-import javax.swing.text.StyledDocument;
 import java.awt.BorderLayout;
+import java.awt.CardLayout;
 import java.awt.Font;
 import java.awt.FlowLayout;
 import java.awt.Insets;
 import java.awt.Rectangle;
 import java.awt.geom.Rectangle2D;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 final class DiffViewerPanel {
+    private static final String TEXT_CARD = "text";
+    private static final String HEX_CARD = "hex";
+    // Unchanged lines kept around each change in folded mode.
+    private static final int CONTEXT_LINES = 3;
+
     private final JPanel panel;
     private final JTextArea summaryArea;
-    private final JTextPane originalPane;
-    private final JTextPane modifiedPane;
+    private final DiffTextPane originalPane;
+    private final DiffTextPane modifiedPane;
+    // Binary messages are shown in hex tables instead, swapped in with a CardLayout per side.
+    private final HexDiffTable originalHex;
+    private final HexDiffTable modifiedHex;
+    private final JPanel originalCards;
+    private final JPanel modifiedCards;
+    private boolean binaryView;
     private final JButton prevOriginalButton;
     private final JButton nextOriginalButton;
     private final JButton prevModifiedButton;
     private final JButton nextModifiedButton;
     private final JLabel originalCountLabel;
     private final JLabel modifiedCountLabel;
+    private final JCheckBox foldCheck;
+    // Read by the diff worker when it builds documents.
+    private volatile boolean folded = true;
+    // Last content shown, so toggling folding can rebuild the documents without re-diffing.
+    private Prepared shown;
     private List<TextDiffHighlighter.Highlight> originalHighlights = List.of();
     private List<TextDiffHighlighter.Highlight> modifiedHighlights = List.of();
     private int currentOriginalIndex = -1;
     private int currentModifiedIndex = -1;
+    private final MontoyaApi api;
+    private final ExecutorService executor;
+    private final Supplier<DiffAlgorithm> algorithm;
+    // Incremented per setContents call; results from older generations are discarded.
+    private final AtomicLong generation = new AtomicLong();
+    private Future<?> pending;
 
-    DiffViewerPanel(MontoyaApi api, String originalLabel, String modifiedLabel) {
+    DiffViewerPanel(MontoyaApi api, ExecutorService executor, Supplier<DiffAlgorithm> algorithm,
+                    String originalLabel, String modifiedLabel) {
+        this.api = api;
+        this.executor = executor;
+        this.algorithm = algorithm;
         this.panel = new JPanel(new BorderLayout(8, 8));
         this.summaryArea = new JTextArea(3, 80);
-        this.originalPane = new JTextPane();
-        this.modifiedPane = new JTextPane();
+        this.originalPane = new DiffTextPane();
+        this.modifiedPane = new DiffTextPane();
+        this.originalHex = new HexDiffTable();
+        this.modifiedHex = new HexDiffTable();
+        this.originalCards = new JPanel(new CardLayout());
+        this.modifiedCards = new JPanel(new CardLayout());
         this.prevOriginalButton = new JButton("<");
         this.nextOriginalButton = new JButton(">");
         this.prevModifiedButton = new JButton("<");
         this.nextModifiedButton = new JButton(">");
         this.originalCountLabel = new JLabel("0");
         this.modifiedCountLabel = new JLabel("0");
+        this.foldCheck = new JCheckBox("Only changes", true);
 
         int buttonWidth = 26;
         int buttonHeight = 22;
@@ -79,14 +115,29 @@ final class DiffViewerPanel {
         }
         originalPane.setFont(font);
         modifiedPane.setFont(font);
+        originalHex.setFont(font);
+        modifiedHex.setFont(font);
+        // Hovering a highlight shows the rule that produced it (see DiffTextPane).
+        ToolTipManager.sharedInstance().registerComponent(originalPane);
+        ToolTipManager.sharedInstance().registerComponent(modifiedPane);
 
         summaryArea.setEditable(false);
         summaryArea.setLineWrap(true);
         summaryArea.setWrapStyleWord(true);
         summaryArea.setBorder(BorderFactory.createTitledBorder("Applied Rules"));
 
+        // Folded mode loads only the changed hunks with a few lines of context.
+        foldCheck.setToolTipText("Fold unchanged regions; click a placeholder to show its lines");
+        foldCheck.addActionListener(event -> {
+            folded = foldCheck.isSelected();
+            Prepared current = shown;
+            if (current != null) {
+                render(() -> current);
+            }
+        });
         JPanel top = new JPanel(new BorderLayout(8, 8));
         top.add(summaryArea, BorderLayout.CENTER);
+        top.add(foldCheck, BorderLayout.EAST);
 
         JPanel originalPanel = new JPanel(new BorderLayout());
         originalPanel.setBorder(BorderFactory.createTitledBorder(originalLabel));
@@ -95,8 +146,11 @@ final class DiffViewerPanel {
         originalHeader.add(prevOriginalButton);
         originalHeader.add(nextOriginalButton);
         JScrollPane originalScroll = new JScrollPane(originalPane);
+        originalScroll.getVerticalScrollBar().addAdjustmentListener(event -> originalPane.followViewport(originalScroll.getViewport()));
+        originalCards.add(originalScroll, TEXT_CARD);
+        originalCards.add(new JScrollPane(originalHex), HEX_CARD);
         originalPanel.add(originalHeader, BorderLayout.NORTH);
-        originalPanel.add(originalScroll, BorderLayout.CENTER);
+        originalPanel.add(originalCards, BorderLayout.CENTER);
 
         JPanel modifiedPanel = new JPanel(new BorderLayout());
         modifiedPanel.setBorder(BorderFactory.createTitledBorder(modifiedLabel));
@@ -105,8 +159,11 @@ final class DiffViewerPanel {
         modifiedHeader.add(prevModifiedButton);
         modifiedHeader.add(nextModifiedButton);
         JScrollPane modifiedScroll = new JScrollPane(modifiedPane);
+        modifiedScroll.getVerticalScrollBar().addAdjustmentListener(event -> modifiedPane.followViewport(modifiedScroll.getViewport()));
+        modifiedCards.add(modifiedScroll, TEXT_CARD);
+        modifiedCards.add(new JScrollPane(modifiedHex), HEX_CARD);
         modifiedPanel.add(modifiedHeader, BorderLayout.NORTH);
-        modifiedPanel.add(modifiedScroll, BorderLayout.CENTER);
+        modifiedPanel.add(modifiedCards, BorderLayout.CENTER);
 
         JSplitPane split = new JSplitPane(JSplitPane.VERTICAL_SPLIT, originalPanel, modifiedPanel);
         split.setResizeWeight(0.5);
@@ -142,9 +199,119 @@ final class DiffViewerPanel {
     void setContents(String original, String modified, List<String> summaries) {
         String originalText = original == null ? "" : original;
         String modifiedText = modified == null ? "" : modified;
-        // Diff highlights are line-based for speed and stability.
-        TextDiffHighlighter.DiffResult diff = TextDiffHighlighter.diff(originalText, modifiedText);
+        render(() -> {
+            boolean binary = BinaryDiff.isBinary(originalText) || BinaryDiff.isBinary(modifiedText);
+            // Lines are diffed first; changed line pairs are then refined to word-level spans.
+            TextDiffHighlighter.DiffResult diff = binary
+                ? BinaryDiff.diff(originalText, modifiedText)
+                : TextDiffHighlighter.diff(originalText, modifiedText, algorithm.get());
+            return new Prepared(originalText, modifiedText, diff, summaries, binary);
+        });
+    }
+
+    // preferStored: when the displayed text is the record's original (Burp shows requests as they were
+    // before the handler ran), diff against the stored modified text instead.
+    void setContents(ChangeStore.ChangeRecord change, String modified, boolean preferStored) {
+        String displayed = modified == null ? "" : modified;
+        render(() -> {
+            // Chunk assembly happens here too, off the calling thread.
+            String originalText = change.original();
+            String modifiedText = preferStored && displayed.equals(originalText) && !change.modified().isEmpty()
+                ? change.modified()
+                : displayed;
+            EditSpans spans = change.spans();
+            boolean binary = BinaryDiff.isBinary(originalText) || BinaryDiff.isBinary(modifiedText);
+            // Revisits (and other editors showing the same record) reuse the highlights computed before.
+            TextDiffHighlighter.DiffResult diff = change.cachedDiff(modifiedText);
+            if (diff == null) {
+                // Spans recorded by the rule engine are exact (also as byte ranges in the hex view),
+                // but only describe the stored modified text.
+                if (spans != null && modifiedText.equals(change.modified())) {
+                    diff = TextDiffHighlighter.fromSpans(spans, change::ruleLabel);
+                } else if (binary) {
+                    diff = BinaryDiff.diff(originalText, modifiedText);
+                } else {
+                    diff = TextDiffHighlighter.diff(originalText, modifiedText, algorithm.get());
+                }
+                change.cacheDiff(modifiedText, diff);
+            }
+            return new Prepared(originalText, modifiedText, diff, change.summaries(), binary);
+        });
+    }
+
+    // Diffing and document building run on the executor; a newer call supersedes (and interrupts) older work.
+    private synchronized void render(Supplier<Prepared> work) {
+        long current = generation.incrementAndGet();
+        if (pending != null) {
+            pending.cancel(true);
+        }
+        SwingUtilities.invokeLater(() -> {
+            if (generation.get() == current) {
+                showPlaceholder();
+            }
+        });
+        try {
+            pending = executor.submit(() -> {
+                try {
+                    Prepared prepared = work.get();
+                    DiffTextPane.Window originalWindow = window(prepared, prepared.original(), prepared.diff().originalHighlights());
+                    DiffTextPane.Window modifiedWindow = window(prepared, prepared.modified(), prepared.diff().modifiedHighlights());
+                    if (generation.get() != current) {
+                        return;
+                    }
+                    SwingUtilities.invokeLater(() -> {
+                        if (generation.get() == current) {
+                            show(prepared, originalWindow, modifiedWindow);
+                        }
+                    });
+                } catch (CancellationException ignored) {
+                    // superseded by a newer selection
+                } catch (RuntimeException | StackOverflowError ex) {
+                    // Otherwise lost in the discarded Future, leaving "Computing diff..." up for good.
+                    String message = ex.getMessage() == null ? ex.getClass().getSimpleName() : ex.getMessage();
+                    api.logging().logToError("[GMR] Diff failed: " + message);
+                    SwingUtilities.invokeLater(() -> {
+                        if (generation.get() == current) {
+                            summaryArea.setText("Could not compute the diff: " + message);
+                        }
+                    });
+                }
+            });
+        } catch (RejectedExecutionException ignored) {
+            // executor shut down on extension unload
+        }
+    }
+
+    // Folded text when enabled and useful; otherwise the first window of very large texts.
+    // Highlights are painted, not stored. Binary messages need no documents: the hex tables
+    // format rows on demand.
+    private DiffTextPane.Window window(Prepared prepared, String text, List<TextDiffHighlighter.Highlight> highlights) {
+        if (prepared.binary()) {
+            return DiffTextPane.windowAround("", 0);
+        }
+        DiffTextPane.Window window = folded ? DiffTextPane.folded(text, highlights, CONTEXT_LINES) : null;
+        return window != null ? window : DiffTextPane.windowAround(text, 0);
+    }
+
+    private void showPlaceholder() {
+        originalHighlights = List.of();
+        modifiedHighlights = List.of();
+        originalPane.clear();
+        modifiedPane.clear();
+        originalHex.clear();
+        modifiedHex.clear();
+        prevOriginalButton.setEnabled(false);
+        nextOriginalButton.setEnabled(false);
+        prevModifiedButton.setEnabled(false);
+        nextModifiedButton.setEnabled(false);
+        updateCountLabel(originalCountLabel, 0, 0);
+        updateCountLabel(modifiedCountLabel, 0, 0);
+        summaryArea.setText("Computing diff...");
+    }
 
+    private void show(Prepared prepared, DiffTextPane.Window originalWindow, DiffTextPane.Window modifiedWindow) {
+        TextDiffHighlighter.DiffResult diff = prepared.diff();
+        this.shown = prepared;
         this.originalHighlights = diff.originalHighlights();
         this.modifiedHighlights = diff.modifiedHighlights();
         this.currentOriginalIndex = -1;
@@ -156,11 +323,23 @@ final class DiffViewerPanel {
         updateCountLabel(originalCountLabel, 0, originalHighlights.size());
         updateCountLabel(modifiedCountLabel, 0, modifiedHighlights.size());
 
-        applyHighlights(originalPane, originalText, originalHighlights);
-        applyHighlights(modifiedPane, modifiedText, modifiedHighlights);
-        scrollToTop(originalPane);
-        scrollToTop(modifiedPane);
+        binaryView = prepared.binary();
+        if (binaryView) {
+            originalHex.show(prepared.original(), originalHighlights);
+            modifiedHex.show(prepared.modified(), modifiedHighlights);
+            originalHex.scrollToTop();
+            modifiedHex.scrollToTop();
+        } else {
+            originalPane.show(prepared.original(), originalWindow, originalHighlights);
+            modifiedPane.show(prepared.modified(), modifiedWindow, modifiedHighlights);
+            scrollToTop(originalPane);
+            scrollToTop(modifiedPane);
+        }
+        String card = binaryView ? HEX_CARD : TEXT_CARD;
+        ((CardLayout) originalCards.getLayout()).show(originalCards, card);
+        ((CardLayout) modifiedCards.getLayout()).show(modifiedCards, card);
 
+        List<String> summaries = prepared.summaries();
         if (summaries == null || summaries.isEmpty()) {
             summaryArea.setText("No modifications recorded.");
             return;
@@ -169,29 +348,22 @@ final class DiffViewerPanel {
         for (String summary : summaries) {
             builder.append("- ").append(summary).append('\n');
         }
+        if (binaryView) {
+            builder.append("(Binary body: shown as hex and compared byte by byte.)\n");
+        }
+        if (originalPane.isFolded() || modifiedPane.isFolded()) {
+            builder.append("(Unchanged lines are folded; click a placeholder to show them, or untick Only changes.)\n");
+        }
+        if (originalPane.isWindowed() || modifiedPane.isWindowed()) {
+            builder.append("(Large message: only the part around the viewport is loaded; scroll or use < > to move.)\n");
+        }
+        if (diff.approximate()) {
+            // The diff hit its cost limit; some highlighted blocks may include unchanged lines.
+            builder.append("(Messages differ too much for an exact diff; some changes are shown as whole blocks.)");
+        }
         summaryArea.setText(builder.toString().trim());
     }
 
-    private void applyHighlights(JTextPane pane, String text, List<TextDiffHighlighter.Highlight> highlights) {
-        StyledDocument doc = pane.getStyledDocument();
-        SwingUtilities.invokeLater(() -> {
-            try {
-                // Replace document content then apply highlight spans.
-                doc.remove(0, doc.getLength());
-                doc.insertString(0, text, null);
-                for (TextDiffHighlighter.Highlight segment : highlights) {
-                    if (segment.end() <= segment.start()) {
-                        continue;
-                    }
-                    AttributeSet attrs = coloredBackground(segment.color());
-                    doc.setCharacterAttributes(segment.start(), segment.end() - segment.start(), attrs, false);
-                }
-            } catch (Exception ex) {
-                // ignore rendering errors
-            }
-        });
-    }
-
     private void scrollToTop(JTextPane pane) {
         SwingUtilities.invokeLater(() -> {
             try {
@@ -206,21 +378,16 @@ final class DiffViewerPanel {
         });
     }
 
-    private AttributeSet coloredBackground(java.awt.Color color) {
-        SimpleAttributeSet attrs = new SimpleAttributeSet();
-        StyleConstants.setBackground(attrs, color);
-        return attrs;
-    }
-
     private void jumpToOriginalChange(int direction) {
-        jumpTo(originalPane, originalHighlights, false, originalCountLabel, direction);
+        jumpTo(originalPane, originalHex, originalHighlights, false, originalCountLabel, direction);
     }
 
     private void jumpToModifiedChange(int direction) {
-        jumpTo(modifiedPane, modifiedHighlights, true, modifiedCountLabel, direction);
+        jumpTo(modifiedPane, modifiedHex, modifiedHighlights, true, modifiedCountLabel, direction);
     }
 
-    private void jumpTo(JTextPane pane, List<TextDiffHighlighter.Highlight> highlights, boolean useModified, JLabel label, int direction) {
+    private void jumpTo(DiffTextPane pane, HexDiffTable hex, List<TextDiffHighlighter.Highlight> highlights, boolean useModified,
+                        JLabel label, int direction) {
         if (highlights.isEmpty()) {
             return;
         }
@@ -240,19 +407,13 @@ final class DiffViewerPanel {
             currentOriginalIndex = index;
         }
         updateCountLabel(label, index + 1, size);
+        label.setToolTipText(highlight.label());
         int start = Math.max(0, highlight.start());
         int end = Math.max(start, highlight.end());
-        try {
-            pane.setCaretPosition(start);
-            if (end > start) {
-                pane.moveCaretPosition(end);
-            }
-            Rectangle2D rect = pane.modelToView2D(start);
-            if (rect != null) {
-                pane.scrollRectToVisible(rect.getBounds());
-            }
-        } catch (Exception ignored) {
-            // ignore selection errors
+        if (binaryView) {
+            hex.reveal(start, end);
+        } else {
+            pane.reveal(start, end);
         }
     }
 
@@ -267,4 +428,7 @@ final class DiffViewerPanel {
         }
         label.setText(current + "/" + total);
     }
+
+    private record Prepared(String original, String modified, TextDiffHighlighter.DiffResult diff, List<String> summaries,
+                            boolean binary) {}
 }
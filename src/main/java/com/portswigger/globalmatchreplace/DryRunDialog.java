@@ -0,0 +1,250 @@
+package com.portswigger.globalmatchreplace;
+
+import burp.api.montoya.MontoyaApi;
+
+import javax.swing.BorderFactory;
+import javax.swing.ButtonGroup;
+import javax.swing.JButton;
+import javax.swing.JDialog;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JRadioButton;
+import javax.swing.JScrollPane;
+import javax.swing.JSpinner;
+import javax.swing.JTable;
+import javax.swing.SpinnerNumberModel;
+import javax.swing.Timer;
+import javax.swing.WindowConstants;
+import javax.swing.table.AbstractTableModel;
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.FlowLayout;
+import java.awt.Window;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.function.Supplier;
+
+// Non-modal report for HistoryDryRun. The table is refreshed from the run's counters on a timer,
+// so results fill in while the run is going; closing the dialog cancels it.
+final class DryRunDialog extends JDialog {
+    private static final int REFRESH_MS = 250;
+    private static final int DEFAULT_ITEMS = 500;
+    private static final int MAX_HOSTS_SHOWN = 3;
+
+    private final MontoyaApi api;
+    private final RuleStore ruleStore;
+    private final Supplier<Rule> selectedRule;
+    private final JSpinner itemsSpinner;
+    private final JRadioButton selectedRadio;
+    private final JRadioButton allRadio;
+    private final JButton startButton;
+    private final JButton cancelButton;
+    private final JLabel statusLabel;
+    private final StatsModel model = new StatsModel();
+    private final Timer refresh;
+    private HistoryDryRun run;
+    private ForkJoinPool pool;
+    private long startedNanos;
+
+    DryRunDialog(Window owner, MontoyaApi api, RuleStore ruleStore, Supplier<Rule> selectedRule) {
+        super(owner, "Dry run against history", ModalityType.MODELESS);
+        this.api = api;
+        this.ruleStore = ruleStore;
+        this.selectedRule = selectedRule;
+        itemsSpinner = new JSpinner(new SpinnerNumberModel(DEFAULT_ITEMS, 1, 1_000_000, 100));
+        selectedRadio = new JRadioButton("Selected rule", true);
+        allRadio = new JRadioButton("All rules");
+        startButton = new JButton("Start");
+        cancelButton = new JButton("Cancel");
+        statusLabel = new JLabel(" ");
+        refresh = new Timer(REFRESH_MS, event -> refreshStats());
+
+        buildUi();
+        // A run still going when the extension unloads is stopped with it.
+        api.extension().registerUnloadingHandler(this::cancelRun);
+        pack();
+        setLocationRelativeTo(owner);
+    }
+
+    private void buildUi() {
+        JPanel content = new JPanel(new BorderLayout(8, 8));
+        content.setBorder(BorderFactory.createEmptyBorder(12, 12, 12, 12));
+
+        JPanel controls = new JPanel(new FlowLayout(FlowLayout.LEFT, 8, 0));
+        controls.add(new JLabel("Last"));
+        controls.add(itemsSpinner);
+        controls.add(new JLabel("Proxy history items,"));
+        ButtonGroup scope = new ButtonGroup();
+        scope.add(selectedRadio);
+        scope.add(allRadio);
+        controls.add(selectedRadio);
+        controls.add(allRadio);
+        controls.add(startButton);
+        controls.add(cancelButton);
+        content.add(controls, BorderLayout.NORTH);
+
+        JTable table = new JTable(model);
+        table.setRowHeight(22);
+        table.setAutoResizeMode(JTable.AUTO_RESIZE_OFF);
+        table.setPreferredScrollableViewportSize(new Dimension(1000, 240));
+        int[] widths = {360, 95, 80, 220, 95, 80, 80, 70};
+        for (int i = 0; i < widths.length; i++) {
+            table.getColumnModel().getColumn(i).setPreferredWidth(widths[i]);
+        }
+        content.add(new JScrollPane(table), BorderLayout.CENTER);
+        content.add(statusLabel, BorderLayout.SOUTH);
+
+        startButton.addActionListener(event -> startRun());
+        cancelButton.addActionListener(event -> cancelRun());
+        cancelButton.setEnabled(false);
+        setDefaultCloseOperation(WindowConstants.HIDE_ON_CLOSE);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                cancelRun();
+            }
+        });
+
+        // Keep dialog styling consistent with Burp theme.
+        setContentPane(content);
+        api.userInterface().applyThemeToComponent(this);
+    }
+
+    private void startRun() {
+        List<Rule> rules;
+        if (selectedRadio.isSelected()) {
+            Rule rule = selectedRule.get();
+            if (rule == null) {
+                statusLabel.setText("Select a rule in the Rules table, or choose All rules.");
+                return;
+            }
+            rules = List.of(rule);
+        } else {
+            rules = ruleStore.snapshot();
+        }
+        if (rules.isEmpty()) {
+            statusLabel.setText("There are no rules to run.");
+            return;
+        }
+        cancelRun();
+        // Leave a core for Burp itself; the pool is per run so cancelling can interrupt its workers.
+        int parallelism = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        pool = new ForkJoinPool(parallelism, forkJoinPool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+            thread.setName("GMR-dry-run-" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+        run = new HistoryDryRun(api, rules, (Integer) itemsSpinner.getValue());
+        startedNanos = System.nanoTime();
+        run.start(pool);
+        startButton.setEnabled(false);
+        cancelButton.setEnabled(true);
+        refreshStats();
+        refresh.start();
+    }
+
+    private void cancelRun() {
+        if (run != null && !run.isDone()) {
+            run.cancel();
+        }
+        if (pool != null) {
+            // Interrupts workers, so a slow regex stops at its next DeadlineCharSequence check.
+            pool.shutdownNow();
+        }
+    }
+
+    private void refreshStats() {
+        if (run == null) {
+            return;
+        }
+        model.setStats(run.snapshot());
+        long elapsedMs = (System.nanoTime() - startedNanos) / 1_000_000;
+        int total = run.total();
+        String progress = total < 0 ? "Reading Proxy history..." : run.completed() + " / " + total + " items";
+        // A run cancelled before its first task started never reports done; the pool does.
+        if (run.isDone() || pool.isTerminated()) {
+            refresh.stop();
+            startButton.setEnabled(true);
+            cancelButton.setEnabled(false);
+            pool.shutdown();
+            String outcome = run.failure() != null ? "Failed: " + run.failure()
+                : run.isCancelled() ? "Cancelled" : "Done";
+            statusLabel.setText(outcome + ", " + progress + " in " + elapsedMs + " ms. Nothing in history was modified.");
+        } else if (run.isCancelled()) {
+            statusLabel.setText("Cancelling, " + progress + "...");
+        } else {
+            statusLabel.setText(progress + ", " + elapsedMs + " ms");
+        }
+    }
+
+    private static String formatNanos(long nanos) {
+        if (nanos < 0) {
+            return "";
+        }
+        if (nanos < 1_000_000) {
+            return String.format("%d \u00b5s", nanos / 1000);
+        }
+        return String.format("%.1f ms", nanos / 1_000_000.0);
+    }
+
+    private static final class StatsModel extends AbstractTableModel {
+        private static final String[] COLUMN_NAMES = {
+            "Rule", "Replacements", "Messages", "Hosts", "Bytes changed", "p50", "p99", "Failed"
+        };
+
+        private List<HistoryDryRun.RuleStats> stats = List.of();
+
+        void setStats(List<HistoryDryRun.RuleStats> stats) {
+            boolean sameRows = stats.size() == this.stats.size();
+            this.stats = stats;
+            // Row updates keep the user's selection and scroll position while the run progresses.
+            if (sameRows && !stats.isEmpty()) {
+                fireTableRowsUpdated(0, stats.size() - 1);
+            } else {
+                fireTableDataChanged();
+            }
+        }
+
+        @Override
+        public int getRowCount() {
+            return stats.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMN_NAMES.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMN_NAMES[column];
+        }
+
+        @Override
+        public Object getValueAt(int rowIndex, int columnIndex) {
+            HistoryDryRun.RuleStats row = stats.get(rowIndex);
+            return switch (columnIndex) {
+                case 0 -> row.rule().summary();
+                case 1 -> row.replacements();
+                case 2 -> row.messagesChanged() + " / " + row.evaluated();
+                case 3 -> hosts(row.hosts());
+                case 4 -> row.bytesChanged();
+                case 5 -> formatNanos(row.p50Nanos());
+                case 6 -> formatNanos(row.p99Nanos());
+                case 7 -> row.failures();
+                default -> "";
+            };
+        }
+
+        private static String hosts(List<String> hosts) {
+            if (hosts.size() <= MAX_HOSTS_SHOWN) {
+                return hosts.size() + (hosts.isEmpty() ? "" : ": " + String.join(", ", hosts));
+            }
+            return hosts.size() + ": " + String.join(", ", hosts.subList(0, MAX_HOSTS_SHOWN)) + ", ...";
+        }
+    }
+}
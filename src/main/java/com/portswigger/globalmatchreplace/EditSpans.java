@@ -0,0 +1,152 @@
+package com.portswigger.globalmatchreplace;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Exact replacement regions recorded while rules were applied: each span maps a range of the
+// original message onto the range of the modified message that replaced it, plus the rule position.
+// Packed as five ints per span so records stay small in the diff cache.
+final class EditSpans {
+    static final EditSpans EMPTY = new EditSpans(new int[0]);
+    private static final int FIELDS = 5;
+
+    private final int[] packed;
+
+    private EditSpans(int[] packed) {
+        this.packed = packed;
+    }
+
+    static EditSpans fromPacked(int[] packed) {
+        if (packed == null || packed.length == 0 || packed.length % FIELDS != 0) {
+            return null;
+        }
+        return new EditSpans(packed.clone());
+    }
+
+    int[] packed() {
+        return packed.clone();
+    }
+
+    int size() {
+        return packed.length / FIELDS;
+    }
+
+    int originalStart(int index) {
+        return packed[index * FIELDS];
+    }
+
+    int originalEnd(int index) {
+        return packed[index * FIELDS + 1];
+    }
+
+    int modifiedStart(int index) {
+        return packed[index * FIELDS + 2];
+    }
+
+    int modifiedEnd(int index) {
+        return packed[index * FIELDS + 3];
+    }
+
+    // 1-based position of the last rule that touched this span (see RuleCatalog.AppliedRule).
+    int rulePosition(int index) {
+        return packed[index * FIELDS + 4];
+    }
+
+    long sizeBytes() {
+        return 16L + packed.length * 4L;
+    }
+
+    // One replacement made by a rule: text[start, end) of the rule's input became replacementLength chars.
+    record Replacement(int start, int end, int replacementLength) {}
+
+    // Composes per-rule replacements into spans relative to the original message.
+    static final class Builder {
+        private List<Span> spans = new ArrayList<>();
+
+        // Replacements must be sorted and non-overlapping, in the coordinates of the text the rule saw.
+        void apply(List<Replacement> replacements, int rulePosition) {
+            if (replacements.isEmpty()) {
+                return;
+            }
+            List<Span> old = spans;
+            List<Span> next = new ArrayList<>(old.size() + replacements.size());
+            int i = 0;
+            // Length difference (modified - original) of old spans passed so far, and of this rule's edits.
+            int oldShift = 0;
+            int ruleShift = 0;
+            // Merged region under construction, in the coordinates of the rule's input text.
+            int start = -1;
+            int end = 0;
+            int originalStart = 0;
+            int shiftAtStart = 0;
+            for (Replacement replacement : replacements) {
+                if (start >= 0 && replacement.start() > end) {
+                    add(next, new Span(originalStart, end - oldShift, start + shiftAtStart, end + ruleShift, rulePosition));
+                    start = -1;
+                }
+                if (start < 0) {
+                    while (i < old.size() && old.get(i).modifiedEnd < replacement.start()) {
+                        Span span = old.get(i++);
+                        add(next, span.shifted(ruleShift));
+                        oldShift += span.shift();
+                    }
+                    start = replacement.start();
+                    end = replacement.end();
+                    originalStart = replacement.start() - oldShift;
+                    shiftAtStart = ruleShift;
+                } else {
+                    end = Math.max(end, replacement.end());
+                }
+                // Old spans overlapping or touching the region are absorbed into it.
+                while (i < old.size() && old.get(i).modifiedStart <= end) {
+                    Span span = old.get(i++);
+                    start = Math.min(start, span.modifiedStart);
+                    end = Math.max(end, span.modifiedEnd);
+                    originalStart = Math.min(originalStart, span.originalStart);
+                    oldShift += span.shift();
+                }
+                ruleShift += replacement.replacementLength() - (replacement.end() - replacement.start());
+            }
+            add(next, new Span(originalStart, end - oldShift, start + shiftAtStart, end + ruleShift, rulePosition));
+            while (i < old.size()) {
+                add(next, old.get(i++).shifted(ruleShift));
+            }
+            spans = next;
+        }
+
+        EditSpans build() {
+            int[] packed = new int[spans.size() * FIELDS];
+            int offset = 0;
+            for (Span span : spans) {
+                packed[offset++] = span.originalStart;
+                packed[offset++] = span.originalEnd;
+                packed[offset++] = span.modifiedStart;
+                packed[offset++] = span.modifiedEnd;
+                packed[offset++] = span.rulePosition;
+            }
+            return packed.length == 0 ? EMPTY : new EditSpans(packed);
+        }
+
+        // Spans that touch in the modified text also touch in the original (gaps are unchanged text).
+        private static void add(List<Span> spans, Span span) {
+            int last = spans.size() - 1;
+            if (last >= 0 && spans.get(last).modifiedEnd >= span.modifiedStart) {
+                Span previous = spans.get(last);
+                spans.set(last, new Span(previous.originalStart, Math.max(previous.originalEnd, span.originalEnd),
+                    previous.modifiedStart, Math.max(previous.modifiedEnd, span.modifiedEnd), span.rulePosition));
+                return;
+            }
+            spans.add(span);
+        }
+    }
+
+    private record Span(int originalStart, int originalEnd, int modifiedStart, int modifiedEnd, int rulePosition) {
+        int shift() {
+            return (modifiedEnd - modifiedStart) - (originalEnd - originalStart);
+        }
+
+        Span shifted(int delta) {
+            return delta == 0 ? this : new Span(originalStart, originalEnd, modifiedStart + delta, modifiedEnd + delta, rulePosition);
+        }
+    }
+}
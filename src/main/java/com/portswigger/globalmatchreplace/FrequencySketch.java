@@ -0,0 +1,62 @@
+package com.portswigger.globalmatchreplace;
+
+// Count-min sketch with periodic halving, used as a TinyLFU-style admission filter.
+// Not thread-safe: ChangeStore only touches it under its own lock.
+final class FrequencySketch {
+    private static final int DEPTH = 4;
+    private static final int MAX_COUNT = 15;
+    private static final long[] SEEDS = {
+        0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L
+    };
+
+    private final int[][] counters;
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+
+    FrequencySketch(int width) {
+        int size = Integer.highestOneBit(Math.max(64, width - 1)) << 1;
+        this.counters = new int[DEPTH][size];
+        this.mask = size - 1;
+        // Halve all counts after ~10x width additions so old popularity fades.
+        this.sampleSize = size * 10;
+    }
+
+    void increment(Object item) {
+        int hash = item.hashCode();
+        boolean added = false;
+        for (int row = 0; row < DEPTH; row++) {
+            int index = indexOf(hash, row);
+            if (counters[row][index] < MAX_COUNT) {
+                counters[row][index]++;
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    int frequency(Object item) {
+        int hash = item.hashCode();
+        int min = MAX_COUNT;
+        for (int row = 0; row < DEPTH; row++) {
+            min = Math.min(min, counters[row][indexOf(hash, row)]);
+        }
+        return min;
+    }
+
+    private int indexOf(int hash, int row) {
+        long mixed = (hash + SEEDS[row]) * SEEDS[(row + 1) % DEPTH];
+        return (int) (mixed ^ (mixed >>> 32)) & mask;
+    }
+
+    private void reset() {
+        for (int[] row : counters) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] >>>= 1;
+            }
+        }
+        additions /= 2;
+    }
+}
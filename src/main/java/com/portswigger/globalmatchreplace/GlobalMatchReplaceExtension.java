@@ -3,6 +3,9 @@ package com.portswigger.globalmatchreplace;
 import burp.api.montoya.BurpExtension;
 import burp.api.montoya.MontoyaApi;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 public class GlobalMatchReplaceExtension implements BurpExtension {
     private static volatile boolean settingsRegistered = false;
     @Override
@@ -18,11 +21,25 @@ public class GlobalMatchReplaceExtension implements BurpExtension {
             persistence.save(ruleStore.snapshot());
         } else {
             ruleStore.setAll(loadedRules);
+            if (persistence.needsIdMigration()) {
+                // Store the IDs assigned on load now; the persistence listener is not registered yet.
+                persistence.save(ruleStore.snapshot());
+            }
         }
 
-        ChangeStore changeStore = new ChangeStore(api, 100);
+        // Shared by the handler (interning applied rules) and the diff cache (rendering summaries).
+        RuleCatalog ruleCatalog = new RuleCatalog();
+        ChangeStore changeStore = new ChangeStore(api, 100, ruleCatalog);
+        // Shrink the diff cache in stages when the heap is under pressure after GC.
+        MemoryPressureMonitor memoryMonitor = new MemoryPressureMonitor(changeStore::onMemoryPressure);
+        memoryMonitor.start();
+        api.extension().registerUnloadingHandler(memoryMonitor::stop);
         // Global HTTP handler performs rule application across tools.
-        api.http().registerHttpHandler(new GlobalMatchReplaceHttpHandler(ruleStore, changeStore));
+        // Named profiles select and order rules; the handler applies the active profile's precompiled set.
+        RuleProfiles profiles = new RuleProfiles(ruleStore, persistence.loadProfiles(), persistence.loadActiveProfile());
+        profiles.addListener(() -> persistence.saveProfiles(profiles.profiles(), profiles.activeName()));
+        api.extension().registerUnloadingHandler(profiles::shutdown);
+        api.http().registerHttpHandler(new GlobalMatchReplaceHttpHandler(profiles, changeStore, ruleCatalog));
 
         if (!settingsRegistered) {
             try {
@@ -36,17 +53,26 @@ public class GlobalMatchReplaceExtension implements BurpExtension {
             api.logging().logToOutput("[GMR] Settings panel registration skipped (already registered).");
         }
 
-        RulesPanel suiteTabPanel = new RulesPanel(api, ruleStore);
+        RulesPanel suiteTabPanel = new RulesPanel(api, ruleStore, profiles);
         SuiteTabController suiteTabController = new SuiteTabController(api, suiteTabPanel.uiComponent());
         suiteTabController.register(ruleStore.hasEnabledRules());
 
-        api.userInterface().registerHttpRequestEditorProvider(new GlobalMatchReplaceRequestEditorProvider(api, changeStore, ruleStore));
-        api.userInterface().registerHttpResponseEditorProvider(new GlobalMatchReplaceResponseEditorProvider(api, changeStore));
+        // GMR Diff tabs compute diffs off the calling thread; one small pool is shared by all editors.
+        ExecutorService diffExecutor = Executors.newFixedThreadPool(2, task -> {
+            Thread thread = new Thread(task, "GMR-diff");
+            thread.setDaemon(true);
+            return thread;
+        });
+        api.extension().registerUnloadingHandler(diffExecutor::shutdownNow);
+        api.userInterface().registerHttpRequestEditorProvider(new GlobalMatchReplaceRequestEditorProvider(api, changeStore, ruleStore, diffExecutor));
+        api.userInterface().registerHttpResponseEditorProvider(new GlobalMatchReplaceResponseEditorProvider(api, changeStore, diffExecutor));
 
         ruleStore.addListener(() -> {
-            // Persist rules and update suite tab title whenever rules change.
-            persistence.save(ruleStore.snapshot());
+            // Persist rules (debounced, off the calling thread) and update suite tab title whenever rules change.
+            persistence.saveLater(ruleStore.version());
             suiteTabController.refresh(ruleStore.hasEnabledRules());
         });
+        // Write any change still waiting in the debounce window before the extension goes away.
+        api.extension().registerUnloadingHandler(persistence::flush);
     }
 }
@@ -7,54 +7,73 @@ import burp.api.montoya.http.handler.RequestToBeSentAction;
 import burp.api.montoya.http.handler.ResponseReceivedAction;
 import burp.api.montoya.http.message.requests.HttpRequest;
 import burp.api.montoya.http.message.responses.HttpResponse;
-import burp.api.montoya.core.Annotations;
-import burp.api.montoya.core.HighlightColor;
-
-import java.util.List;
-
 final class GlobalMatchReplaceHttpHandler implements HttpHandler {
-    private final RuleStore ruleStore;
+    private final RuleProfiles profiles;
     private final ChangeStore changeStore;
+    private final RuleCatalog catalog;
 
-    GlobalMatchReplaceHttpHandler(RuleStore ruleStore, ChangeStore changeStore) {
-        this.ruleStore = ruleStore;
+    GlobalMatchReplaceHttpHandler(RuleProfiles profiles, ChangeStore changeStore, RuleCatalog catalog) {
+        this.profiles = profiles;
         this.changeStore = changeStore;
+        this.catalog = catalog;
     }
 
     @Override
     public RequestToBeSentAction handleHttpRequestToBeSent(HttpRequestToBeSent requestToBeSent) {
+        // Read the active profile's compiled rules once (lock-free); a profile switch or rule edit during
+        // this message takes effect from the next one. With no rules for this direction the message is not
+        // even converted.
+        CompiledRuleSet rules = profiles.active();
+        if (rules.rules(true).isEmpty()) {
+            return RequestToBeSentAction.continueWith(requestToBeSent);
+        }
         String original = requestToBeSent.toString();
-        // Apply rules in order and track summaries for later diff display.
-        RuleApplyResult result = RuleApplier.apply(original, true, requestToBeSent.toolSource().toolType(), ruleStore.snapshot());
+        // Apply rules in order and track which rules applied for later diff display.
+        RuleApplyResult result = RuleApplier.apply(original, true, requestToBeSent.toolSource().toolType(), rules, catalog);
         String updated = result.updated();
         if (updated.equals(original)) {
             return RequestToBeSentAction.continueWith(requestToBeSent);
         }
-        // Store original+modified for GMR diff tabs.
-        changeStore.storeRequest(original, updated, result.appliedSummaries());
+        // Store original+modified for GMR diff tabs, keyed by a correlation ID carried in the notes.
+        String correlationId = correlationIdFor(requestToBeSent.annotations());
+        changeStore.storeRequest(original, updated, result.appliedRules(), result.spans(), correlationId,
+            requestToBeSent.toolSource().toolType(), requestToBeSent.httpService().host());
         HttpRequest modified = HttpRequest.httpRequest(requestToBeSent.httpService(), updated);
-        // Use a yellow highlight and note to make modifications visible in Burp.
-        return RequestToBeSentAction.continueWith(modified, modifiedAnnotations("Global Match & Replace"));
+        return RequestToBeSentAction.continueWith(modified, CorrelationIds.annotate(correlationId));
     }
 
     @Override
     public ResponseReceivedAction handleHttpResponseReceived(HttpResponseReceived responseReceived) {
+        // Read the active profile's compiled rules once (lock-free); a profile switch or rule edit during
+        // this message takes effect from the next one. With no rules for this direction the message is not
+        // even converted.
+        CompiledRuleSet rules = profiles.active();
+        if (rules.rules(false).isEmpty()) {
+            return ResponseReceivedAction.continueWith(responseReceived);
+        }
         String original = responseReceived.toString();
-        // Apply rules in order and track summaries for later diff display.
-        RuleApplyResult result = RuleApplier.apply(original, false, responseReceived.toolSource().toolType(), ruleStore.snapshot());
+        // Apply rules in order and track which rules applied for later diff display.
+        RuleApplyResult result = RuleApplier.apply(original, false, responseReceived.toolSource().toolType(), rules, catalog);
         String updated = result.updated();
         if (updated.equals(original)) {
             return ResponseReceivedAction.continueWith(responseReceived);
         }
-        // Store original+modified for GMR diff tabs.
-        changeStore.storeResponse(original, updated, result.appliedSummaries());
+        // Store original+modified for GMR diff tabs, keyed by a correlation ID carried in the notes.
+        String correlationId = correlationIdFor(responseReceived.annotations());
+        changeStore.storeResponse(original, updated, result.appliedRules(), result.spans(), correlationId,
+            responseReceived.toolSource().toolType(), hostOf(responseReceived.initiatingRequest()));
         HttpResponse modified = HttpResponse.httpResponse(updated);
-        // Use a yellow highlight and note to make modifications visible in Burp.
-        return ResponseReceivedAction.continueWith(modified, modifiedAnnotations("Global Match & Replace"));
+        return ResponseReceivedAction.continueWith(modified, CorrelationIds.annotate(correlationId));
+    }
+
+    private String hostOf(HttpRequest request) {
+        return request == null || request.httpService() == null ? null : request.httpService().host();
     }
 
-    private Annotations modifiedAnnotations(String note) {
-        return Annotations.annotations(note, HighlightColor.YELLOW);
+    private String correlationIdFor(burp.api.montoya.core.Annotations annotations) {
+        // Reuse the request's ID so a modified request and response share one history marker.
+        String existing = CorrelationIds.from(annotations);
+        return existing != null ? existing : CorrelationIds.next();
     }
 
 }
@@ -12,21 +12,24 @@ import burp.api.montoya.ui.editor.extension.EditorCreationContext;
 
 import java.awt.Component;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
 
 final class GlobalMatchReplaceRequestEditorProvider implements HttpRequestEditorProvider {
     private final MontoyaApi api;
     private final ChangeStore changeStore;
     private final RuleStore ruleStore;
+    private final ExecutorService diffExecutor;
 
-    GlobalMatchReplaceRequestEditorProvider(MontoyaApi api, ChangeStore changeStore, RuleStore ruleStore) {
+    GlobalMatchReplaceRequestEditorProvider(MontoyaApi api, ChangeStore changeStore, RuleStore ruleStore, ExecutorService diffExecutor) {
         this.api = api;
         this.changeStore = changeStore;
         this.ruleStore = ruleStore;
+        this.diffExecutor = diffExecutor;
     }
 
     @Override
     public ExtensionProvidedHttpRequestEditor provideHttpRequestEditor(EditorCreationContext creationContext) {
-        return new DiffRequestEditor(api, changeStore, ruleStore, creationContext.toolSource().toolType());
+        return new DiffRequestEditor(api, changeStore, ruleStore, diffExecutor, creationContext.toolSource().toolType());
     }
 
     private static final class DiffRequestEditor implements ExtensionProvidedHttpRequestEditor {
@@ -36,9 +39,9 @@ final class GlobalMatchReplaceRequestEditorProvider implements HttpRequestEditor
         private final ToolType toolType;
         private HttpRequestResponse current;
 
-        DiffRequestEditor(MontoyaApi api, ChangeStore changeStore, RuleStore ruleStore, ToolType toolType) {
+        DiffRequestEditor(MontoyaApi api, ChangeStore changeStore, RuleStore ruleStore, ExecutorService diffExecutor, ToolType toolType) {
             this.changeStore = changeStore;
-            this.panel = new DiffViewerPanel(api, "Original Request", "Modified Request");
+            this.panel = new DiffViewerPanel(api, diffExecutor, changeStore::diffAlgorithm, "Original Request", "Modified Request");
             this.ruleStore = ruleStore;
             this.toolType = toolType;
         }
@@ -56,15 +59,12 @@ final class GlobalMatchReplaceRequestEditorProvider implements HttpRequestEditor
                 return;
             }
             String modified = requestResponse.request().toString();
-            Optional<ChangeStore.ChangeRecord> record = changeStore.requestChangeFor(modified);
+            String correlationId = CorrelationIds.from(requestResponse.annotations());
+            Optional<ChangeStore.ChangeRecord> record = changeStore.requestChangeFor(correlationId, () -> modified);
             if (record.isPresent()) {
-                ChangeStore.ChangeRecord change = record.get();
-                String viewModified = modified;
-                // If Burp shows the original request, swap in stored modified to keep historical diffs stable.
-                if (viewModified.equals(change.original()) && !change.modified().isEmpty()) {
-                    viewModified = change.modified();
-                }
-                panel.setContents(change.original(), viewModified, change.summaries());
+                // If Burp shows the original request, the stored modified one is swapped in to keep historical
+                // diffs stable; that check assembles both texts, so it runs with the diff, off this thread.
+                panel.setContents(record.get(), modified, true);
                 return;
             }
             // No stored diff record: show plain content and keep the tab disabled.
@@ -76,8 +76,9 @@ final class GlobalMatchReplaceRequestEditorProvider implements HttpRequestEditor
             if (requestResponse == null) {
                 return false;
             }
-            String request = requestResponse.request().toString();
-            return changeStore.requestChangeFor(request).isPresent();
+            // The correlation ID avoids serializing the request; content hashing is the fallback.
+            String correlationId = CorrelationIds.from(requestResponse.annotations());
+            return changeStore.requestChangeFor(correlationId, () -> requestResponse.request().toString()).isPresent();
         }
 
         @Override
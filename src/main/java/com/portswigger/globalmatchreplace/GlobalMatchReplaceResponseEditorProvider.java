@@ -11,19 +11,22 @@ import burp.api.montoya.ui.editor.extension.EditorCreationContext;
 
 import java.awt.Component;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
 
 final class GlobalMatchReplaceResponseEditorProvider implements HttpResponseEditorProvider {
     private final MontoyaApi api;
     private final ChangeStore changeStore;
+    private final ExecutorService diffExecutor;
 
-    GlobalMatchReplaceResponseEditorProvider(MontoyaApi api, ChangeStore changeStore) {
+    GlobalMatchReplaceResponseEditorProvider(MontoyaApi api, ChangeStore changeStore, ExecutorService diffExecutor) {
         this.api = api;
         this.changeStore = changeStore;
+        this.diffExecutor = diffExecutor;
     }
 
     @Override
     public ExtensionProvidedHttpResponseEditor provideHttpResponseEditor(EditorCreationContext creationContext) {
-        return new DiffResponseEditor(api, changeStore);
+        return new DiffResponseEditor(api, changeStore, diffExecutor);
     }
 
     private static final class DiffResponseEditor implements ExtensionProvidedHttpResponseEditor {
@@ -31,9 +34,9 @@ final class GlobalMatchReplaceResponseEditorProvider implements HttpResponseEdit
         private final DiffViewerPanel panel;
         private HttpRequestResponse current;
 
-        DiffResponseEditor(MontoyaApi api, ChangeStore changeStore) {
+        DiffResponseEditor(MontoyaApi api, ChangeStore changeStore, ExecutorService diffExecutor) {
             this.changeStore = changeStore;
-            this.panel = new DiffViewerPanel(api, "Original Response", "Modified Response");
+            this.panel = new DiffViewerPanel(api, diffExecutor, changeStore::diffAlgorithm, "Original Response", "Modified Response");
         }
 
         @Override
@@ -49,10 +52,11 @@ final class GlobalMatchReplaceResponseEditorProvider implements HttpResponseEdit
                 return;
             }
             String modified = requestResponse.response().toString();
-            Optional<ChangeStore.ChangeRecord> record = changeStore.responseChangeFor(modified);
+            String correlationId = CorrelationIds.from(requestResponse.annotations());
+            Optional<ChangeStore.ChangeRecord> record = changeStore.responseChangeFor(correlationId, () -> modified);
             if (record.isPresent()) {
                 ChangeStore.ChangeRecord change = record.get();
-                panel.setContents(change.original(), modified, change.summaries());
+                panel.setContents(change, modified, false);
                 return;
             }
             // No stored diff record: show plain content and keep the tab disabled.
@@ -64,7 +68,9 @@ final class GlobalMatchReplaceResponseEditorProvider implements HttpResponseEdit
             if (requestResponse == null || !requestResponse.hasResponse()) {
                 return false;
             }
-            return changeStore.responseChangeFor(requestResponse.response().toString()).isPresent();
+            // The correlation ID avoids serializing the response; content hashing is the fallback.
+            String correlationId = CorrelationIds.from(requestResponse.annotations());
+            return changeStore.responseChangeFor(correlationId, () -> requestResponse.response().toString()).isPresent();
         }
 
         @Override
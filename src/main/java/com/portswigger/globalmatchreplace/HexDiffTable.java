@@ -0,0 +1,203 @@
+package com.portswigger.globalmatchreplace;
+
+import javax.swing.JTable;
+import javax.swing.ListSelectionModel;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.DefaultTableCellRenderer;
+import javax.swing.table.TableColumn;
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Point;
+import java.awt.event.MouseEvent;
+import java.util.List;
+
+// Hex view for one side of a binary GMR diff. Rows are formatted on demand by the table model, so
+// only the rows in the viewport ever exist as strings and memory stays flat for large payloads.
+final class HexDiffTable extends JTable {
+    static final int BYTES_PER_ROW = 16;
+    private static final int ASCII_COLUMN = BYTES_PER_ROW + 1;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final HexModel model = new HexModel();
+    private List<TextDiffHighlighter.Highlight> highlights = List.of();
+
+    HexDiffTable() {
+        setModel(model);
+        setAutoResizeMode(AUTO_RESIZE_OFF);
+        setShowGrid(false);
+        setCellSelectionEnabled(false);
+        setRowSelectionAllowed(true);
+        setSelectionMode(ListSelectionModel.SINGLE_INTERVAL_SELECTION);
+        getTableHeader().setReorderingAllowed(false);
+        setDefaultRenderer(Object.class, new HexCellRenderer());
+        sizeColumns();
+    }
+
+    // data is Burp's one-char-per-byte message text; highlights are byte ranges sorted by start.
+    void show(String data, List<TextDiffHighlighter.Highlight> highlights) {
+        this.highlights = highlights;
+        model.setData(data);
+        sizeColumns();
+    }
+
+    void clear() {
+        show("", List.of());
+    }
+
+    // Selects the rows covering bytes [start, end) and scrolls them into view.
+    void reveal(int start, int end) {
+        if (getRowCount() == 0) {
+            return;
+        }
+        int first = Math.min(getRowCount() - 1, start / BYTES_PER_ROW);
+        int last = Math.min(getRowCount() - 1, Math.max(start, end - 1) / BYTES_PER_ROW);
+        getSelectionModel().setSelectionInterval(first, last);
+        scrollRectToVisible(getCellRect(first, 0, true));
+    }
+
+    void scrollToTop() {
+        clearSelection();
+        scrollRectToVisible(getCellRect(0, 0, true));
+    }
+
+    @Override
+    public void setFont(Font font) {
+        super.setFont(font);
+        if (model != null) {
+            sizeColumns();
+        }
+    }
+
+    @Override
+    public String getToolTipText(MouseEvent event) {
+        Point point = event.getPoint();
+        int row = rowAtPoint(point);
+        int column = columnAtPoint(point);
+        if (row < 0 || column < 1 || column > BYTES_PER_ROW) {
+            return null;
+        }
+        TextDiffHighlighter.Highlight highlight = highlightAt(row * BYTES_PER_ROW + column - 1);
+        return highlight == null ? null : highlight.label();
+    }
+
+    // Binary search over the sorted, non-overlapping highlights.
+    private TextDiffHighlighter.Highlight highlightAt(int offset) {
+        int low = 0;
+        int high = highlights.size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            TextDiffHighlighter.Highlight highlight = highlights.get(middle);
+            if (offset < highlight.start()) {
+                high = middle - 1;
+            } else if (offset >= highlight.end()) {
+                low = middle + 1;
+            } else {
+                return highlight;
+            }
+        }
+        return null;
+    }
+
+    private Color rowColor(int row) {
+        int start = row * BYTES_PER_ROW;
+        for (int offset = start; offset < start + BYTES_PER_ROW; offset++) {
+            TextDiffHighlighter.Highlight highlight = highlightAt(offset);
+            if (highlight != null) {
+                return highlight.color();
+            }
+        }
+        return null;
+    }
+
+    private void sizeColumns() {
+        FontMetrics metrics = getFontMetrics(getFont());
+        setRowHeight(metrics.getHeight() + 2);
+        for (int i = 0; i < getColumnCount(); i++) {
+            TableColumn column = getColumnModel().getColumn(i);
+            String sample = i == 0 ? "00000000" : i == ASCII_COLUMN ? "W".repeat(BYTES_PER_ROW) : "00";
+            int width = metrics.stringWidth(sample) + 12;
+            column.setMinWidth(width);
+            column.setPreferredWidth(width);
+        }
+    }
+
+    private final class HexCellRenderer extends DefaultTableCellRenderer {
+        @Override
+        public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected, boolean hasFocus,
+                                                       int row, int column) {
+            Component component = super.getTableCellRendererComponent(table, value, isSelected, false, row, column);
+            component.setFont(table.getFont());
+            if (!isSelected) {
+                Color color = null;
+                if (column >= 1 && column <= BYTES_PER_ROW) {
+                    TextDiffHighlighter.Highlight highlight = highlightAt(row * BYTES_PER_ROW + column - 1);
+                    color = highlight == null ? null : highlight.color();
+                } else if (column == ASCII_COLUMN) {
+                    color = rowColor(row);
+                }
+                component.setBackground(color != null ? color : table.getBackground());
+            }
+            return component;
+        }
+    }
+
+    private static final class HexModel extends AbstractTableModel {
+        private String data = "";
+
+        void setData(String data) {
+            this.data = data == null ? "" : data;
+            fireTableDataChanged();
+        }
+
+        @Override
+        public int getRowCount() {
+            return (data.length() + BYTES_PER_ROW - 1) / BYTES_PER_ROW;
+        }
+
+        @Override
+        public int getColumnCount() {
+            return BYTES_PER_ROW + 2;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            if (column == 0) {
+                return "Offset";
+            }
+            if (column == ASCII_COLUMN) {
+                return "ASCII";
+            }
+            return hex(column - 1, 1);
+        }
+
+        @Override
+        public Object getValueAt(int rowIndex, int columnIndex) {
+            int start = rowIndex * BYTES_PER_ROW;
+            if (columnIndex == 0) {
+                return hex(start, 8);
+            }
+            if (columnIndex == ASCII_COLUMN) {
+                int end = Math.min(data.length(), start + BYTES_PER_ROW);
+                char[] ascii = new char[end - start];
+                for (int i = start; i < end; i++) {
+                    char c = (char) (data.charAt(i) & 0xFF);
+                    ascii[i - start] = c >= 0x20 && c < 0x7F ? c : '.';
+                }
+                return new String(ascii);
+            }
+            int offset = start + columnIndex - 1;
+            return offset < data.length() ? hex(data.charAt(offset) & 0xFF, 2) : "";
+        }
+
+        private static String hex(int value, int digits) {
+            char[] out = new char[digits];
+            for (int i = digits - 1; i >= 0; i--) {
+                out[i] = HEX_DIGITS[value & 0xF];
+                value >>>= 4;
+            }
+            return new String(out);
+        }
+    }
+}
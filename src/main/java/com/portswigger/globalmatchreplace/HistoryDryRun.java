@@ -0,0 +1,276 @@
+package com.portswigger.globalmatchreplace;
+
+import burp.api.montoya.MontoyaApi;
+import burp.api.montoya.http.message.responses.HttpResponse;
+import burp.api.montoya.proxy.ProxyHttpRequestResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Evaluates rules against recent Proxy history without touching it: each message is rewritten in
+// memory by the rules in table order (as the HTTP handler would), and per-rule counters are updated
+// as items finish so the dialog can show partial results while the run is still going.
+final class HistoryDryRun {
+    // Items per leaf task; messages vary a lot in size, so keep leaves small for work stealing.
+    private static final int LEAF_ITEMS = 4;
+    // A rule that takes longer than this on one message is counted as failed and skipped for it.
+    static final long TIMEOUT_MS = 1000;
+
+    private final MontoyaApi api;
+    private final List<Rule> rules;
+    private final int limit;
+    private final RuleCounters[] counters;
+    private final AtomicInteger completed = new AtomicInteger();
+    private volatile int total = -1;
+    private volatile boolean cancelled;
+    private volatile boolean done;
+    private volatile String failure;
+
+    HistoryDryRun(MontoyaApi api, List<Rule> rules, int limit) {
+        this.api = api;
+        this.rules = List.copyOf(rules);
+        this.limit = limit;
+        this.counters = new RuleCounters[this.rules.size()];
+    }
+
+    // Runs on the pool; the history fetch happens there too since it copies every proxy item.
+    void start(ForkJoinPool pool) {
+        pool.execute(() -> {
+            try {
+                List<ProxyHttpRequestResponse> history = api.proxy().history();
+                List<ProxyHttpRequestResponse> items = history.subList(Math.max(0, history.size() - limit), history.size());
+                for (int i = 0; i < counters.length; i++) {
+                    counters[i] = new RuleCounters();
+                }
+                total = items.size();
+                if (!cancelled) {
+                    new Slice(items, 0, items.size()).invoke();
+                }
+            } catch (CancellationException ignored) {
+                // cancelled from the dialog or on unload
+            } catch (RuntimeException ex) {
+                failure = ex.getMessage() == null ? ex.getClass().getSimpleName() : ex.getMessage();
+                api.logging().logToError("[GMR] Dry run failed: " + failure);
+            } finally {
+                done = true;
+            }
+        });
+    }
+
+    // Stops scheduling items; in-flight regex matches see the pool's interrupt at their next check.
+    void cancel() {
+        cancelled = true;
+    }
+
+    boolean isDone() {
+        return done;
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    String failure() {
+        return failure;
+    }
+
+    int completed() {
+        return completed.get();
+    }
+
+    // -1 until the history has been fetched.
+    int total() {
+        return total;
+    }
+
+    List<RuleStats> snapshot() {
+        List<RuleStats> stats = new ArrayList<>(rules.size());
+        // Reading total first publishes the counters, which are filled in before it is set.
+        boolean started = total >= 0;
+        for (int i = 0; i < rules.size(); i++) {
+            if (!started) {
+                stats.add(new RuleStats(rules.get(i), 0, 0, 0, 0, 0, List.of(), -1, -1));
+                continue;
+            }
+            RuleCounters counter = counters[i];
+            long[] buckets = counter.buckets();
+            long evaluated = 0;
+            for (long count : buckets) {
+                evaluated += count;
+            }
+            stats.add(new RuleStats(
+                rules.get(i),
+                counter.replacements.sum(),
+                counter.messagesChanged.sum(),
+                counter.bytesChanged.sum(),
+                counter.failures.sum(),
+                (int) evaluated,
+                counter.hosts.stream().sorted().toList(),
+                percentile(buckets, evaluated, 50),
+                percentile(buckets, evaluated, 99)
+            ));
+        }
+        return stats;
+    }
+
+    private void evaluate(ProxyHttpRequestResponse item) {
+        String host = item.httpService() == null ? "" : item.httpService().host();
+        String request = item.finalRequest() == null ? null : item.finalRequest().toString();
+        // The HTTP handler sees the response before any Proxy interception edits.
+        String response = null;
+        if (item.hasResponse()) {
+            HttpResponse original = item.originalResponse() != null ? item.originalResponse() : item.response();
+            response = original == null ? null : original.toString();
+        }
+        List<EditSpans.Replacement> replacements = new ArrayList<>();
+        for (int i = 0; i < rules.size(); i++) {
+            Rule rule = rules.get(i);
+            boolean isRequest = rule.getTarget() == Rule.Target.REQUEST;
+            String message = isRequest ? request : response;
+            if (message == null) {
+                continue;
+            }
+            RuleCounters counter = counters[i];
+            replacements.clear();
+            long start = System.nanoTime();
+            String updated;
+            try {
+                updated = rule.apply(message, replacements, start + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MS));
+            } catch (DeadlineCharSequence.DeadlineExceededException | StackOverflowError ex) {
+                // Deeply recursive patterns (e.g. (a|aa)+ on a long run) overflow instead of timing out.
+                counter.failures.increment();
+                counter.record(System.nanoTime() - start);
+                continue;
+            }
+            counter.record(System.nanoTime() - start);
+            if (replacements.isEmpty()) {
+                continue;
+            }
+            long bytes = 0;
+            for (EditSpans.Replacement replacement : replacements) {
+                // Removed plus inserted, so a same-length substitution still counts as a change.
+                bytes += replacement.end() - replacement.start() + replacement.replacementLength();
+            }
+            counter.replacements.add(replacements.size());
+            counter.messagesChanged.increment();
+            counter.bytesChanged.add(bytes);
+            counter.hosts.add(host);
+            // Later rules see this rule's output, as they would on live traffic.
+            if (isRequest) {
+                request = updated;
+            } else {
+                response = updated;
+            }
+        }
+    }
+
+    // The upper bound of the bucket holding the given rank, so it is never below the true value.
+    private static long percentile(long[] buckets, long count, int percent) {
+        if (count == 0) {
+            return -1;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percent / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return RuleCounters.upperBound(i);
+            }
+        }
+        return RuleCounters.upperBound(buckets.length - 1);
+    }
+
+    record RuleStats(Rule rule, long replacements, long messagesChanged, long bytesChanged, long failures,
+                     int evaluated, List<String> hosts, long p50Nanos, long p99Nanos) {}
+
+    private final class Slice extends RecursiveAction {
+        private final List<ProxyHttpRequestResponse> items;
+        private final int start;
+        private final int end;
+
+        Slice(List<ProxyHttpRequestResponse> items, int start, int end) {
+            this.items = items;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start > LEAF_ITEMS) {
+                int middle = (start + end) >>> 1;
+                invokeAll(new Slice(items, start, middle), new Slice(items, middle, end));
+                return;
+            }
+            for (int i = start; i < end; i++) {
+                if (cancelled || Thread.currentThread().isInterrupted()) {
+                    throw new CancellationException();
+                }
+                evaluate(items.get(i));
+                completed.incrementAndGet();
+            }
+        }
+    }
+
+    // Counters are updated by every worker. Timings go into a fixed log-scale histogram: four buckets
+    // per power of two, so a percentile read from it is within about a quarter of the true value and
+    // memory does not grow with the history size.
+    private static final class RuleCounters {
+        // 2^41 ns is over half an hour, far past TIMEOUT_MS; anything slower lands in the last bucket.
+        private static final int MAX_EXPONENT = 40;
+        private static final int BUCKETS = MAX_EXPONENT * 4;
+
+        final LongAdder replacements = new LongAdder();
+        final LongAdder messagesChanged = new LongAdder();
+        final LongAdder bytesChanged = new LongAdder();
+        final LongAdder failures = new LongAdder();
+        final Set<String> hosts = ConcurrentHashMap.newKeySet();
+        private final LongAdder[] timings = new LongAdder[BUCKETS];
+
+        RuleCounters() {
+            for (int i = 0; i < BUCKETS; i++) {
+                timings[i] = new LongAdder();
+            }
+        }
+
+        void record(long nanos) {
+            timings[bucket(nanos)].increment();
+        }
+
+        long[] buckets() {
+            long[] counts = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = timings[i].sum();
+            }
+            return counts;
+        }
+
+        // 0-3 are exact; above that, the top two bits after the leading one pick one of four buckets.
+        static int bucket(long nanos) {
+            long value = Math.max(0, nanos);
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            if (exponent < 2) {
+                return (int) value;
+            }
+            if (exponent > MAX_EXPONENT) {
+                return BUCKETS - 1;
+            }
+            return (exponent - 1) * 4 + (int) ((value >>> (exponent - 2)) & 3);
+        }
+
+        static long upperBound(int bucket) {
+            if (bucket < 4) {
+                return bucket;
+            }
+            int shift = bucket / 4 - 1;
+            return ((5L + bucket % 4) << shift) - 1;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.portswigger.globalmatchreplace;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Lock-free counting Bloom filter: 4-bit counters packed 16 per long and updated with CAS, so
+// removals on eviction keep it in step with the store. A saturated counter is never decremented,
+// which can only cause false positives. Negative answers are exact; positives need a real lookup.
+final class MembershipFilter {
+    private static final int PROBES = 4;
+    private static final int COUNTERS_PER_WORD = 16;
+    private static final long MAX_COUNT = 15;
+
+    private final AtomicLongArray words;
+    private final int mask;
+    // Items added without a fingerprint; while any are present, content answers are always "maybe".
+    private final AtomicInteger unknown = new AtomicInteger();
+
+    MembershipFilter(int counters) {
+        int size = Integer.highestOneBit(Math.max(COUNTERS_PER_WORD, counters - 1)) << 1;
+        this.words = new AtomicLongArray(size / COUNTERS_PER_WORD);
+        this.mask = size - 1;
+    }
+
+    // Fingerprint of a type tag plus a string; String.hashCode is cached and intrinsified, so this is cheap.
+    static long fingerprint(int tag, String value) {
+        return fingerprint(tag, value.hashCode(), value.length());
+    }
+
+    // Same as above from a hash and length the caller computed.
+    static long fingerprint(int tag, int hash, int length) {
+        long h = ((long) hash << 32) ^ (length * 0x9E3779B97F4A7C15L) ^ tag;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+
+    void add(long fingerprint) {
+        for (int i = 0; i < PROBES; i++) {
+            update(index(fingerprint, i), 1);
+        }
+    }
+
+    void remove(long fingerprint) {
+        for (int i = 0; i < PROBES; i++) {
+            update(index(fingerprint, i), -1);
+        }
+    }
+
+    boolean mightContain(long fingerprint) {
+        for (int i = 0; i < PROBES; i++) {
+            if (counter(index(fingerprint, i)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void addUnknown() {
+        unknown.incrementAndGet();
+    }
+
+    void removeUnknown() {
+        unknown.decrementAndGet();
+    }
+
+    // False while some members have no fingerprint (entries restored from older cache formats).
+    boolean isComplete() {
+        return unknown.get() <= 0;
+    }
+
+    // Double hashing: probe i uses h1 + i * h2.
+    private int index(long fingerprint, int probe) {
+        int h1 = (int) fingerprint;
+        int h2 = (int) (fingerprint >>> 32) | 1;
+        return (h1 + probe * h2) & mask;
+    }
+
+    private long counter(int index) {
+        long word = words.get(index / COUNTERS_PER_WORD);
+        return (word >>> shift(index)) & MAX_COUNT;
+    }
+
+    private void update(int index, int delta) {
+        int wordIndex = index / COUNTERS_PER_WORD;
+        int shift = shift(index);
+        while (true) {
+            long word = words.get(wordIndex);
+            long count = (word >>> shift) & MAX_COUNT;
+            if (count == MAX_COUNT || (delta < 0 && count == 0)) {
+                return;
+            }
+            long updated = (word & ~(MAX_COUNT << shift)) | ((count + delta) << shift);
+            if (words.compareAndSet(wordIndex, word, updated)) {
+                return;
+            }
+        }
+    }
+
+    private static int shift(int index) {
+        return (index % COUNTERS_PER_WORD) * 4;
+    }
+}
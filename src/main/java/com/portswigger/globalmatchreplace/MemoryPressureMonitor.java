@@ -0,0 +1,114 @@
+package com.portswigger.globalmatchreplace;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+// Watches heap occupancy after each GC and reports staged pressure levels to a listener.
+final class MemoryPressureMonitor {
+    // Same value as com.sun.management.GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.
+    private static final String GC_NOTIFICATION = "com.sun.management.gc.notification";
+    // A level is only left once usage drops this many points below its threshold, to avoid flapping.
+    private static final int HYSTERESIS_PERCENT = 10;
+
+    // ELEVATED keeps the full cap and only unloads re-readable payloads (see ChangeStore.onMemoryPressure);
+    // CRITICAL still leaves room for the most recent diffs.
+    enum Level {
+        NORMAL(0, 1.0),
+        ELEVATED(75, 1.0),
+        HIGH(85, 0.5),
+        CRITICAL(95, 0.25);
+
+        private final int thresholdPercent;
+        private final double capFactor;
+
+        Level(int thresholdPercent, double capFactor) {
+            this.thresholdPercent = thresholdPercent;
+            this.capFactor = capFactor;
+        }
+
+        // Fraction of the configured cache cap allowed at this level.
+        double capFactor() {
+            return capFactor;
+        }
+    }
+
+    private final BiConsumer<Level, Integer> listener;
+    private final List<NotificationEmitter> emitters = new ArrayList<>();
+    private final NotificationListener gcListener = this::onGc;
+    private volatile Level level = Level.NORMAL;
+
+    MemoryPressureMonitor(BiConsumer<Level, Integer> listener) {
+        this.listener = listener;
+    }
+
+    void start() {
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (collector instanceof NotificationEmitter emitter) {
+                emitter.addNotificationListener(gcListener, notification -> GC_NOTIFICATION.equals(notification.getType()), null);
+                emitters.add(emitter);
+            }
+        }
+    }
+
+    void stop() {
+        for (NotificationEmitter emitter : emitters) {
+            try {
+                emitter.removeNotificationListener(gcListener);
+            } catch (ListenerNotFoundException ignored) {
+                // already removed
+            }
+        }
+        emitters.clear();
+    }
+
+    private void onGc(Notification notification, Object handback) {
+        int usedPercent = heapUsedAfterGcPercent();
+        if (usedPercent < 0) {
+            return;
+        }
+        Level next = levelFor(usedPercent, level);
+        if (next != level) {
+            level = next;
+            listener.accept(next, usedPercent);
+        }
+    }
+
+    private static Level levelFor(int usedPercent, Level current) {
+        Level next = Level.NORMAL;
+        for (Level candidate : Level.values()) {
+            if (usedPercent >= candidate.thresholdPercent) {
+                next = candidate;
+            }
+        }
+        if (next.ordinal() < current.ordinal() && usedPercent > current.thresholdPercent - HYSTERESIS_PERCENT) {
+            return current;
+        }
+        return next;
+    }
+
+    // Highest post-collection occupancy across bounded heap pools (typically the old generation).
+    private static int heapUsedAfterGcPercent() {
+        int worst = -1;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() != MemoryType.HEAP || !pool.isCollectionUsageThresholdSupported()) {
+                continue;
+            }
+            MemoryUsage usage = pool.getCollectionUsage();
+            if (usage == null || usage.getMax() <= 0) {
+                continue;
+            }
+            worst = Math.max(worst, (int) (usage.getUsed() * 100 / usage.getMax()));
+        }
+        return worst;
+    }
+}
@@ -0,0 +1,306 @@
+package com.portswigger.globalmatchreplace;
+
+import burp.api.montoya.MontoyaApi;
+
+import javax.swing.BorderFactory;
+import javax.swing.DefaultListCellRenderer;
+import javax.swing.DefaultListModel;
+import javax.swing.JButton;
+import javax.swing.JDialog;
+import javax.swing.JList;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.ListSelectionModel;
+import java.awt.BorderLayout;
+import java.awt.Component;
+import java.awt.Dimension;
+import java.awt.GridLayout;
+import java.awt.Window;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Edits the profile list: each profile is an ordered selection of rules. Works on a copy; Save
+// returns the new list (and which profiles were renamed) and Cancel discards it.
+final class ProfilesDialog extends JDialog {
+    private final List<Rule> rules;
+    private final Map<String, Integer> rows = new HashMap<>();
+    // Profile name -> rule IDs in profile order; insertion order is the profile list order.
+    private final Map<String, List<String>> working = new LinkedHashMap<>();
+    // Current name -> name when the dialog opened, for profiles that existed then.
+    private final Map<String, String> originalNames = new HashMap<>();
+    private final DefaultListModel<String> profileNames = new DefaultListModel<>();
+    private final JList<String> profileList = new JList<>(profileNames);
+    private final DefaultListModel<Rule> included = new DefaultListModel<>();
+    private final DefaultListModel<Rule> excluded = new DefaultListModel<>();
+    private final JList<Rule> includedList = new JList<>(included);
+    private final JList<Rule> excludedList = new JList<>(excluded);
+    private Result result;
+
+    // renames maps old names to new ones, so the active profile can follow a rename.
+    record Result(List<RuleProfiles.Profile> profiles, Map<String, String> renames) {}
+
+    ProfilesDialog(Window owner, MontoyaApi api, List<Rule> rules, List<RuleProfiles.Profile> profiles) {
+        super(owner, "Rule profiles", ModalityType.APPLICATION_MODAL);
+        this.rules = rules;
+        for (int i = 0; i < rules.size(); i++) {
+            rows.putIfAbsent(rules.get(i).getId(), i);
+        }
+        for (RuleProfiles.Profile profile : profiles) {
+            // IDs of rules deleted since the profile was saved are dropped here.
+            List<String> ids = new ArrayList<>();
+            for (String id : profile.ruleIds()) {
+                if (rows.containsKey(id)) {
+                    ids.add(id);
+                }
+            }
+            working.put(profile.name(), ids);
+            originalNames.put(profile.name(), profile.name());
+            profileNames.addElement(profile.name());
+        }
+
+        JPanel content = new JPanel(new BorderLayout(8, 8));
+        content.setBorder(BorderFactory.createEmptyBorder(12, 12, 12, 12));
+        content.add(buildProfilesPane(), BorderLayout.WEST);
+        content.add(buildRulesPane(), BorderLayout.CENTER);
+
+        JPanel buttons = new JPanel(new GridLayout(1, 2, 8, 0));
+        JButton save = new JButton("Save");
+        JButton cancel = new JButton("Cancel");
+        save.addActionListener(event -> onSave());
+        cancel.addActionListener(event -> dispose());
+        buttons.add(save);
+        buttons.add(cancel);
+        JPanel south = new JPanel(new BorderLayout());
+        south.add(buttons, BorderLayout.EAST);
+        content.add(south, BorderLayout.SOUTH);
+
+        // Keep dialog styling consistent with Burp theme.
+        setContentPane(content);
+        api.userInterface().applyThemeToComponent(this);
+        if (!profileNames.isEmpty()) {
+            profileList.setSelectedIndex(0);
+        }
+        showProfile();
+        pack();
+        setLocationRelativeTo(owner);
+    }
+
+    Result showDialog() {
+        setVisible(true);
+        return result;
+    }
+
+    private JPanel buildProfilesPane() {
+        profileList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        profileList.addListSelectionListener(event -> {
+            if (!event.getValueIsAdjusting()) {
+                showProfile();
+            }
+        });
+        JScrollPane scroll = new JScrollPane(profileList);
+        scroll.setPreferredSize(new Dimension(180, 320));
+
+        JPanel buttons = new JPanel(new GridLayout(3, 1, 0, 4));
+        JButton add = new JButton("New...");
+        JButton rename = new JButton("Rename...");
+        JButton remove = new JButton("Delete");
+        add.addActionListener(event -> newProfile());
+        rename.addActionListener(event -> renameProfile());
+        remove.addActionListener(event -> deleteProfile());
+        buttons.add(add);
+        buttons.add(rename);
+        buttons.add(remove);
+
+        JPanel pane = new JPanel(new BorderLayout(4, 4));
+        pane.setBorder(BorderFactory.createTitledBorder("Profiles"));
+        pane.add(scroll, BorderLayout.CENTER);
+        pane.add(buttons, BorderLayout.SOUTH);
+        return pane;
+    }
+
+    private JPanel buildRulesPane() {
+        DefaultListCellRenderer renderer = new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean selected, boolean focused) {
+                Rule rule = (Rule) value;
+                String text = "#" + (rows.get(rule.getId()) + 1) + "  " + rule.summary() + (rule.isEnabled() ? "" : "  [disabled]");
+                return super.getListCellRendererComponent(list, text, index, selected, focused);
+            }
+        };
+        includedList.setCellRenderer(renderer);
+        excludedList.setCellRenderer(renderer);
+
+        JPanel lists = new JPanel(new GridLayout(2, 1, 0, 8));
+        JScrollPane includedScroll = new JScrollPane(includedList);
+        includedScroll.setBorder(BorderFactory.createTitledBorder("Rules in profile (applied in this order)"));
+        JScrollPane excludedScroll = new JScrollPane(excludedList);
+        excludedScroll.setBorder(BorderFactory.createTitledBorder("Other rules"));
+        lists.add(includedScroll);
+        lists.add(excludedScroll);
+        lists.setPreferredSize(new Dimension(720, 320));
+
+        JPanel buttons = new JPanel(new GridLayout(4, 1, 0, 4));
+        JButton up = new JButton("Move up");
+        JButton down = new JButton("Move down");
+        JButton include = new JButton("Add");
+        JButton exclude = new JButton("Remove");
+        up.addActionListener(event -> move(-1));
+        down.addActionListener(event -> move(1));
+        include.addActionListener(event -> include());
+        exclude.addActionListener(event -> exclude());
+        buttons.add(up);
+        buttons.add(down);
+        buttons.add(include);
+        buttons.add(exclude);
+        JPanel side = new JPanel(new BorderLayout());
+        side.add(buttons, BorderLayout.NORTH);
+
+        JPanel pane = new JPanel(new BorderLayout(8, 8));
+        pane.add(lists, BorderLayout.CENTER);
+        pane.add(side, BorderLayout.EAST);
+        return pane;
+    }
+
+    // Fills both rule lists from the selected profile.
+    private void showProfile() {
+        included.clear();
+        excluded.clear();
+        List<String> ids = selectedIds();
+        if (ids == null) {
+            return;
+        }
+        for (String id : ids) {
+            included.addElement(rules.get(rows.get(id)));
+        }
+        for (Rule rule : rules) {
+            if (!ids.contains(rule.getId())) {
+                excluded.addElement(rule);
+            }
+        }
+    }
+
+    private List<String> selectedIds() {
+        String name = profileList.getSelectedValue();
+        return name == null ? null : working.get(name);
+    }
+
+    private void newProfile() {
+        String name = askName("New profile name:", "");
+        if (name == null) {
+            return;
+        }
+        // Start from the rules enabled now, the usual starting point for a phase of testing.
+        List<String> ids = new ArrayList<>();
+        for (Rule rule : rules) {
+            if (rule.isEnabled()) {
+                ids.add(rule.getId());
+            }
+        }
+        working.put(name, ids);
+        profileNames.addElement(name);
+        profileList.setSelectedValue(name, true);
+    }
+
+    private void renameProfile() {
+        String oldName = profileList.getSelectedValue();
+        if (oldName == null) {
+            return;
+        }
+        String name = askName("Rename profile:", oldName);
+        if (name == null || name.equals(oldName)) {
+            return;
+        }
+        Map<String, List<String>> renamed = new LinkedHashMap<>();
+        working.forEach((key, ids) -> renamed.put(key.equals(oldName) ? name : key, ids));
+        working.clear();
+        working.putAll(renamed);
+        String original = originalNames.remove(oldName);
+        if (original != null) {
+            originalNames.put(name, original);
+        }
+        profileNames.set(profileList.getSelectedIndex(), name);
+    }
+
+    private void deleteProfile() {
+        int index = profileList.getSelectedIndex();
+        if (index < 0) {
+            return;
+        }
+        working.remove(profileNames.get(index));
+        originalNames.remove(profileNames.get(index));
+        profileNames.remove(index);
+        if (!profileNames.isEmpty()) {
+            profileList.setSelectedIndex(Math.min(index, profileNames.size() - 1));
+        }
+        showProfile();
+    }
+
+    // Null if cancelled, blank or already taken (after telling the user).
+    private String askName(String prompt, String initial) {
+        Object input = JOptionPane.showInputDialog(this, prompt, "Rule profiles", JOptionPane.PLAIN_MESSAGE, null, null, initial);
+        if (input == null) {
+            return null;
+        }
+        String name = input.toString().strip();
+        if (name.isEmpty()) {
+            return null;
+        }
+        if (name.equals(RuleProfiles.ALL_RULES) || (!name.equals(initial) && working.containsKey(name))) {
+            JOptionPane.showMessageDialog(this, "A profile named \"" + name + "\" already exists.");
+            return null;
+        }
+        return name;
+    }
+
+    private void move(int delta) {
+        List<String> ids = selectedIds();
+        int index = includedList.getSelectedIndex();
+        int target = index + delta;
+        if (ids == null || index < 0 || target < 0 || target >= ids.size()) {
+            return;
+        }
+        ids.add(target, ids.remove(index));
+        included.add(target, included.remove(index));
+        includedList.setSelectedIndex(target);
+        includedList.ensureIndexIsVisible(target);
+    }
+
+    private void include() {
+        List<String> ids = selectedIds();
+        if (ids == null) {
+            return;
+        }
+        for (Rule rule : excludedList.getSelectedValuesList()) {
+            ids.add(rule.getId());
+        }
+        showProfile();
+    }
+
+    private void exclude() {
+        List<String> ids = selectedIds();
+        if (ids == null) {
+            return;
+        }
+        for (Rule rule : includedList.getSelectedValuesList()) {
+            ids.remove(rule.getId());
+        }
+        showProfile();
+    }
+
+    private void onSave() {
+        List<RuleProfiles.Profile> profiles = new ArrayList<>();
+        working.forEach((name, ids) -> profiles.add(new RuleProfiles.Profile(name, ids)));
+        Map<String, String> renames = new HashMap<>();
+        originalNames.forEach((name, original) -> {
+            if (!name.equals(original)) {
+                renames.put(original, name);
+            }
+        });
+        result = new Result(profiles, renames);
+        dispose();
+    }
+}
@@ -0,0 +1,683 @@
+package com.portswigger.globalmatchreplace;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+// Syntax tree for the Java regex dialect, detailed enough for RuleSetAnalyzer: which chars each part
+// can consume, which parts are optional, and where quantifiers nest. Zero-width constructs (anchors,
+// boundaries, lookaround) become Empty, and back references are treated as "any text".
+final class RegexAst {
+    static final int UNBOUNDED = -1;
+
+    sealed interface Node permits Chars, Empty, Sequence, Alternation, Repeat, Group {}
+
+    // One char from set; literal is that char when the atom was a plain character, otherwise -1.
+    record Chars(CharSet set, int literal) implements Node {}
+
+    record Empty() implements Node {}
+
+    record Sequence(List<Node> items) implements Node {}
+
+    record Alternation(List<Node> branches) implements Node {}
+
+    // max is UNBOUNDED for *, + and {n,}. Possessive repeats never give back what they matched.
+    record Repeat(Node body, int min, int max, boolean possessive) implements Node {
+        boolean unbounded() {
+            return max == UNBOUNDED;
+        }
+    }
+
+    // Atomic groups, like possessive repeats, are never backtracked into.
+    record Group(Node body, boolean atomic) implements Node {}
+
+    private RegexAst() {
+    }
+
+    // flags are java.util.regex.Pattern flags (only CASE_INSENSITIVE, DOTALL and COMMENTS matter).
+    // Throws IllegalArgumentException on syntax this parser does not understand.
+    static Node parse(String regex, int flags) {
+        Parser parser = new Parser(regex, flags);
+        Node node = parser.alternation();
+        if (parser.position < regex.length()) {
+            throw new IllegalArgumentException("Unbalanced ) at " + parser.position);
+        }
+        return node;
+    }
+
+    static boolean nullable(Node node) {
+        return switch (node) {
+            case Chars chars -> false;
+            case Empty empty -> true;
+            case Sequence sequence -> sequence.items().stream().allMatch(RegexAst::nullable);
+            case Alternation alternation -> alternation.branches().stream().anyMatch(RegexAst::nullable);
+            case Repeat repeat -> repeat.min() == 0 || nullable(repeat.body());
+            case Group group -> nullable(group.body());
+        };
+    }
+
+    // False when some mandatory part can match no char at all (e.g. [^\s\S]).
+    static boolean canMatch(Node node) {
+        return switch (node) {
+            case Chars chars -> !chars.set().isEmpty();
+            case Empty empty -> true;
+            case Sequence sequence -> sequence.items().stream().allMatch(RegexAst::canMatch);
+            case Alternation alternation -> alternation.branches().stream().anyMatch(RegexAst::canMatch);
+            case Repeat repeat -> repeat.min() == 0 || canMatch(repeat.body());
+            case Group group -> canMatch(group.body());
+        };
+    }
+
+    // Every char the node can consume.
+    static CharSet chars(Node node) {
+        return switch (node) {
+            case Chars chars -> chars.set();
+            case Empty empty -> CharSet.NONE;
+            case Sequence sequence -> union(sequence.items());
+            case Alternation alternation -> union(alternation.branches());
+            case Repeat repeat -> chars(repeat.body());
+            case Group group -> chars(group.body());
+        };
+    }
+
+    // Chars the node's match can start with.
+    static CharSet first(Node node) {
+        return switch (node) {
+            case Chars chars -> chars.set();
+            case Empty empty -> CharSet.NONE;
+            case Sequence sequence -> {
+                CharSet result = CharSet.NONE;
+                for (Node item : sequence.items()) {
+                    result = result.union(first(item));
+                    if (!nullable(item)) {
+                        break;
+                    }
+                }
+                yield result;
+            }
+            case Alternation alternation -> {
+                CharSet result = CharSet.NONE;
+                for (Node branch : alternation.branches()) {
+                    result = result.union(first(branch));
+                }
+                yield result;
+            }
+            case Repeat repeat -> first(repeat.body());
+            case Group group -> first(group.body());
+        };
+    }
+
+    // The exact text a node matches, if it is a run of plain characters; otherwise null.
+    static String literalText(Node node) {
+        StringBuilder text = new StringBuilder();
+        return appendLiteral(node, text) ? text.toString() : null;
+    }
+
+    private static boolean appendLiteral(Node node, StringBuilder text) {
+        return switch (node) {
+            case Chars chars -> {
+                if (chars.literal() < 0) {
+                    yield false;
+                }
+                text.append((char) chars.literal());
+                yield true;
+            }
+            case Sequence sequence -> sequence.items().stream().allMatch(item -> appendLiteral(item, text));
+            case Group group -> appendLiteral(group.body(), text);
+            // Anchors and lookaround add no text.
+            case Empty empty -> true;
+            default -> false;
+        };
+    }
+
+    private static CharSet union(List<Node> nodes) {
+        CharSet result = CharSet.NONE;
+        for (Node node : nodes) {
+            result = result.union(chars(node));
+        }
+        return result;
+    }
+
+    // Recursive descent over the pattern; flags follow inline (?i)/(?s)/(?x) changes per group.
+    private static final class Parser {
+        private final String regex;
+        private int position;
+        private int flags;
+
+        Parser(String regex, int flags) {
+            this.regex = regex;
+            this.flags = flags;
+        }
+
+        Node alternation() {
+            List<Node> branches = new ArrayList<>();
+            branches.add(sequence());
+            while (peek() == '|') {
+                position++;
+                branches.add(sequence());
+            }
+            return branches.size() == 1 ? branches.get(0) : new Alternation(branches);
+        }
+
+        private Node sequence() {
+            List<Node> items = new ArrayList<>();
+            while (true) {
+                skipComments();
+                int c = peek();
+                if (c < 0 || c == '|' || c == ')') {
+                    break;
+                }
+                Node atom = atom();
+                if (atom != null) {
+                    items.add(quantified(atom));
+                }
+            }
+            return items.size() == 1 ? items.get(0) : new Sequence(items);
+        }
+
+        private Node quantified(Node atom) {
+            while (true) {
+                skipComments();
+                int c = peek();
+                int min;
+                int max;
+                if (c == '*') {
+                    position++;
+                    min = 0;
+                    max = UNBOUNDED;
+                } else if (c == '+') {
+                    position++;
+                    min = 1;
+                    max = UNBOUNDED;
+                } else if (c == '?') {
+                    position++;
+                    min = 0;
+                    max = 1;
+                } else if (c == '{' && isBoundsAhead()) {
+                    position++;
+                    min = number();
+                    max = min;
+                    if (peek() == ',') {
+                        position++;
+                        max = peek() == '}' ? UNBOUNDED : number();
+                    }
+                    expect('}');
+                } else {
+                    return atom;
+                }
+                boolean possessive = false;
+                if (peek() == '?') {
+                    position++;
+                } else if (peek() == '+') {
+                    position++;
+                    possessive = true;
+                }
+                atom = new Repeat(atom, min, max, possessive);
+            }
+        }
+
+        // Null for atoms that only change flags.
+        private Node atom() {
+            char c = regex.charAt(position++);
+            switch (c) {
+                case '(':
+                    return group();
+                case '[':
+                    return new Chars(charClass(), -1);
+                case '.':
+                    return new Chars((flags & Pattern.DOTALL) != 0 ? CharSet.ANY : CharSet.ANY.minus(CharSet.LINE_BREAKS), -1);
+                case '^':
+                case '$':
+                    return new Empty();
+                case '\\':
+                    return escape();
+                default:
+                    return literal(c);
+            }
+        }
+
+        private Node group() {
+            int savedFlags = flags;
+            Node node;
+            if (peek() != '?') {
+                node = new Group(alternation(), false);
+            } else {
+                position++;
+                int kind = next();
+                if (kind == ':') {
+                    node = new Group(alternation(), false);
+                } else if (kind == '>') {
+                    node = new Group(alternation(), true);
+                } else if (kind == '=' || kind == '!') {
+                    alternation();
+                    node = new Empty();
+                } else if (kind == '<' && (peek() == '=' || peek() == '!')) {
+                    position++;
+                    alternation();
+                    node = new Empty();
+                } else if (kind == '<') {
+                    while (next() != '>') {
+                        // named group name
+                    }
+                    node = new Group(alternation(), false);
+                } else {
+                    position--;
+                    boolean scoped = inlineFlags();
+                    if (!scoped) {
+                        // (?i) applies to the rest of the enclosing group, so the flags are kept.
+                        expect(')');
+                        return null;
+                    }
+                    node = new Group(alternation(), false);
+                }
+            }
+            expect(')');
+            flags = savedFlags;
+            return node;
+        }
+
+        // Parses i/s/x/... flags up to ')' or ':'; returns true for the scoped (?flags:...) form.
+        private boolean inlineFlags() {
+            boolean enable = true;
+            while (true) {
+                int c = peek();
+                if (c == ')') {
+                    return false;
+                }
+                if (c == ':') {
+                    position++;
+                    return true;
+                }
+                position++;
+                int flag = switch (c) {
+                    case 'i' -> Pattern.CASE_INSENSITIVE;
+                    case 's' -> Pattern.DOTALL;
+                    case 'x' -> Pattern.COMMENTS;
+                    case 'm', 'd', 'u', 'U' -> 0;
+                    case '-' -> {
+                        enable = false;
+                        yield 0;
+                    }
+                    default -> throw new IllegalArgumentException("Unknown flag at " + position);
+                };
+                flags = enable ? flags | flag : flags & ~flag;
+            }
+        }
+
+        private Node escape() {
+            int c = next();
+            switch (c) {
+                case 'd':
+                case 'D':
+                case 'w':
+                case 'W':
+                case 's':
+                case 'S':
+                case 'h':
+                case 'H':
+                case 'v':
+                case 'V':
+                case 'p':
+                case 'P':
+                    position--;
+                    return new Chars(classEscape(), -1);
+                case 'b':
+                case 'B':
+                case 'A':
+                case 'z':
+                case 'Z':
+                case 'G':
+                    return new Empty();
+                case 'R':
+                    return new Repeat(new Chars(CharSet.LINE_BREAKS, -1), 1, 2, false);
+                case 'k':
+                    while (next() != '>') {
+                        // group name
+                    }
+                    return backReference();
+                case 'Q': {
+                    int end = regex.indexOf("\\E", position);
+                    String quoted = regex.substring(position, end < 0 ? regex.length() : end);
+                    position = end < 0 ? regex.length() : end + 2;
+                    List<Node> items = new ArrayList<>();
+                    for (int i = 0; i < quoted.length(); i++) {
+                        items.add(literal(quoted.charAt(i)));
+                    }
+                    return items.size() == 1 ? items.get(0) : new Sequence(items);
+                }
+                default:
+                    if (c >= '1' && c <= '9') {
+                        while (peek() >= '0' && peek() <= '9') {
+                            position++;
+                        }
+                        return backReference();
+                    }
+                    position--;
+                    return literal(escapedChar());
+            }
+        }
+
+        // A back reference can repeat any captured text; it never backtracks on its own.
+        private static Node backReference() {
+            return new Repeat(new Chars(CharSet.ANY, -1), 0, UNBOUNDED, true);
+        }
+
+        private Node literal(char c) {
+            if ((flags & Pattern.CASE_INSENSITIVE) != 0 && Character.isLetter(c)) {
+                CharSet set = CharSet.of(Character.toLowerCase(c)).union(CharSet.of(Character.toUpperCase(c)));
+                return new Chars(set, -1);
+            }
+            return new Chars(CharSet.of(c), c);
+        }
+
+        private CharSet charClass() {
+            boolean negated = false;
+            if (peek() == '^') {
+                position++;
+                negated = true;
+            }
+            CharSet result = CharSet.NONE;
+            boolean first = true;
+            while (true) {
+                int c = peek();
+                if (c < 0) {
+                    throw new IllegalArgumentException("Unclosed character class");
+                }
+                if (c == ']' && !first) {
+                    position++;
+                    break;
+                }
+                first = false;
+                if (c == '[') {
+                    position++;
+                    result = result.union(charClass());
+                } else if (c == '&' && regex.startsWith("&&", position)) {
+                    position += 2;
+                    CharSet right = classRest();
+                    result = result.intersect(right);
+                    break;
+                } else {
+                    result = result.union(classItem());
+                }
+            }
+            if ((flags & Pattern.CASE_INSENSITIVE) != 0) {
+                result = result.caseInsensitive();
+            }
+            return negated ? CharSet.ANY.minus(result) : result;
+        }
+
+        // The right-hand side of && up to the closing ], parsed as its own class body.
+        private CharSet classRest() {
+            CharSet result = CharSet.NONE;
+            while (true) {
+                int c = peek();
+                if (c < 0) {
+                    throw new IllegalArgumentException("Unclosed character class");
+                }
+                if (c == ']') {
+                    position++;
+                    return result;
+                }
+                if (c == '[') {
+                    position++;
+                    result = result.union(charClass());
+                } else if (c == '&' && regex.startsWith("&&", position)) {
+                    position += 2;
+                    return result.intersect(classRest());
+                } else {
+                    result = result.union(classItem());
+                }
+            }
+        }
+
+        private CharSet classItem() {
+            int start;
+            if (peek() == '\\') {
+                position++;
+                int c = peek();
+                if ("dDwWsShHvVpP".indexOf(c) >= 0) {
+                    return classEscape();
+                }
+                start = escapedChar();
+            } else {
+                start = next();
+            }
+            if (peek() == '-' && position + 1 < regex.length() && regex.charAt(position + 1) != ']') {
+                position++;
+                int end;
+                if (peek() == '\\') {
+                    position++;
+                    end = escapedChar();
+                } else {
+                    end = next();
+                }
+                return CharSet.range((char) start, (char) end);
+            }
+            return CharSet.of((char) start);
+        }
+
+        // Shorthand classes; Unicode properties (\p{...}) are treated as any char.
+        private CharSet classEscape() {
+            int c = next();
+            CharSet set = switch (Character.toLowerCase(c)) {
+                case 'd' -> CharSet.DIGITS;
+                case 'w' -> CharSet.WORD;
+                case 's' -> CharSet.SPACE;
+                case 'h' -> CharSet.of(' ').union(CharSet.of('\t'));
+                case 'v' -> CharSet.LINE_BREAKS.union(CharSet.of('\u000B')).union(CharSet.of('\f'));
+                default -> {
+                    if (peek() == '{') {
+                        int end = regex.indexOf('}', position);
+                        if (end < 0) {
+                            throw new IllegalArgumentException("Unclosed property");
+                        }
+                        position = end + 1;
+                    } else {
+                        position++;
+                    }
+                    yield CharSet.ANY;
+                }
+            };
+            if (c == 'p' || c == 'P') {
+                return CharSet.ANY;
+            }
+            return Character.isUpperCase(c) ? CharSet.ANY.minus(set) : set;
+        }
+
+        private char escapedChar() {
+            int c = next();
+            return switch (c) {
+                case 't' -> '\t';
+                case 'n' -> '\n';
+                case 'r' -> '\r';
+                case 'f' -> '\f';
+                case 'a' -> '\u0007';
+                case 'e' -> '\u001B';
+                case '0' -> {
+                    int value = 0;
+                    for (int i = 0; i < 3 && peek() >= '0' && peek() <= '7'; i++) {
+                        value = value * 8 + next() - '0';
+                    }
+                    yield (char) value;
+                }
+                case 'x' -> {
+                    if (peek() == '{') {
+                        int end = regex.indexOf('}', position);
+                        int value = Integer.parseInt(regex.substring(position + 1, end), 16);
+                        position = end + 1;
+                        yield value > Character.MAX_VALUE ? '\uFFFD' : (char) value;
+                    }
+                    yield (char) hex(2);
+                }
+                case 'u' -> (char) hex(4);
+                case 'c' -> (char) (next() ^ 64);
+                default -> {
+                    if (c < 0) {
+                        throw new IllegalArgumentException("Trailing backslash");
+                    }
+                    yield (char) c;
+                }
+            };
+        }
+
+        private int hex(int digits) {
+            if (position + digits > regex.length()) {
+                throw new IllegalArgumentException("Bad hex escape");
+            }
+            int value = Integer.parseInt(regex.substring(position, position + digits), 16);
+            position += digits;
+            return value;
+        }
+
+        private boolean isBoundsAhead() {
+            int i = position + 1;
+            int digits = 0;
+            while (i < regex.length() && Character.isDigit(regex.charAt(i))) {
+                i++;
+                digits++;
+            }
+            return digits > 0 && i < regex.length() && (regex.charAt(i) == '}' || regex.charAt(i) == ',');
+        }
+
+        private int number() {
+            int start = position;
+            while (peek() >= '0' && peek() <= '9') {
+                position++;
+            }
+            if (start == position) {
+                throw new IllegalArgumentException("Expected a number at " + position);
+            }
+            return (int) Math.min(Integer.MAX_VALUE, Long.parseLong(regex.substring(start, position)));
+        }
+
+        // In COMMENTS mode whitespace and #-comments between atoms are ignored.
+        private void skipComments() {
+            if ((flags & Pattern.COMMENTS) == 0) {
+                return;
+            }
+            while (position < regex.length()) {
+                char c = regex.charAt(position);
+                if (Character.isWhitespace(c)) {
+                    position++;
+                } else if (c == '#') {
+                    while (position < regex.length() && regex.charAt(position) != '\n') {
+                        position++;
+                    }
+                } else {
+                    return;
+                }
+            }
+        }
+
+        private void expect(char c) {
+            if (next() != c) {
+                throw new IllegalArgumentException("Expected " + c + " at " + position);
+            }
+        }
+
+        private int peek() {
+            return position < regex.length() ? regex.charAt(position) : -1;
+        }
+
+        private int next() {
+            if (position >= regex.length()) {
+                throw new IllegalArgumentException("Unexpected end of pattern");
+            }
+            return regex.charAt(position++);
+        }
+    }
+
+    // Char sets as a bitmap over ASCII plus two bits for "some non-ASCII char" and "every non-ASCII
+    // char": exact for the ASCII text that dominates HTTP, and a safe over-approximation for the rest.
+    static final class CharSet {
+        static final CharSet NONE = new CharSet(0, 0, false, false);
+        static final CharSet ANY = new CharSet(-1L, -1L, true, true);
+        static final CharSet DIGITS = range('0', '9');
+        static final CharSet WORD = range('a', 'z').union(range('A', 'Z')).union(DIGITS).union(of('_'));
+        static final CharSet SPACE = of(' ').union(range('\t', '\r'));
+        static final CharSet LINE_BREAKS = of('\n').union(of('\r'));
+
+        private final long low;
+        private final long high;
+        private final boolean nonAscii;
+        private final boolean allNonAscii;
+
+        private CharSet(long low, long high, boolean nonAscii, boolean allNonAscii) {
+            this.low = low;
+            this.high = high;
+            this.nonAscii = nonAscii || allNonAscii;
+            this.allNonAscii = allNonAscii;
+        }
+
+        static CharSet of(char c) {
+            if (c >= 128) {
+                return new CharSet(0, 0, true, false);
+            }
+            return c < 64 ? new CharSet(1L << c, 0, false, false) : new CharSet(0, 1L << (c - 64), false, false);
+        }
+
+        static CharSet range(char from, char to) {
+            CharSet result = NONE;
+            for (int c = from; c <= Math.min(to, 127); c++) {
+                result = result.union(of((char) c));
+            }
+            if (to < 128) {
+                return result;
+            }
+            boolean all = from <= 128 && to == Character.MAX_VALUE;
+            return result.union(new CharSet(0, 0, true, all));
+        }
+
+        CharSet union(CharSet other) {
+            return new CharSet(low | other.low, high | other.high, nonAscii || other.nonAscii,
+                allNonAscii || other.allNonAscii);
+        }
+
+        CharSet intersect(CharSet other) {
+            return new CharSet(low & other.low, high & other.high, nonAscii && other.nonAscii,
+                allNonAscii && other.allNonAscii);
+        }
+
+        // Removing some non-ASCII chars may leave others, so only removing all of them clears the bit.
+        CharSet minus(CharSet other) {
+            if (other.allNonAscii) {
+                return new CharSet(low & ~other.low, high & ~other.high, false, false);
+            }
+            return new CharSet(low & ~other.low, high & ~other.high, nonAscii, allNonAscii && !other.nonAscii);
+        }
+
+        CharSet caseInsensitive() {
+            CharSet result = this;
+            for (char c = 'a'; c <= 'z'; c++) {
+                char upper = Character.toUpperCase(c);
+                if (contains(c) || contains(upper)) {
+                    result = result.union(of(c)).union(of(upper));
+                }
+            }
+            return result;
+        }
+
+        boolean contains(char c) {
+            if (c >= 128) {
+                return nonAscii;
+            }
+            return c < 64 ? (low & (1L << c)) != 0 : (high & (1L << (c - 64))) != 0;
+        }
+
+        boolean intersects(CharSet other) {
+            return !intersect(other).isEmpty();
+        }
+
+        boolean containsAll(CharSet other) {
+            return other.minus(this).isEmptyAscii() && (!other.nonAscii || allNonAscii);
+        }
+
+        boolean isEmpty() {
+            return isEmptyAscii() && !nonAscii;
+        }
+
+        private boolean isEmptyAscii() {
+            return low == 0 && high == 0;
+        }
+    }
+}
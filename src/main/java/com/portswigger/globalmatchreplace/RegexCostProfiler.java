@@ -0,0 +1,328 @@
+package com.portswigger.globalmatchreplace;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Measures how a rule's pattern scales: the pattern is run (find loop, as replaceAll does) over
+// generated inputs of growing size, counting every char the matcher reads. Linear patterns read a
+// few chars per input char; nested quantifiers and unanchored .* rules read far more as inputs grow.
+final class RegexCostProfiler {
+    // Reads allowed per measurement; reaching it means the pattern is already far from linear.
+    private static final long MAX_STEPS = 5_000_000;
+    // Screening sizes (chars) used to pick the worst input shape before measuring its full curve.
+    private static final int SCREEN_SMALL = 64;
+    private static final int SCREEN_LARGE = 256;
+    private static final int[] CURVE_SIZES = {8, 16, 32, 64, 128, 256, 512, 1024, 2048, 4096};
+    // Curve points below this size are dominated by constant per-find overhead and are not fitted.
+    private static final int MIN_FIT_SIZE = 64;
+    // A fitted exponent at or above this is reported; linear patterns fit at about 1.0.
+    private static final double SUPER_LINEAR_EXPONENT = 1.5;
+    // Reaching MAX_STEPS by this size means cost doubles with a few extra chars, not with input size.
+    private static final int EXPONENTIAL_SIZE = 128;
+    private static final int MAX_ALPHABET = 12;
+    private static final int MAX_PAIR_CHARS = 6;
+    private static final int MAX_PREFIX_PUMP = 16;
+    private static final String[] SUFFIXES = {"", "\u0001"};
+    private static final char[] DEFAULT_CHARS = {'a', '0', ' ', 'x', '=', '"', '<', '\t', '\n'};
+    private static final String META = "\\^$.|?*+()[]{}";
+
+    private RegexCostProfiler() {
+    }
+
+    enum Growth {
+        POLYNOMIAL,
+        EXPONENTIAL
+    }
+
+    // example is the input shape at a size that still completed; steps is what the matcher read on it.
+    record Finding(Growth growth, double exponent, String example, String exampleDescription, long steps) {
+        String describe() {
+            String rate = growth == Growth.EXPONENTIAL
+                ? "grows exponentially with input size (catastrophic backtracking)"
+                : String.format("grows like n^%.1f with input size n", exponent);
+            return "Matching cost " + rate + ". Example input: " + exampleDescription
+                + " (" + example.length() + " chars, " + String.format("%,d", steps) + " chars read by the matcher).";
+        }
+    }
+
+    // Null when the rule is a plain literal or its pattern scales linearly on every generated input.
+    // Matching stops with DeadlineExceededException once deadlineNanos passes.
+    static Finding profile(Rule rule, long deadlineNanos) {
+        Pattern pattern;
+        try {
+            if (rule.getMatchType() == Rule.MatchType.REGEX) {
+                pattern = rule.compileRegexPattern();
+            } else if (rule.hasWildcards()) {
+                pattern = rule.compileSimplePattern();
+            } else {
+                return null;
+            }
+        } catch (RuntimeException ex) {
+            return null;
+        }
+        return profile(pattern, deadlineNanos);
+    }
+
+    static Finding profile(Pattern pattern, long deadlineNanos) {
+        Shape worst = null;
+        double worstRatio = 0;
+        for (Shape shape : shapes(pattern.pattern())) {
+            long small = steps(pattern, shape.build(SCREEN_SMALL), deadlineNanos);
+            long large = small >= MAX_STEPS ? MAX_STEPS : steps(pattern, shape.build(SCREEN_LARGE), deadlineNanos);
+            // A shape that hits the limit on the small input outranks any ratio.
+            double ratio = small >= MAX_STEPS ? Double.MAX_VALUE : (double) large / Math.max(1, small);
+            if (ratio > worstRatio) {
+                worstRatio = ratio;
+                worst = shape;
+            }
+        }
+        if (worst == null) {
+            return null;
+        }
+        return fit(pattern, worst, deadlineNanos);
+    }
+
+    private static Finding fit(Pattern pattern, Shape shape, long deadlineNanos) {
+        List<double[]> points = new ArrayList<>();
+        String lastInput = null;
+        long lastSteps = 0;
+        int cappedAt = -1;
+        for (int size : CURVE_SIZES) {
+            String input = shape.build(size);
+            long steps = steps(pattern, input, deadlineNanos);
+            if (steps >= MAX_STEPS) {
+                cappedAt = size;
+                break;
+            }
+            lastInput = input;
+            lastSteps = steps;
+            if (size >= MIN_FIT_SIZE) {
+                points.add(new double[] {Math.log(input.length()), Math.log(Math.max(1, steps))});
+            }
+        }
+        if (cappedAt > 0 && cappedAt <= EXPONENTIAL_SIZE) {
+            String example = lastInput != null ? lastInput : shape.build(CURVE_SIZES[0]);
+            return new Finding(Growth.EXPONENTIAL, Double.NaN, example, shape.describe(example), lastSteps);
+        }
+        double exponent = slope(points);
+        // Hitting the limit at a larger size is still a sign of growth even if the fit is short.
+        if (cappedAt > 0 && points.size() < 2) {
+            exponent = Math.max(exponent, 2.0);
+        }
+        if (exponent < SUPER_LINEAR_EXPONENT || lastInput == null) {
+            return null;
+        }
+        return new Finding(Growth.POLYNOMIAL, exponent, lastInput, shape.describe(lastInput), lastSteps);
+    }
+
+    // Least-squares slope of log(steps) over log(size).
+    private static double slope(List<double[]> points) {
+        if (points.size() < 2) {
+            return 0;
+        }
+        double meanX = 0;
+        double meanY = 0;
+        for (double[] point : points) {
+            meanX += point[0];
+            meanY += point[1];
+        }
+        meanX /= points.size();
+        meanY /= points.size();
+        double covariance = 0;
+        double variance = 0;
+        for (double[] point : points) {
+            covariance += (point[0] - meanX) * (point[1] - meanY);
+            variance += (point[0] - meanX) * (point[0] - meanX);
+        }
+        return variance == 0 ? 0 : covariance / variance;
+    }
+
+    // Chars read by a full find loop, capped at MAX_STEPS.
+    private static long steps(Pattern pattern, String input, long deadlineNanos) {
+        StepCountingCharSequence counted = new StepCountingCharSequence(new DeadlineCharSequence(input, deadlineNanos));
+        Matcher matcher = pattern.matcher(counted);
+        try {
+            while (matcher.find()) {
+                // only the reads matter
+            }
+        } catch (StepLimitException | StackOverflowError ex) {
+            return MAX_STEPS;
+        }
+        return counted.steps;
+    }
+
+    // Input shapes are prefix + pump * k + suffix. Pumps are single chars and char pairs, taken from
+    // the pattern's own literals first so that nested quantifiers actually get to backtrack, plus the
+    // pattern's literal prefix.
+    private static List<Shape> shapes(String regex) {
+        Set<Character> alphabet = new LinkedHashSet<>();
+        collectLiterals(regex, alphabet);
+        for (char c : DEFAULT_CHARS) {
+            alphabet.add(c);
+        }
+        List<Character> chars = new ArrayList<>(alphabet).subList(0, Math.min(MAX_ALPHABET, alphabet.size()));
+        List<String> pumps = new ArrayList<>();
+        for (char c : chars) {
+            pumps.add(String.valueOf(c));
+        }
+        int pairChars = Math.min(MAX_PAIR_CHARS, chars.size());
+        for (int i = 0; i < pairChars; i++) {
+            for (int j = 0; j < pairChars; j++) {
+                if (i != j) {
+                    pumps.add("" + chars.get(i) + chars.get(j));
+                }
+            }
+        }
+        String literalPrefix = literalPrefix(regex);
+        // Repeating the fixed start makes every position a match attempt, exposing unanchored .* scans.
+        if (!literalPrefix.isEmpty() && literalPrefix.length() <= MAX_PREFIX_PUMP) {
+            pumps.add(literalPrefix);
+        }
+        Set<String> prefixes = new LinkedHashSet<>();
+        prefixes.add("");
+        prefixes.add(literalPrefix);
+        List<Shape> shapes = new ArrayList<>();
+        for (String prefix : prefixes) {
+            for (String pump : pumps) {
+                for (String suffix : SUFFIXES) {
+                    shapes.add(new Shape(prefix, pump, suffix));
+                }
+            }
+        }
+        return shapes;
+    }
+
+    // Chars the pattern matches literally, with common shorthand classes mapped to a sample char.
+    private static void collectLiterals(String regex, Set<Character> out) {
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\' && i + 1 < regex.length()) {
+                char escaped = regex.charAt(++i);
+                switch (escaped) {
+                    case 'd' -> out.add('0');
+                    case 'w' -> out.add('a');
+                    case 's' -> out.add(' ');
+                    case 'n' -> out.add('\n');
+                    case 't' -> out.add('\t');
+                    case 'r' -> out.add('\r');
+                    default -> {
+                        if (!Character.isLetterOrDigit(escaped)) {
+                            out.add(escaped);
+                        }
+                    }
+                }
+            } else if (META.indexOf(c) < 0 && c != '-' && c != ',' && c != '^') {
+                out.add(c);
+            }
+        }
+    }
+
+    // Leading text the pattern must match verbatim, so pumps reach the quantified part after it.
+    private static String literalPrefix(String regex) {
+        StringBuilder prefix = new StringBuilder();
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '^' && i == 0) {
+                continue;
+            }
+            if (c == '\\' && i + 1 < regex.length() && !Character.isLetterOrDigit(regex.charAt(i + 1))) {
+                prefix.append(regex.charAt(++i));
+                continue;
+            }
+            if (META.indexOf(c) >= 0) {
+                // A quantifier applies to the char before it, which is then not fixed text.
+                if ((c == '?' || c == '*' || c == '+' || c == '{') && prefix.length() > 0) {
+                    prefix.setLength(prefix.length() - 1);
+                }
+                break;
+            }
+            prefix.append(c);
+        }
+        return prefix.toString();
+    }
+
+    private record Shape(String prefix, String pump, String suffix) {
+        String build(int size) {
+            int repeats = Math.max(1, (size - prefix.length() - suffix.length()) / pump.length());
+            return prefix + pump.repeat(repeats) + suffix;
+        }
+
+        String describe(String input) {
+            int repeats = (input.length() - prefix.length() - suffix.length()) / pump.length();
+            StringBuilder description = new StringBuilder();
+            if (!prefix.isEmpty()) {
+                description.append(quote(prefix)).append(" then ");
+            }
+            description.append(quote(pump)).append(" repeated ").append(repeats).append(" times");
+            if (!suffix.isEmpty()) {
+                description.append(" then ").append(quote(suffix));
+            }
+            return description.toString();
+        }
+
+        private static String quote(String text) {
+            StringBuilder out = new StringBuilder("\"");
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                switch (c) {
+                    case '\n' -> out.append("\\n");
+                    case '\r' -> out.append("\\r");
+                    case '\t' -> out.append("\\t");
+                    case '"' -> out.append("\\\"");
+                    case '\\' -> out.append("\\\\");
+                    default -> {
+                        if (c < 0x20) {
+                            out.append(String.format("\\u%04x", (int) c));
+                        } else {
+                            out.append(c);
+                        }
+                    }
+                }
+            }
+            return out.append('"').toString();
+        }
+    }
+
+    // Counts every char the matcher reads and stops the match once MAX_STEPS is reached.
+    private static final class StepCountingCharSequence implements CharSequence {
+        private final CharSequence text;
+        private long steps;
+
+        StepCountingCharSequence(CharSequence text) {
+            this.text = text;
+        }
+
+        @Override
+        public int length() {
+            return text.length();
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (++steps >= MAX_STEPS) {
+                throw new StepLimitException();
+            }
+            return text.charAt(index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return text.subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return text.toString();
+        }
+    }
+
+    private static final class StepLimitException extends RuntimeException {
+        StepLimitException() {
+            super(null, null, false, false);
+        }
+    }
+}
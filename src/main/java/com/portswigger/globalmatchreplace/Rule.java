@@ -3,8 +3,10 @@ package com.portswigger.globalmatchreplace;
 import burp.api.montoya.core.ToolType;
 
 import java.util.EnumSet;
+import java.util.List;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
@@ -20,6 +22,10 @@ final class Rule {
         REGEX
     }
 
+    // Length of Long.MAX_VALUE in base 36.
+    private static final int MAX_ID_LENGTH = 13;
+
+    private String id;
     private boolean enabled;
     private Target target;
     private Set<ToolType> tools;
@@ -30,6 +36,11 @@ final class Rule {
     private boolean multiline;
 
     Rule(boolean enabled, Target target, Set<ToolType> tools, MatchType matchType, String match, String replace, String comment, boolean multiline) {
+        this(newId(), enabled, target, tools, matchType, match, replace, comment, multiline);
+    }
+
+    Rule(String id, boolean enabled, Target target, Set<ToolType> tools, MatchType matchType, String match, String replace, String comment, boolean multiline) {
+        this.id = id == null || id.isEmpty() ? newId() : id;
         this.enabled = enabled;
         this.target = Objects.requireNonNull(target);
         this.tools = EnumSet.copyOf(tools);
@@ -46,9 +57,43 @@ final class Rule {
     }
 
     Rule copy() {
+        return new Rule(id, enabled, target, tools, matchType, match, replace, comment, multiline);
+    }
+
+    // Like copy(), but the result is a distinct rule with its own ID.
+    Rule duplicate() {
         return new Rule(enabled, target, tools, matchType, match, replace, comment, multiline);
     }
 
+    static String newId() {
+        // Short random ID; stable for the rule's lifetime and persisted with it.
+        return Long.toString(ThreadLocalRandom.current().nextLong() >>> 1, 36);
+    }
+
+    // True for IDs newId() can produce (base-36 digits of a non-negative long). Persistence and profiles
+    // store IDs in newline-joined lists, so IDs from outside (rule packs) are checked with this.
+    static boolean isValidId(String id) {
+        if (id == null || id.isEmpty() || id.length() > MAX_ID_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < id.length(); i++) {
+            char c = id.charAt(i);
+            if (!(c >= '0' && c <= '9') && !(c >= 'a' && c <= 'z')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    String getId() {
+        return id;
+    }
+
+    // Changes whenever anything shown in summary() changes, so diff history keeps the text it was made with.
+    int version() {
+        return Objects.hash(target, matchType, multiline, match, replace, comment);
+    }
+
     boolean isEnabled() {
         return enabled;
     }
@@ -144,31 +189,118 @@ final class Rule {
     }
 
     String apply(String input) {
+        return apply(input, null);
+    }
+
+    // Same as apply(input), also recording each replacement that changed the text (if replacements is non-null).
+    String apply(String input, List<EditSpans.Replacement> replacements) {
+        return apply(input, replacements, false, 0L);
+    }
+
+    // Same as apply(input, replacements), but pattern matching throws DeadlineExceededException once
+    // deadlineNanos (System.nanoTime) passes and CancellationException if the thread is interrupted.
+    String apply(String input, List<EditSpans.Replacement> replacements, long deadlineNanos) {
+        return apply(input, replacements, true, deadlineNanos);
+    }
+
+    // Same as apply(input, replacements), with pattern from compiledPattern(), so a rule applied to
+    // every message is compiled once rather than per message.
+    String apply(String input, Pattern pattern, List<EditSpans.Replacement> replacements) {
+        return apply(input, pattern, replacements, false, 0L);
+    }
+
+    private String apply(String input, List<EditSpans.Replacement> replacements, boolean bounded, long deadlineNanos) {
+        return apply(input, compiledPattern(), replacements, bounded, deadlineNanos);
+    }
+
+    private String apply(String input, Pattern pattern, List<EditSpans.Replacement> replacements, boolean bounded, long deadlineNanos) {
         if (input == null || input.isEmpty()) {
             return input;
         }
         if (match.isEmpty()) {
             return input;
         }
-        if (matchType == MatchType.SIMPLE) {
-            if (!hasWildcards(match)) {
-                return input.replace(match, replace);
-            }
-            try {
-                // Simple wildcard rules compile to regex; replacement is literal.
-                Pattern pattern = compileSimplePattern();
-                return pattern.matcher(input).replaceAll(Matcher.quoteReplacement(replace));
-            } catch (PatternSyntaxException ex) {
-                return input;
-            }
+        if (matchType == MatchType.SIMPLE && !hasWildcards(match)) {
+            return replaceLiteral(input, replacements);
+        }
+        if (pattern == null) {
+            // invalid pattern: the rule does nothing
+            return input;
+        }
+        // Simple wildcard rules compile to regex; replacement is literal.
+        String replacement = matchType == MatchType.SIMPLE ? Matcher.quoteReplacement(replace) : replace;
+        return replaceAll(pattern.matcher(matchInput(input, bounded, deadlineNanos)), input, replacement, replacements);
+    }
+
+    // The pattern apply() matches with, or null for literal rules, empty matches and patterns that
+    // do not compile. Regex rules respect multiline toggle (MULTILINE always, DOTALL optional).
+    Pattern compiledPattern() {
+        if (match.isEmpty() || (matchType == MatchType.SIMPLE && !hasWildcards(match))) {
+            return null;
         }
         try {
-            // Regex rules respect multiline toggle (MULTILINE always, DOTALL optional).
-            Pattern pattern = Pattern.compile(match, regexFlags());
-            return pattern.matcher(input).replaceAll(replace);
+            return matchType == MatchType.SIMPLE ? compileSimplePattern() : compileRegexPattern();
         } catch (PatternSyntaxException ex) {
+            return null;
+        }
+    }
+
+    // Live traffic matches the String directly; the wrapper costs a counter per char read.
+    private static CharSequence matchInput(String input, boolean bounded, long deadlineNanos) {
+        return bounded ? new DeadlineCharSequence(input, deadlineNanos) : input;
+    }
+
+    // Equivalent to String.replace(match, replace).
+    private String replaceLiteral(String input, List<EditSpans.Replacement> replacements) {
+        int found = input.indexOf(match);
+        if (found < 0) {
             return input;
         }
+        boolean identity = match.equals(replace);
+        StringBuilder out = new StringBuilder(input.length());
+        int last = 0;
+        while (found >= 0) {
+            out.append(input, last, found).append(replace);
+            last = found + match.length();
+            if (replacements != null && !identity) {
+                replacements.add(new EditSpans.Replacement(found, last, replace.length()));
+            }
+            found = input.indexOf(match, last);
+        }
+        out.append(input, last, input.length());
+        return out.toString();
+    }
+
+    // Equivalent to Matcher.replaceAll(replacement).
+    private static String replaceAll(Matcher matcher, String input, String replacement, List<EditSpans.Replacement> replacements) {
+        if (!matcher.find()) {
+            return input;
+        }
+        StringBuilder out = new StringBuilder(input.length());
+        int last = 0;
+        do {
+            int before = out.length() + (matcher.start() - last);
+            matcher.appendReplacement(out, replacement);
+            int length = out.length() - before;
+            // Replacements that reproduce the matched text are not edits.
+            if (replacements != null && !(length == matcher.end() - matcher.start()
+                && sameChars(out, before, input, matcher.start(), length))) {
+                replacements.add(new EditSpans.Replacement(matcher.start(), matcher.end(), length));
+            }
+            last = matcher.end();
+        } while (matcher.find());
+        matcher.appendTail(out);
+        return out.toString();
+    }
+
+    // Compares in place: this runs for every match, so it must not copy the replacement out.
+    private static boolean sameChars(StringBuilder out, int outStart, String input, int inputStart, int length) {
+        for (int i = 0; i < length; i++) {
+            if (out.charAt(outStart + i) != input.charAt(inputStart + i)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     String summary() {
@@ -0,0 +1,113 @@
+package com.portswigger.globalmatchreplace;
+
+import burp.api.montoya.MontoyaApi;
+
+import javax.swing.BorderFactory;
+import javax.swing.JDialog;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.ListSelectionModel;
+import javax.swing.SwingUtilities;
+import javax.swing.table.AbstractTableModel;
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.Window;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+// Non-modal list of RuleSetAnalyzer findings. It re-analyzes whenever the rules change while it is
+// open, so fixing a rule removes its finding; double-clicking a finding selects the rule.
+final class RuleAnalysisDialog extends JDialog {
+    private final RuleStore ruleStore;
+    private final FindingsModel model = new FindingsModel();
+    private final JLabel statusLabel = new JLabel(" ");
+
+    // selectRow receives the 0-based row of the rule in the Rules table.
+    RuleAnalysisDialog(Window owner, MontoyaApi api, RuleStore ruleStore, IntConsumer selectRow) {
+        super(owner, "Rule analysis", ModalityType.MODELESS);
+        this.ruleStore = ruleStore;
+
+        JPanel content = new JPanel(new BorderLayout(8, 8));
+        content.setBorder(BorderFactory.createEmptyBorder(12, 12, 12, 12));
+        JTable table = new JTable(model);
+        table.setRowHeight(22);
+        table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        table.setPreferredScrollableViewportSize(new Dimension(900, 260));
+        table.getColumnModel().getColumn(0).setPreferredWidth(50);
+        table.getColumnModel().getColumn(1).setPreferredWidth(170);
+        table.getColumnModel().getColumn(2).setPreferredWidth(680);
+        table.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int row = table.getSelectedRow();
+                if (e.getClickCount() == 2 && row >= 0) {
+                    selectRow.accept(model.findings.get(row).ruleNumber() - 1);
+                }
+            }
+        });
+        content.add(new JScrollPane(table), BorderLayout.CENTER);
+        content.add(statusLabel, BorderLayout.SOUTH);
+
+        // Keep dialog styling consistent with Burp theme.
+        setContentPane(content);
+        api.userInterface().applyThemeToComponent(this);
+        ruleStore.addListener(() -> SwingUtilities.invokeLater(() -> {
+            if (isVisible()) {
+                analyze();
+            }
+        }));
+        pack();
+        setLocationRelativeTo(owner);
+    }
+
+    void analyze() {
+        List<Rule> rules = ruleStore.snapshot();
+        List<RuleSetAnalyzer.Finding> findings = RuleSetAnalyzer.analyze(rules);
+        model.setFindings(findings);
+        long flaggedRules = findings.stream().mapToInt(RuleSetAnalyzer.Finding::ruleNumber).distinct().count();
+        statusLabel.setText(findings.isEmpty()
+            ? "No issues found in " + rules.size() + " rules."
+            : findings.size() + " finding(s) in " + flaggedRules + " of " + rules.size() + " rules. Double-click a finding to select its rule.");
+    }
+
+    private static final class FindingsModel extends AbstractTableModel {
+        private static final String[] COLUMN_NAMES = {"Rule", "Finding", "Detail"};
+
+        private List<RuleSetAnalyzer.Finding> findings = List.of();
+
+        void setFindings(List<RuleSetAnalyzer.Finding> findings) {
+            this.findings = findings;
+            fireTableDataChanged();
+        }
+
+        @Override
+        public int getRowCount() {
+            return findings.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMN_NAMES.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMN_NAMES[column];
+        }
+
+        @Override
+        public Object getValueAt(int rowIndex, int columnIndex) {
+            RuleSetAnalyzer.Finding finding = findings.get(rowIndex);
+            return switch (columnIndex) {
+                case 0 -> "#" + finding.ruleNumber();
+                case 1 -> finding.kind().displayName();
+                case 2 -> finding.detail();
+                default -> "";
+            };
+        }
+    }
+}
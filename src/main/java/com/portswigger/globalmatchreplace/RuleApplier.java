@@ -6,27 +6,27 @@ import java.util.ArrayList;
 import java.util.List;
 
 final class RuleApplier {
-    static RuleApplyResult apply(String message, boolean isRequest, ToolType toolType, List<Rule> rules) {
+    // The set is already filtered to enabled rules for this target, in profile order.
+    static RuleApplyResult apply(String message, boolean isRequest, ToolType toolType, CompiledRuleSet rules, RuleCatalog catalog) {
         String updated = message;
-        List<String> appliedSummaries = new ArrayList<>();
-        for (int i = 0; i < rules.size(); i++) {
-            Rule rule = rules.get(i);
-            if (!rule.isEnabled()) {
-                continue;
-            }
-            if (!rule.appliesTo(isRequest)) {
-                continue;
-            }
+        List<RuleCatalog.AppliedRule> appliedRules = new ArrayList<>();
+        // Exact replacement offsets, so diff tabs can highlight without re-diffing the texts.
+        EditSpans.Builder spans = new EditSpans.Builder();
+        List<EditSpans.Replacement> replacements = new ArrayList<>();
+        for (CompiledRuleSet.Entry entry : rules.rules(isRequest)) {
+            Rule rule = entry.rule();
             if (!rule.appliesToTool(toolType)) {
                 continue;
             }
             String before = updated;
-            updated = rule.apply(updated);
+            replacements.clear();
+            updated = rule.apply(updated, entry.pattern(), replacements);
             if (!updated.equals(before)) {
-                // Persist summary with rule index to aid debugging/history.
-                appliedSummaries.add("#" + (i + 1) + " " + rule.summary());
+                // Record a (rule ID, version, position) reference; summary text is built only for display.
+                appliedRules.add(catalog.intern(rule, entry.position()));
+                spans.apply(replacements, entry.position());
             }
         }
-        return new RuleApplyResult(updated, appliedSummaries);
+        return new RuleApplyResult(updated, appliedRules, spans.build());
     }
 }
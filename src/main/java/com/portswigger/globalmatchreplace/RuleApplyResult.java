@@ -2,5 +2,6 @@ package com.portswigger.globalmatchreplace;
 
 import java.util.List;
 
-// Result of applying a rule set: updated message + summaries for UI/diff display.
-record RuleApplyResult(String updated, List<String> appliedSummaries) {}
+// Result of applying a rule set: updated message, references to the rules that changed it,
+// and the exact spans each of them replaced.
+record RuleApplyResult(String updated, List<RuleCatalog.AppliedRule> appliedRules, EditSpans spans) {}
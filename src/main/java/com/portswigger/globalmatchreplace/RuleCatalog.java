@@ -0,0 +1,81 @@
+package com.portswigger.globalmatchreplace;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Interned snapshots of each rule version that changed a message. Diff records keep only
+// (rule ID, version, position) references; summary text is built when a GMR Diff tab shows them.
+final class RuleCatalog {
+    private static final String LEGACY_RULE_ID = "legacy";
+
+    private final ConcurrentHashMap<RuleVersion, Snapshot> versions = new ConcurrentHashMap<>();
+
+    // Hot path: a map probe per changed rule; the rule is copied only the first time a version is seen.
+    AppliedRule intern(Rule rule, int position) {
+        RuleVersion version = new RuleVersion(rule.getId(), rule.version());
+        versions.computeIfAbsent(version, key -> new Snapshot(rule.copy(), null));
+        return new AppliedRule(version, position);
+    }
+
+    // Restores a persisted version whose rule text is only available as a summary.
+    void restore(RuleVersion version, String summary) {
+        versions.putIfAbsent(version, new Snapshot(null, summary));
+    }
+
+    // Summaries persisted by older cache formats look like "#3 REQUEST SIMPLE match=...".
+    AppliedRule restoreLegacy(String summary) {
+        int position = 0;
+        String text = summary == null ? "" : summary;
+        int space = text.indexOf(' ');
+        if (text.startsWith("#") && space > 1) {
+            try {
+                position = Integer.parseInt(text.substring(1, space));
+                text = text.substring(space + 1);
+            } catch (NumberFormatException ignored) {
+                // not a positional prefix; keep the whole text
+            }
+        }
+        RuleVersion version = new RuleVersion(LEGACY_RULE_ID, text.hashCode());
+        restore(version, text);
+        return new AppliedRule(version, position);
+    }
+
+    String summary(RuleVersion version) {
+        Snapshot snapshot = versions.get(version);
+        return snapshot == null ? "rule " + version.ruleId() + " (no longer available)" : snapshot.summary();
+    }
+
+    List<String> summaries(List<AppliedRule> appliedRules) {
+        List<String> summaries = new ArrayList<>(appliedRules.size());
+        for (AppliedRule applied : appliedRules) {
+            String summary = summary(applied.version());
+            // Position is the rule's 1-based index in the rule list when it was applied.
+            summaries.add(applied.position() > 0 ? "#" + applied.position() + " " + summary : summary);
+        }
+        return summaries;
+    }
+
+    record RuleVersion(String ruleId, int version) {}
+
+    record AppliedRule(RuleVersion version, int position) {}
+
+    private static final class Snapshot {
+        private final Rule rule;
+        private volatile String summary;
+
+        Snapshot(Rule rule, String summary) {
+            this.rule = rule;
+            this.summary = summary;
+        }
+
+        String summary() {
+            String built = summary;
+            if (built == null) {
+                built = rule.summary();
+                summary = built;
+            }
+            return built;
+        }
+    }
+}
@@ -17,6 +17,7 @@ import javax.swing.JRadioButton;
 import javax.swing.JScrollPane;
 import javax.swing.JTextArea;
 import javax.swing.JTextField;
+import javax.swing.SwingUtilities;
 import java.awt.BorderLayout;
 import java.awt.Dimension;
 import java.awt.GridLayout;
@@ -25,8 +26,12 @@ import java.util.EnumMap;
 import java.util.EnumSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
 
 final class RuleDialog extends JDialog {
+    private static final long PROFILE_TIMEOUT_MS = 3000;
+
     private final JCheckBox enabledCheck;
     private final JRadioButton requestRadio;
     private final JRadioButton responseRadio;
@@ -38,6 +43,10 @@ final class RuleDialog extends JDialog {
     private final JTextArea commentField;
     private final JLabel validationLabel;
     private final Map<ToolType, JCheckBox> toolChecks;
+    private final String ruleId;
+    private final JButton saveButton;
+    // Pattern cost check started by Save; runs off the EDT since it can take about a second.
+    private Thread profiler;
     private Rule result;
 
     RuleDialog(Window owner, MontoyaApi api, Rule initial) {
@@ -53,6 +62,9 @@ final class RuleDialog extends JDialog {
         commentField = new JTextArea(3, 30);
         validationLabel = new JLabel(" ");
         toolChecks = new EnumMap<>(ToolType.class);
+        // Edits keep the rule's identity so diff history and persistence still refer to it.
+        ruleId = initial.getId();
+        saveButton = new JButton("Save");
 
         buildUi(api, initial);
         pack();
@@ -142,11 +154,10 @@ final class RuleDialog extends JDialog {
         content.add(form, BorderLayout.CENTER);
 
         JPanel buttons = new JPanel(new GridLayout(1, 2, 8, 0));
-        JButton save = new JButton("Save");
         JButton cancel = new JButton("Cancel");
-        save.addActionListener(event -> onSave());
+        saveButton.addActionListener(event -> onSave());
         cancel.addActionListener(event -> onCancel());
-        buttons.add(save);
+        buttons.add(saveButton);
         buttons.add(cancel);
         content.add(buttons, BorderLayout.SOUTH);
 
@@ -192,6 +203,7 @@ final class RuleDialog extends JDialog {
             }
         }
         Rule candidate = new Rule(
+            ruleId,
             enabledCheck.isSelected(),
             target,
             selectedTools,
@@ -212,11 +224,78 @@ final class RuleDialog extends JDialog {
                 return;
             }
         }
+        checkCost(candidate);
+    }
+
+    // Profiles regex and wildcard rules before saving, and asks before saving one whose matching cost
+    // grows faster than the input. Literal rules are always linear and save immediately.
+    private void checkCost(Rule candidate) {
+        if (candidate.getMatch().isEmpty()
+            || (candidate.getMatchType() == Rule.MatchType.SIMPLE && !candidate.hasWildcards())) {
+            accept(candidate);
+            return;
+        }
+        saveButton.setEnabled(false);
+        validationLabel.setText("Checking pattern cost...");
+        Thread thread = new Thread(() -> {
+            RegexCostProfiler.Finding finding;
+            boolean timedOut = false;
+            try {
+                finding = RegexCostProfiler.profile(candidate,
+                    System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(PROFILE_TIMEOUT_MS));
+            } catch (DeadlineCharSequence.DeadlineExceededException ex) {
+                finding = null;
+                timedOut = true;
+            } catch (CancellationException ex) {
+                // dialog cancelled
+                return;
+            }
+            Thread self = Thread.currentThread();
+            RegexCostProfiler.Finding result = finding;
+            boolean slow = timedOut;
+            SwingUtilities.invokeLater(() -> costChecked(self, candidate, result, slow));
+        }, "GMR-regex-profile");
+        thread.setDaemon(true);
+        profiler = thread;
+        thread.start();
+    }
+
+    private void costChecked(Thread thread, Rule candidate, RegexCostProfiler.Finding finding, boolean timedOut) {
+        // Ignore a check that finished after Cancel or after the dialog was closed.
+        if (profiler != thread || !isVisible()) {
+            return;
+        }
+        profiler = null;
+        saveButton.setEnabled(true);
+        validationLabel.setText(" ");
+        String warning = null;
+        if (timedOut) {
+            warning = "Profiling this pattern did not finish within " + PROFILE_TIMEOUT_MS
+                + " ms, so it is likely to be slow on large messages.";
+        } else if (finding != null) {
+            warning = finding.describe();
+        }
+        if (warning != null) {
+            validationLabel.setText("Pattern may be slow on large messages.");
+            int choice = JOptionPane.showConfirmDialog(this, warning + "\n\nThis rule runs on every matching message. Save anyway?",
+                "Slow pattern", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE);
+            if (choice != JOptionPane.YES_OPTION) {
+                return;
+            }
+        }
+        accept(candidate);
+    }
+
+    private void accept(Rule candidate) {
         result = candidate;
         setVisible(false);
     }
 
     private void onCancel() {
+        if (profiler != null) {
+            profiler.interrupt();
+            profiler = null;
+        }
         result = null;
         setVisible(false);
     }
@@ -0,0 +1,940 @@
+package com.portswigger.globalmatchreplace;
+
+import burp.api.montoya.core.ToolType;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.PatternSyntaxException;
+
+// Rule packs: files of rules for sharing, as JSON Lines (one object per line) or YAML (a sequence of
+// mappings, in the subset written by export). Both are read and written a record at a time; parsed
+// records are validated, including compiling their patterns, on a pool in chunks while reading goes on.
+final class RulePack {
+    // Records per validation task; small enough to spread a pack over the pool, large enough to be cheap.
+    private static final int CHUNK_SIZE = 256;
+
+    private static final String ID = "id";
+    private static final String ENABLED = "enabled";
+    private static final String TARGET = "target";
+    private static final String MATCH_TYPE = "matchType";
+    private static final String MATCH = "match";
+    private static final String REPLACE = "replace";
+    private static final String COMMENT = "comment";
+    private static final String TOOLS = "tools";
+    private static final String MULTILINE = "multiline";
+
+    private RulePack() {
+    }
+
+    enum Format {
+        JSON_LINES("JSON Lines", "jsonl", "json"),
+        YAML("YAML", "yaml", "yml");
+
+        private final String displayName;
+        private final String[] extensions;
+
+        Format(String displayName, String... extensions) {
+            this.displayName = displayName;
+            this.extensions = extensions;
+        }
+
+        String displayName() {
+            return displayName;
+        }
+
+        String[] extensions() {
+            return extensions.clone();
+        }
+
+        // Null when the file name has none of the known extensions.
+        static Format forFile(Path file) {
+            String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+            for (Format format : values()) {
+                for (String extension : format.extensions) {
+                    if (name.endsWith("." + extension)) {
+                        return format;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    // line is 1-based in the pack file.
+    record Problem(int line, String message) {
+        @Override
+        public String toString() {
+            return "Line " + line + ": " + message;
+        }
+    }
+
+    // rules are in file order; records is every rule record seen, valid or not.
+    record ImportResult(List<Rule> rules, List<Problem> problems, int records) {}
+
+    // Streams rules to file, replacing it. Returns the number of rules written.
+    static int write(List<Rule> rules, Path file, Format format) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            if (format == Format.YAML) {
+                writer.write("# Global Match/Replace rule pack\n");
+            }
+            StringBuilder record = new StringBuilder();
+            for (Rule rule : rules) {
+                record.setLength(0);
+                if (format == Format.YAML) {
+                    appendYaml(record, rule);
+                } else {
+                    appendJson(record, rule);
+                }
+                writer.write(record.toString());
+            }
+        }
+        return rules.size();
+    }
+
+    // Reads and validates a pack. Broken records are reported and left out; the rest keep file order.
+    static ImportResult read(Path file, Format format) throws IOException {
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "GMR-rule-import-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            List<Future<List<Converted>>> chunks = new ArrayList<>();
+            List<Problem> problems = new ArrayList<>();
+            List<Entry> chunk = new ArrayList<>(CHUNK_SIZE);
+            int records = 0;
+            RecordReader source = format == Format.YAML ? new YamlReader(reader) : new JsonLinesReader(reader);
+            Entry entry;
+            while ((entry = source.next()) != null) {
+                records++;
+                chunk.add(entry);
+                if (chunk.size() == CHUNK_SIZE) {
+                    List<Entry> full = chunk;
+                    chunks.add(pool.submit(() -> convertAll(full)));
+                    chunk = new ArrayList<>(CHUNK_SIZE);
+                }
+            }
+            if (!chunk.isEmpty()) {
+                List<Entry> last = chunk;
+                chunks.add(pool.submit(() -> convertAll(last)));
+            }
+            problems.addAll(source.problems());
+            List<Rule> rules = new ArrayList<>(records);
+            for (Future<List<Converted>> future : chunks) {
+                for (Converted converted : future.get()) {
+                    if (converted.rule() != null) {
+                        rules.add(converted.rule());
+                    } else {
+                        problems.add(converted.problem());
+                    }
+                }
+            }
+            // Syntax problems come from the reader and field problems from the pool; report in file order.
+            problems.sort((a, b) -> Integer.compare(a.line(), b.line()));
+            return new ImportResult(rules, problems, records);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import interrupted", ex);
+        } catch (ExecutionException ex) {
+            throw new IOException("Validation failed: " + ex.getCause(), ex.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private record Converted(Rule rule, Problem problem) {}
+
+    private static List<Converted> convertAll(List<Entry> entries) {
+        List<Converted> converted = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            try {
+                converted.add(new Converted(convert(entry), null));
+            } catch (InvalidRecordException ex) {
+                converted.add(new Converted(null, new Problem(ex.line, ex.getMessage())));
+            }
+        }
+        return converted;
+    }
+
+    private static Rule convert(Entry entry) {
+        if (entry.problem != null) {
+            throw new InvalidRecordException(entry.problem.line(), entry.problem.message());
+        }
+        Rule.Target target = enumField(entry, TARGET, Rule.Target.class);
+        Rule.MatchType matchType = enumField(entry, MATCH_TYPE, Rule.MatchType.class);
+        String match = stringField(entry, MATCH, null);
+        if (match == null) {
+            throw new InvalidRecordException(entry.line, "Missing \"" + MATCH + "\"");
+        }
+        // Any other ID gets a fresh one: a newline in it would corrupt the persisted rule order.
+        String id = stringField(entry, ID, null);
+        Rule rule = new Rule(
+            Rule.isValidId(id) ? id : null,
+            booleanField(entry, ENABLED, true),
+            target,
+            toolsField(entry),
+            matchType,
+            match,
+            stringField(entry, REPLACE, ""),
+            stringField(entry, COMMENT, ""),
+            booleanField(entry, MULTILINE, false)
+        );
+        try {
+            if (matchType == Rule.MatchType.REGEX) {
+                rule.compileRegexPattern();
+            } else if (rule.hasWildcards()) {
+                rule.compileSimplePattern();
+            }
+        } catch (PatternSyntaxException ex) {
+            throw new InvalidRecordException(entry.lineOf(MATCH), "Invalid pattern: " + ex.getDescription()
+                + (ex.getIndex() >= 0 ? " at index " + ex.getIndex() : ""));
+        }
+        return rule;
+    }
+
+    private static String stringField(Entry entry, String key, String fallback) {
+        Object value = entry.fields.get(key);
+        if (value == null) {
+            return fallback;
+        }
+        if (value instanceof String || value instanceof Boolean) {
+            return value.toString();
+        }
+        throw new InvalidRecordException(entry.lineOf(key), "\"" + key + "\" must be a string");
+    }
+
+    private static boolean booleanField(Entry entry, String key, boolean fallback) {
+        Object value = entry.fields.get(key);
+        if (value == null) {
+            return fallback;
+        }
+        if (value instanceof Boolean bool) {
+            return bool;
+        }
+        if (value instanceof String text) {
+            switch (text.toLowerCase(Locale.ROOT)) {
+                case "true", "yes", "on" -> {
+                    return true;
+                }
+                case "false", "no", "off" -> {
+                    return false;
+                }
+                default -> {
+                    // reported below
+                }
+            }
+        }
+        throw new InvalidRecordException(entry.lineOf(key), "\"" + key + "\" must be true or false");
+    }
+
+    private static <E extends Enum<E>> E enumField(Entry entry, String key, Class<E> type) {
+        String value = stringField(entry, key, null);
+        if (value == null) {
+            throw new InvalidRecordException(entry.line, "Missing \"" + key + "\"");
+        }
+        try {
+            return Enum.valueOf(type, value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException ex) {
+            throw new InvalidRecordException(entry.lineOf(key), "Unknown " + key + " \"" + value + "\"");
+        }
+    }
+
+    // A list of tool names, or one comma-separated string. Unknown names are errors rather than being
+    // dropped, since silently losing a tool would leave the rule not running where the pack intended.
+    private static Set<ToolType> toolsField(Entry entry) {
+        Object value = entry.fields.get(TOOLS);
+        List<?> names;
+        if (value == null) {
+            names = List.of();
+        } else if (value instanceof List<?> list) {
+            names = list;
+        } else if (value instanceof String text) {
+            names = text.isBlank() ? List.of() : List.of(text.split(","));
+        } else {
+            throw new InvalidRecordException(entry.lineOf(TOOLS), "\"" + TOOLS + "\" must be a list of tool names");
+        }
+        EnumSet<ToolType> tools = EnumSet.noneOf(ToolType.class);
+        for (Object name : names) {
+            try {
+                tools.add(ToolType.valueOf(String.valueOf(name).trim().toUpperCase(Locale.ROOT)));
+            } catch (IllegalArgumentException ex) {
+                throw new InvalidRecordException(entry.lineOf(TOOLS), "Unknown tool \"" + name + "\"");
+            }
+        }
+        return tools;
+    }
+
+    private static void appendJson(StringBuilder out, Rule rule) {
+        out.append('{');
+        appendJsonString(out.append('"').append(ID).append("\":"), rule.getId());
+        out.append(",\"").append(ENABLED).append("\":").append(rule.isEnabled());
+        out.append(",\"").append(TARGET).append("\":\"").append(rule.getTarget().name()).append('"');
+        out.append(",\"").append(MATCH_TYPE).append("\":\"").append(rule.getMatchType().name()).append('"');
+        appendJsonString(out.append(",\"").append(MATCH).append("\":"), rule.getMatch());
+        appendJsonString(out.append(",\"").append(REPLACE).append("\":"), rule.getReplace());
+        appendJsonString(out.append(",\"").append(COMMENT).append("\":"), rule.getComment());
+        out.append(",\"").append(TOOLS).append("\":[");
+        boolean first = true;
+        for (ToolType tool : rule.getTools()) {
+            out.append(first ? "\"" : ",\"").append(tool.name()).append('"');
+            first = false;
+        }
+        out.append("],\"").append(MULTILINE).append("\":").append(rule.isMultiline());
+        out.append("}\n");
+    }
+
+    // Strings are double-quoted with JSON escapes, which YAML reads the same way.
+    private static void appendYaml(StringBuilder out, Rule rule) {
+        appendJsonString(out.append("- ").append(ID).append(": "), rule.getId());
+        out.append("\n  ").append(ENABLED).append(": ").append(rule.isEnabled());
+        out.append("\n  ").append(TARGET).append(": ").append(rule.getTarget().name());
+        out.append("\n  ").append(MATCH_TYPE).append(": ").append(rule.getMatchType().name());
+        appendJsonString(out.append("\n  ").append(MATCH).append(": "), rule.getMatch());
+        appendJsonString(out.append("\n  ").append(REPLACE).append(": "), rule.getReplace());
+        appendJsonString(out.append("\n  ").append(COMMENT).append(": "), rule.getComment());
+        out.append("\n  ").append(TOOLS).append(": [");
+        boolean first = true;
+        for (ToolType tool : rule.getTools()) {
+            out.append(first ? "" : ", ").append(tool.name());
+            first = false;
+        }
+        out.append("]\n  ").append(MULTILINE).append(": ").append(rule.isMultiline()).append('\n');
+    }
+
+    private static void appendJsonString(StringBuilder out, String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> out.append("\\\"");
+                case '\\' -> out.append("\\\\");
+                case '\n' -> out.append("\\n");
+                case '\r' -> out.append("\\r");
+                case '\t' -> out.append("\\t");
+                default -> {
+                    // YAML also disallows raw DEL and the Unicode line separators in quoted scalars;
+                    // a lone surrogate has no UTF-8 form, so it only survives the file as an escape.
+                    if (c < 0x20 || c == 0x7f || c == '\u2028' || c == '\u2029' || isLoneSurrogate(value, i)) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+                }
+            }
+        }
+        out.append('"');
+    }
+
+    private static boolean isLoneSurrogate(String value, int index) {
+        char c = value.charAt(index);
+        if (Character.isHighSurrogate(c)) {
+            return index + 1 == value.length() || !Character.isLowSurrogate(value.charAt(index + 1));
+        }
+        return Character.isLowSurrogate(c) && (index == 0 || !Character.isHighSurrogate(value.charAt(index - 1)));
+    }
+
+    // One rule record: field values (String, Boolean, List or Map) and the line each came from.
+    // A record that could not be parsed carries the problem instead and fails conversion.
+    private static final class Entry {
+        private final int line;
+        private final Map<String, Object> fields = new LinkedHashMap<>();
+        private final Map<String, Integer> lines = new LinkedHashMap<>();
+        private Problem problem;
+
+        Entry(int line) {
+            this.line = line;
+        }
+
+        void put(String key, Object value, int valueLine) {
+            if (fields.containsKey(key)) {
+                fail(valueLine, "Duplicate key \"" + key + "\"");
+                return;
+            }
+            fields.put(key, value);
+            lines.put(key, valueLine);
+        }
+
+        void fail(int failLine, String message) {
+            // The first problem is the useful one; later ones tend to follow from it.
+            if (problem == null) {
+                problem = new Problem(failLine, message);
+            }
+        }
+
+        int lineOf(String key) {
+            return lines.getOrDefault(key, line);
+        }
+    }
+
+    private interface RecordReader {
+        // Null at end of input.
+        Entry next() throws IOException;
+
+        // Problems outside any record, such as stray lines.
+        List<Problem> problems();
+    }
+
+    // One JSON object per line; blank lines are skipped.
+    private static final class JsonLinesReader implements RecordReader {
+        private final BufferedReader reader;
+        private int lineNumber;
+
+        JsonLinesReader(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public Entry next() throws IOException {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (lineNumber == 1 && line.startsWith("\uFEFF")) {
+                    line = line.substring(1);
+                }
+                if (line.isBlank()) {
+                    continue;
+                }
+                Entry entry = new Entry(lineNumber);
+                try {
+                    JsonParser parser = new JsonParser(line);
+                    for (Map.Entry<String, Object> field : parser.parseDocument().entrySet()) {
+                        entry.put(field.getKey(), field.getValue(), lineNumber);
+                    }
+                } catch (InvalidRecordException ex) {
+                    entry.fail(lineNumber, ex.getMessage());
+                }
+                return entry;
+            }
+            return null;
+        }
+
+        @Override
+        public List<Problem> problems() {
+            return List.of();
+        }
+    }
+
+    private static final class JsonParser {
+        private final String text;
+        private int pos;
+
+        JsonParser(String text) {
+            this.text = text;
+        }
+
+        Map<String, Object> parseDocument() {
+            skipWhitespace();
+            if (peek() != '{') {
+                throw error("Expected a JSON object");
+            }
+            Map<String, Object> value = parseObject();
+            skipWhitespace();
+            if (pos < text.length()) {
+                throw error("Unexpected text after the object");
+            }
+            return value;
+        }
+
+        // Rule records are flat: the record object holds scalars and lists of scalars (depth 1), and lists
+        // hold only scalars (depth 2). Anything deeper is rejected before recursing, so a line of
+        // nested brackets cannot exhaust the stack.
+        private Object parseValue(int depth) {
+            skipWhitespace();
+            if (pos >= text.length()) {
+                throw error("Unexpected end of line");
+            }
+            char c = text.charAt(pos);
+            switch (c) {
+                case '{' -> throw error("Nested objects are not supported");
+                case '[' -> {
+                    if (depth != 1) {
+                        throw error("Nested lists are not supported");
+                    }
+                    return parseArray();
+                }
+                case '"' -> {
+                    return parseString();
+                }
+                default -> {
+                    if (text.startsWith("true", pos)) {
+                        pos += 4;
+                        return Boolean.TRUE;
+                    }
+                    if (text.startsWith("false", pos)) {
+                        pos += 5;
+                        return Boolean.FALSE;
+                    }
+                    if (text.startsWith("null", pos)) {
+                        pos += 4;
+                        return null;
+                    }
+                    if (c == '-' || (c >= '0' && c <= '9')) {
+                        return parseNumber();
+                    }
+                    throw error("Unexpected '" + c + "'");
+                }
+            }
+        }
+
+        private Map<String, Object> parseObject() {
+            Map<String, Object> object = new LinkedHashMap<>();
+            pos++;
+            skipWhitespace();
+            if (peek() == '}') {
+                pos++;
+                return object;
+            }
+            while (true) {
+                skipWhitespace();
+                if (peek() != '"') {
+                    throw error("Expected a quoted key");
+                }
+                String key = parseString();
+                skipWhitespace();
+                expect(':');
+                Object value = parseValue(1);
+                if (object.containsKey(key)) {
+                    throw error("Duplicate key \"" + key + "\"");
+                }
+                object.put(key, value);
+                skipWhitespace();
+                char c = peek();
+                pos++;
+                if (c == '}') {
+                    return object;
+                }
+                if (c != ',') {
+                    pos--;
+                    throw error("Expected ',' or '}'");
+                }
+            }
+        }
+
+        private List<Object> parseArray() {
+            List<Object> array = new ArrayList<>();
+            pos++;
+            skipWhitespace();
+            if (peek() == ']') {
+                pos++;
+                return array;
+            }
+            while (true) {
+                array.add(parseValue(2));
+                skipWhitespace();
+                char c = peek();
+                pos++;
+                if (c == ']') {
+                    return array;
+                }
+                if (c != ',') {
+                    pos--;
+                    throw error("Expected ',' or ']'");
+                }
+            }
+        }
+
+        private String parseString() {
+            StringBuilder out = new StringBuilder();
+            pos++;
+            while (pos < text.length()) {
+                char c = text.charAt(pos++);
+                if (c == '"') {
+                    return out.toString();
+                }
+                if (c != '\\') {
+                    out.append(c);
+                    continue;
+                }
+                if (pos >= text.length()) {
+                    break;
+                }
+                char escaped = text.charAt(pos++);
+                switch (escaped) {
+                    case '"', '\\', '/' -> out.append(escaped);
+                    case 'b' -> out.append('\b');
+                    case 'f' -> out.append('\f');
+                    case 'n' -> out.append('\n');
+                    case 'r' -> out.append('\r');
+                    case 't' -> out.append('\t');
+                    case 'u' -> {
+                        if (pos + 4 > text.length()) {
+                            throw error("Truncated \\u escape");
+                        }
+                        try {
+                            out.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        } catch (NumberFormatException ex) {
+                            throw error("Invalid \\u escape");
+                        }
+                        pos += 4;
+                    }
+                    default -> {
+                        pos--;
+                        throw error("Invalid escape '\\" + escaped + "'");
+                    }
+                }
+            }
+            throw error("Unterminated string");
+        }
+
+        // Kept as written, so a number where text is expected reads back unchanged.
+        private String parseNumber() {
+            int start = pos;
+            while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0) {
+                pos++;
+            }
+            try {
+                Double.parseDouble(text.substring(start, pos));
+                return text.substring(start, pos);
+            } catch (NumberFormatException ex) {
+                pos = start;
+                throw error("Invalid number");
+            }
+        }
+
+        private void expect(char c) {
+            if (peek() != c) {
+                throw error("Expected '" + c + "'");
+            }
+            pos++;
+        }
+
+        private char peek() {
+            return pos < text.length() ? text.charAt(pos) : '\0';
+        }
+
+        private void skipWhitespace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private InvalidRecordException error(String message) {
+            return new InvalidRecordException(0, message + " at column " + (pos + 1));
+        }
+    }
+
+    // Reads a YAML sequence of flat mappings. Values may be plain, single- or double-quoted scalars,
+    // flow lists ([a, b]), block lists (- a) and literal block scalars (| and |-). Anchors, nested
+    // mappings and multi-line quoted scalars are not supported and are reported as problems.
+    private static final class YamlReader implements RecordReader {
+        private final BufferedReader reader;
+        private final List<Problem> problems = new ArrayList<>();
+        private String pushedBack;
+        private int lineNumber;
+
+        YamlReader(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public List<Problem> problems() {
+            return problems;
+        }
+
+        @Override
+        public Entry next() throws IOException {
+            String line;
+            // Find the start of the next item; anything else at this level is a stray line.
+            while ((line = readLine()) != null) {
+                String trimmed = line.strip();
+                if (isIgnorable(trimmed) || trimmed.equals("---") || trimmed.equals("...")) {
+                    continue;
+                }
+                if (!trimmed.equals("-") && !trimmed.startsWith("- ")) {
+                    problems.add(new Problem(lineNumber, "Expected a rule item starting with '- '"));
+                    continue;
+                }
+                int itemIndent = indentOf(line);
+                Entry entry = new Entry(lineNumber);
+                int keyIndent = itemIndent + 2;
+                String rest = line.substring(itemIndent + 1);
+                if (!rest.isBlank()) {
+                    keyIndent = itemIndent + 1 + indentOf(rest);
+                    readField(entry, rest.strip(), keyIndent);
+                }
+                readFields(entry, itemIndent, keyIndent);
+                return entry;
+            }
+            return null;
+        }
+
+        private void readFields(Entry entry, int itemIndent, int keyIndent) throws IOException {
+            String line;
+            while ((line = readLine()) != null) {
+                String trimmed = line.strip();
+                if (isIgnorable(trimmed)) {
+                    continue;
+                }
+                int indent = indentOf(line);
+                if (indent <= itemIndent) {
+                    pushedBack = line;
+                    lineNumber--;
+                    return;
+                }
+                if (indent != keyIndent) {
+                    entry.fail(lineNumber, "Unexpected indentation");
+                    continue;
+                }
+                readField(entry, trimmed, keyIndent);
+            }
+        }
+
+        private void readField(Entry entry, String text, int keyIndent) throws IOException {
+            int fieldLine = lineNumber;
+            int colon = keyEnd(text);
+            if (colon < 0) {
+                entry.fail(fieldLine, "Expected 'key: value'");
+                return;
+            }
+            String key = text.substring(0, colon).strip();
+            String value = text.substring(colon + 1).strip();
+            try {
+                if (value.isEmpty() || value.startsWith("#")) {
+                    entry.put(key, readBlockList(keyIndent), fieldLine);
+                } else if (value.equals("|") || value.equals("|-")) {
+                    entry.put(key, readBlockScalar(keyIndent, value.equals("|")), fieldLine);
+                } else if (value.startsWith("[")) {
+                    entry.put(key, flowList(value), fieldLine);
+                } else {
+                    entry.put(key, scalar(value), fieldLine);
+                }
+            } catch (InvalidRecordException ex) {
+                entry.fail(fieldLine, ex.getMessage());
+            }
+        }
+
+        // "- value" lines under an empty key; null when there are none, as for "key:" alone.
+        private List<Object> readBlockList(int keyIndent) throws IOException {
+            List<Object> items = null;
+            String line;
+            while ((line = readLine()) != null) {
+                String trimmed = line.strip();
+                if (isIgnorable(trimmed)) {
+                    continue;
+                }
+                if (indentOf(line) < keyIndent || !(trimmed.equals("-") || trimmed.startsWith("- "))) {
+                    break;
+                }
+                if (items == null) {
+                    items = new ArrayList<>();
+                }
+                items.add(scalar(trimmed.substring(1).strip()));
+            }
+            if (line != null) {
+                pushedBack = line;
+                lineNumber--;
+            }
+            return items;
+        }
+
+        private String readBlockScalar(int keyIndent, boolean keepNewline) throws IOException {
+            StringBuilder out = new StringBuilder();
+            int blockIndent = -1;
+            int blankLines = 0;
+            String line;
+            while ((line = readLine()) != null) {
+                if (line.isBlank()) {
+                    blankLines++;
+                    continue;
+                }
+                int indent = indentOf(line);
+                if (indent <= keyIndent || (blockIndent >= 0 && indent < blockIndent)) {
+                    break;
+                }
+                if (blockIndent < 0) {
+                    blockIndent = indent;
+                } else {
+                    out.append('\n');
+                }
+                out.append("\n".repeat(blankLines)).append(line.substring(blockIndent));
+                blankLines = 0;
+            }
+            if (line != null) {
+                pushedBack = line;
+                lineNumber--;
+            }
+            if (keepNewline && out.length() > 0) {
+                out.append('\n');
+            }
+            return out.toString();
+        }
+
+        private static List<Object> flowList(String value) {
+            String body = stripComment(value);
+            if (!body.endsWith("]")) {
+                throw new InvalidRecordException(0, "Unterminated list");
+            }
+            List<Object> items = new ArrayList<>();
+            String inner = body.substring(1, body.length() - 1).strip();
+            if (inner.isEmpty()) {
+                return items;
+            }
+            // Tool names never contain commas, so a plain split is enough for this format.
+            for (String item : inner.split(",")) {
+                items.add(scalar(item.strip()));
+            }
+            return items;
+        }
+
+        private static Object scalar(String value) {
+            if (value.startsWith("\"")) {
+                return doubleQuoted(value);
+            }
+            if (value.startsWith("'")) {
+                return singleQuoted(value);
+            }
+            if (value.startsWith("&") || value.startsWith("*") || value.startsWith("!") || value.startsWith("{")
+                || value.startsWith(">")) {
+                throw new InvalidRecordException(0, "Unsupported YAML value \"" + value + "\"");
+            }
+            String plain = stripComment(value);
+            if (plain.equals("~") || plain.equals("null")) {
+                return null;
+            }
+            return plain;
+        }
+
+        private static String doubleQuoted(String value) {
+            StringBuilder out = new StringBuilder();
+            int i = 1;
+            while (i < value.length()) {
+                char c = value.charAt(i++);
+                if (c == '"') {
+                    if (!stripComment(value.substring(i)).isEmpty()) {
+                        throw new InvalidRecordException(0, "Unexpected text after quoted value");
+                    }
+                    return out.toString();
+                }
+                if (c != '\\') {
+                    out.append(c);
+                    continue;
+                }
+                if (i >= value.length()) {
+                    break;
+                }
+                char escaped = value.charAt(i++);
+                switch (escaped) {
+                    case '"', '\\', '/' -> out.append(escaped);
+                    case '0' -> out.append('\0');
+                    case 'a' -> out.append('\u0007');
+                    case 'b' -> out.append('\b');
+                    case 'e' -> out.append('\u001b');
+                    case 'f' -> out.append('\f');
+                    case 'n' -> out.append('\n');
+                    case 'r' -> out.append('\r');
+                    case 't' -> out.append('\t');
+                    case 'v' -> out.append('\u000b');
+                    case ' ' -> out.append(' ');
+                    case 'x', 'u' -> {
+                        int digits = escaped == 'x' ? 2 : 4;
+                        if (i + digits > value.length()) {
+                            throw new InvalidRecordException(0, "Truncated \\" + escaped + " escape");
+                        }
+                        try {
+                            out.append((char) Integer.parseInt(value.substring(i, i + digits), 16));
+                        } catch (NumberFormatException ex) {
+                            throw new InvalidRecordException(0, "Invalid \\" + escaped + " escape");
+                        }
+                        i += digits;
+                    }
+                    default -> throw new InvalidRecordException(0, "Invalid escape '\\" + escaped + "'");
+                }
+            }
+            throw new InvalidRecordException(0, "Unterminated quoted value (multi-line quoted values are not supported)");
+        }
+
+        private static String singleQuoted(String value) {
+            StringBuilder out = new StringBuilder();
+            int i = 1;
+            while (i < value.length()) {
+                char c = value.charAt(i++);
+                if (c != '\'') {
+                    out.append(c);
+                } else if (i < value.length() && value.charAt(i) == '\'') {
+                    out.append('\'');
+                    i++;
+                } else {
+                    if (!stripComment(value.substring(i)).isEmpty()) {
+                        throw new InvalidRecordException(0, "Unexpected text after quoted value");
+                    }
+                    return out.toString();
+                }
+            }
+            throw new InvalidRecordException(0, "Unterminated quoted value (multi-line quoted values are not supported)");
+        }
+
+        // A comment starts at '#' preceded by whitespace (or at the start).
+        private static String stripComment(String value) {
+            for (int i = 0; i < value.length(); i++) {
+                if (value.charAt(i) == '#' && (i == 0 || Character.isWhitespace(value.charAt(i - 1)))) {
+                    return value.substring(0, i).strip();
+                }
+            }
+            return value.strip();
+        }
+
+        // Index of the ':' ending a plain key, i.e. followed by a space or the end of the line.
+        private static int keyEnd(String text) {
+            for (int i = 0; i < text.length(); i++) {
+                if (text.charAt(i) == ':' && (i + 1 == text.length() || text.charAt(i + 1) == ' ')) {
+                    return i == 0 ? -1 : i;
+                }
+            }
+            return -1;
+        }
+
+        private static boolean isIgnorable(String trimmed) {
+            return trimmed.isEmpty() || trimmed.startsWith("#");
+        }
+
+        private static int indentOf(String line) {
+            int indent = 0;
+            while (indent < line.length() && line.charAt(indent) == ' ') {
+                indent++;
+            }
+            return indent;
+        }
+
+        private String readLine() throws IOException {
+            lineNumber++;
+            if (pushedBack != null) {
+                String line = pushedBack;
+                pushedBack = null;
+                return line;
+            }
+            String line = reader.readLine();
+            if (lineNumber == 1 && line != null && line.startsWith("\uFEFF")) {
+                line = line.substring(1);
+            }
+            return line;
+        }
+    }
+
+    // A record that cannot become a rule; line 0 means "the line being parsed", filled in by the caller.
+    private static final class InvalidRecordException extends RuntimeException {
+        private final int line;
+
+        InvalidRecordException(int line, String message) {
+            super(message, null, false, false);
+            this.line = line;
+        }
+    }
+}
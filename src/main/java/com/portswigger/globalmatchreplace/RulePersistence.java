@@ -8,15 +8,30 @@ import burp.api.montoya.persistence.Preferences;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 final class RulePersistence {
     private static final String ROOT_KEY = "global-match-replace";
     private static final String RULES_KEY = "rules";
     private static final String COUNT_KEY = "count";
+    // Newline-separated child keys in rule order; child objects are keyed by rule ID, not position.
+    private static final String ORDER_KEY = "order";
+    private static final String RULE_KEY_PREFIX = "id-";
+    // Changes are coalesced and written at most this long after the first unsaved one.
+    private static final long WRITE_DELAY_MS = 500;
 
+    private static final String ID_KEY = "id";
     private static final String ENABLED_KEY = "enabled";
     private static final String TARGET_KEY = "target";
     private static final String MATCH_TYPE_KEY = "matchType";
@@ -26,11 +41,30 @@ final class RulePersistence {
     private static final String TOOLS_KEY = "tools";
     private static final String MULTILINE_KEY = "multiline";
     private static final String PREFS_KEY = "global-match-replace.rules";
+    // Profiles are small and change rarely, so they are rewritten whole on every save.
+    private static final String PROFILES_KEY = "profiles";
+    private static final String ACTIVE_PROFILE_KEY = "active";
+    private static final String NAME_KEY = "name";
+    private static final String RULE_IDS_KEY = "ruleIds";
+    private static final String PROFILES_PREFS_KEY = "global-match-replace.profiles";
+    private static final String ACTIVE_PROFILE_PREFS_KEY = "global-match-replace.active-profile";
 
     private static volatile List<Rule> sessionCache = List.of();
 
     private final PersistedObject root;
     private final Preferences preferences;
+    // Latest version waiting to be written; the writer always takes the newest and skips older ones.
+    private final AtomicReference<RuleStore.Version> pending = new AtomicReference<>();
+    private final ScheduledExecutorService writer;
+    private final Object writeLock = new Object();
+    // What the persisted objects currently hold, so a write touches only rules that changed.
+    private final Map<String, Rule> written = new HashMap<>();
+    private List<String> writtenOrder = List.of();
+    private String writtenPreferences;
+    private long writtenVersion = -1;
+    // Set by load() when it had to assign rule IDs, which then exist only in memory until saved.
+    private boolean assignedIds;
+    private boolean writeScheduled;
 
     RulePersistence(MontoyaApi api) {
         PersistedObject extensionData = api.persistence().extensionData();
@@ -47,6 +81,11 @@ final class RulePersistence {
             this.root = child;
         }
         this.preferences = api.persistence().preferences();
+        this.writer = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "GMR-rule-persist");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     List<Rule> load() {
@@ -63,27 +102,100 @@ final class RulePersistence {
         if (rulesObject == null) {
             return sessionCache;
         }
-        Integer count = rulesObject.getInteger(COUNT_KEY);
-        if (count == null || count <= 0) {
-            return sessionCache;
-        }
-        List<Rule> rules = new ArrayList<>(count);
-        for (int i = 0; i < count; i++) {
-            PersistedObject ruleObject = rulesObject.getChildObject("rule-" + i);
-            if (ruleObject == null) {
-                continue;
-            }
-            Rule rule = readRule(ruleObject);
-            if (rule != null) {
-                rules.add(rule);
+        List<Rule> rules = new ArrayList<>();
+        String order = rulesObject.getString(ORDER_KEY);
+        synchronized (writeLock) {
+            if (order != null) {
+                for (String key : order.split("\\n")) {
+                    PersistedObject ruleObject = key.isEmpty() ? null : rulesObject.getChildObject(key);
+                    Rule rule = ruleObject == null ? null : readRule(ruleObject);
+                    if (rule != null) {
+                        rules.add(rule);
+                        // Loaded records are already current; the first save rewrites nothing for them.
+                        written.put(key, rule);
+                    }
+                }
+                writtenOrder = List.of(order.split("\\n"));
+            } else {
+                // Positional rule-<index> records from older versions; replaced by ID keys on the next save.
+                assignedIds = true;
+                Integer count = rulesObject.getInteger(COUNT_KEY);
+                for (int i = 0; count != null && i < count; i++) {
+                    PersistedObject ruleObject = rulesObject.getChildObject("rule-" + i);
+                    Rule rule = ruleObject == null ? null : readRule(ruleObject);
+                    if (rule != null) {
+                        rules.add(rule);
+                    }
+                }
             }
         }
+        if (rules.isEmpty()) {
+            return sessionCache;
+        }
         sessionCache = List.copyOf(rules);
         return rules;
     }
 
+    // True when the last load() gave rules new IDs (legacy records without IDs, or the positional
+    // layout). Those must be saved right away: profiles and diff history refer to rules by ID, and an
+    // unsaved ID would be replaced by a different random one on the next load.
+    boolean needsIdMigration() {
+        return assignedIds;
+    }
+
+    // Writes now, on the calling thread. Used at startup; rule edits go through saveLater.
     void save(List<Rule> rules) {
         sessionCache = List.copyOf(rules);
+        synchronized (writeLock) {
+            write(rules);
+        }
+    }
+
+    // Queues a version for the background writer. Bursts of changes (typing in the table, a batch
+    // import) collapse into one write of the newest version.
+    void saveLater(RuleStore.Version version) {
+        sessionCache = version.rules();
+        pending.set(version);
+        synchronized (this) {
+            if (writeScheduled) {
+                return;
+            }
+            writeScheduled = true;
+        }
+        try {
+            writer.schedule(this::writePending, WRITE_DELAY_MS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ex) {
+            // writer already shut down on unload; write directly so the change is not lost
+            writePending();
+        }
+    }
+
+    // Writes any queued version on the calling thread and stops the writer; called on unload.
+    void flush() {
+        writer.shutdown();
+        writePending();
+    }
+
+    private void writePending() {
+        synchronized (this) {
+            writeScheduled = false;
+        }
+        RuleStore.Version version = pending.getAndSet(null);
+        if (version == null) {
+            return;
+        }
+        synchronized (writeLock) {
+            // A flush racing the scheduled write may find an older version; never write backwards.
+            if (version.number() <= writtenVersion) {
+                return;
+            }
+            writtenVersion = version.number();
+            write(version.rules());
+        }
+    }
+
+    // Caller holds writeLock.
+    private void write(List<Rule> rules) {
         if (root == null) {
             saveToPreferences(rules);
             return;
@@ -93,21 +205,130 @@ final class RulePersistence {
             saveToPreferences(rules);
             return;
         }
-        // Replace entire rules subtree for simplicity and correctness.
+        List<String> order = new ArrayList<>(rules.size());
+        Set<String> keys = new HashSet<>();
+        for (Rule rule : rules) {
+            // IDs are unique in practice; a repeated one gets a suffix rather than overwriting a rule.
+            String key = RULE_KEY_PREFIX + rule.getId();
+            for (int n = 2; !keys.add(key); n++) {
+                key = RULE_KEY_PREFIX + rule.getId() + "#" + n;
+            }
+            order.add(key);
+            Rule previous = written.get(key);
+            if (previous != rule && !sameContent(previous, rule)) {
+                PersistedObject ruleObject = getOrCreateChild(rulesObject, key);
+                if (ruleObject == null) {
+                    saveToPreferences(rules);
+                    return;
+                }
+                writeRule(ruleObject, rule);
+                written.put(key, rule);
+            }
+        }
+        // Removed rules, and positional records left by older versions.
         for (String key : rulesObject.childObjectKeys()) {
-            rulesObject.deleteChildObject(key);
+            if (!keys.contains(key)) {
+                rulesObject.deleteChildObject(key);
+                written.remove(key);
+            }
+        }
+        if (!order.equals(writtenOrder)) {
+            rulesObject.setString(ORDER_KEY, String.join("\n", order));
+            writtenOrder = order;
         }
-        rulesObject.setInteger(COUNT_KEY, rules.size());
-        for (int i = 0; i < rules.size(); i++) {
-            PersistedObject ruleObject = getOrCreateChild(rulesObject, "rule-" + i);
-            if (ruleObject == null) {
-                saveToPreferences(rules);
+        if (rulesObject.getInteger(COUNT_KEY) != null) {
+            rulesObject.deleteInteger(COUNT_KEY);
+        }
+    }
+
+    private static boolean sameContent(Rule a, Rule b) {
+        if (a == null || b == null) {
+            return false;
+        }
+        return a.isEnabled() == b.isEnabled()
+            && a.getTarget() == b.getTarget()
+            && a.getMatchType() == b.getMatchType()
+            && a.isMultiline() == b.isMultiline()
+            && a.getId().equals(b.getId())
+            && a.getMatch().equals(b.getMatch())
+            && a.getReplace().equals(b.getReplace())
+            && Objects.equals(a.getComment(), b.getComment())
+            && a.getTools().equals(b.getTools());
+    }
+
+    List<RuleProfiles.Profile> loadProfiles() {
+        List<RuleProfiles.Profile> profiles = new ArrayList<>();
+        PersistedObject profilesObject = root == null ? null : root.getChildObject(PROFILES_KEY);
+        if (profilesObject != null) {
+            Integer count = profilesObject.getInteger(COUNT_KEY);
+            for (int i = 0; count != null && i < count; i++) {
+                PersistedObject profileObject = profilesObject.getChildObject("profile-" + i);
+                String name = profileObject == null ? null : profileObject.getString(NAME_KEY);
+                if (name != null) {
+                    profiles.add(new RuleProfiles.Profile(name, splitIds(profileObject.getString(RULE_IDS_KEY))));
+                }
+            }
+            return profiles;
+        }
+        String payload = preferences == null ? null : preferences.getString(PROFILES_PREFS_KEY);
+        if (payload != null) {
+            for (String line : payload.split("\\n")) {
+                String[] parts = line.split("\\|", -1);
+                if (parts.length == 2) {
+                    profiles.add(new RuleProfiles.Profile(decode(parts[0]), splitIds(decode(parts[1]))));
+                }
+            }
+        }
+        return profiles;
+    }
+
+    // Null when all rules are active.
+    String loadActiveProfile() {
+        PersistedObject profilesObject = root == null ? null : root.getChildObject(PROFILES_KEY);
+        if (profilesObject != null) {
+            return profilesObject.getString(ACTIVE_PROFILE_KEY);
+        }
+        String active = preferences == null ? null : preferences.getString(ACTIVE_PROFILE_PREFS_KEY);
+        return active == null || active.isEmpty() ? null : active;
+    }
+
+    void saveProfiles(List<RuleProfiles.Profile> profiles, String activeName) {
+        synchronized (writeLock) {
+            PersistedObject profilesObject = root == null ? null : getOrCreateChild(root, PROFILES_KEY);
+            if (profilesObject == null) {
+                if (preferences == null) {
+                    return;
+                }
+                StringBuilder builder = new StringBuilder();
+                for (RuleProfiles.Profile profile : profiles) {
+                    builder.append(encode(profile.name())).append('|').append(encode(String.join("\n", profile.ruleIds()))).append('\n');
+                }
+                preferences.setString(PROFILES_PREFS_KEY, builder.toString());
+                preferences.setString(ACTIVE_PROFILE_PREFS_KEY, activeName == null ? "" : activeName);
                 return;
             }
-            writeRule(ruleObject, rules.get(i));
+            for (String key : profilesObject.childObjectKeys()) {
+                profilesObject.deleteChildObject(key);
+            }
+            for (int i = 0; i < profiles.size(); i++) {
+                PersistedObject profileObject = PersistedObject.persistedObject();
+                profileObject.setString(NAME_KEY, profiles.get(i).name());
+                profileObject.setString(RULE_IDS_KEY, String.join("\n", profiles.get(i).ruleIds()));
+                profilesObject.setChildObject("profile-" + i, profileObject);
+            }
+            profilesObject.setInteger(COUNT_KEY, profiles.size());
+            if (activeName == null) {
+                profilesObject.deleteString(ACTIVE_PROFILE_KEY);
+            } else {
+                profilesObject.setString(ACTIVE_PROFILE_KEY, activeName);
+            }
         }
     }
 
+    private static List<String> splitIds(String ids) {
+        return ids == null || ids.isEmpty() ? List.of() : List.of(ids.split("\\n"));
+    }
+
     private Rule readRule(PersistedObject ruleObject) {
         Boolean enabled = ruleObject.getBoolean(ENABLED_KEY);
         String target = ruleObject.getString(TARGET_KEY);
@@ -121,7 +342,13 @@ final class RulePersistence {
             return null;
         }
         Set<ToolType> toolSet = parseTools(tools);
+        // Records saved before rule IDs existed get a fresh ID, persisted on the next save.
+        String id = ruleObject.getString(ID_KEY);
+        if (id == null || id.isEmpty()) {
+            assignedIds = true;
+        }
         return new Rule(
+            id,
             enabled != null && enabled,
             Rule.Target.valueOf(target),
             toolSet,
@@ -135,6 +362,7 @@ final class RulePersistence {
     }
 
     private void writeRule(PersistedObject ruleObject, Rule rule) {
+        ruleObject.setString(ID_KEY, rule.getId());
         ruleObject.setBoolean(ENABLED_KEY, rule.isEnabled());
         ruleObject.setString(TARGET_KEY, rule.getTarget().name());
         ruleObject.setString(MATCH_TYPE_KEY, rule.getMatchType().name());
@@ -189,9 +417,14 @@ final class RulePersistence {
                 .append('|').append(encode(rule.getComment()))
                 .append('|').append(encode(serializeTools(rule.getTools())))
                 .append('|').append(encode(Boolean.toString(rule.isMultiline())))
+                .append('|').append(encode(rule.getId()))
                 .append('\n');
         }
-        preferences.setString(PREFS_KEY, builder.toString());
+        String encoded = builder.toString();
+        if (!encoded.equals(writtenPreferences)) {
+            preferences.setString(PREFS_KEY, encoded);
+            writtenPreferences = encoded;
+        }
     }
 
     private List<Rule> loadFromPreferences() {
@@ -219,8 +452,12 @@ final class RulePersistence {
             String comment = decode(parts[5]);
             Set<ToolType> tools = parseTools(decode(parts[6]));
             boolean multiline = parts.length > 7 ? Boolean.parseBoolean(decode(parts[7])) : true;
+            String id = parts.length > 8 ? decode(parts[8]) : null;
+            if (id == null || id.isEmpty()) {
+                assignedIds = true;
+            }
             try {
-                rules.add(new Rule(enabled, Rule.Target.valueOf(target), tools, Rule.MatchType.valueOf(matchType), match, replace, comment, multiline));
+                rules.add(new Rule(id, enabled, Rule.Target.valueOf(target), tools, Rule.MatchType.valueOf(matchType), match, replace, comment, multiline));
             } catch (IllegalArgumentException ignored) {
                 // skip invalid
             }
@@ -0,0 +1,206 @@
+package com.portswigger.globalmatchreplace;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Named profiles, each an ordered subset of the rules (by rule ID), and the compiled rule set the
+// HTTP handler applies. Every profile is compiled in the background whenever rules or profiles
+// change, so switching to one usually just swaps a volatile reference. The handler reads that
+// reference once per message and never waits: messages already in flight finish with the set they
+// started with.
+final class RuleProfiles {
+    // Shown for "no profile" (all rules in table order); not allowed as a profile name.
+    static final String ALL_RULES = "All rules";
+
+    private final RuleStore ruleStore;
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+    private final ExecutorService compiler;
+    private final AtomicBoolean compileQueued = new AtomicBoolean();
+    private volatile CompiledRuleSet active;
+    // Guarded by this.
+    private List<Profile> profiles;
+    private Profile activeProfile;
+    private final Map<String, CompiledRuleSet> compiled = new HashMap<>();
+
+    // An ordered subset of rules. Rules still need their Enabled box ticked to run, so a rule can be
+    // switched off everywhere without editing every profile.
+    record Profile(String name, List<String> ruleIds) {
+        Profile {
+            Objects.requireNonNull(name);
+            // A rule listed twice would run twice; keep the first position.
+            ruleIds = List.copyOf(new LinkedHashSet<>(ruleIds));
+        }
+    }
+
+    // activeName null (or not among profiles) means all rules in table order.
+    RuleProfiles(RuleStore ruleStore, List<Profile> profiles, String activeName) {
+        this.ruleStore = ruleStore;
+        this.profiles = List.copyOf(profiles);
+        this.activeProfile = find(this.profiles, activeName);
+        this.compiler = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "GMR-profile-compile");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // The handler needs a set before the first message; later sets are built in the background.
+        this.active = CompiledRuleSet.compile(ruleStore.version(), activeProfile);
+        ruleStore.addListener(this::recompile);
+        recompile();
+    }
+
+    // The set to apply to the next message. Lock-free.
+    CompiledRuleSet active() {
+        return active;
+    }
+
+    synchronized List<Profile> profiles() {
+        return profiles;
+    }
+
+    // Null when all rules are active.
+    synchronized String activeName() {
+        return activeProfile == null ? null : activeProfile.name();
+    }
+
+    // Switches to the named profile (null for all rules). If its compiled set is current it is swapped
+    // in immediately; otherwise the current set stays in use until the compile finishes.
+    void activate(String name) {
+        synchronized (this) {
+            Profile profile = find(profiles, name);
+            if (Objects.equals(profile, activeProfile)) {
+                return;
+            }
+            activeProfile = profile;
+            CompiledRuleSet ready = compiled.get(key(profile));
+            if (isCurrent(ready, profile)) {
+                active = ready;
+            }
+        }
+        recompile();
+        notifyListeners();
+    }
+
+    // Replaces the profile list (from the profile editor); renames maps old names to new ones. An active
+    // profile that was renamed or edited stays active and is recompiled and swapped in when ready. Only
+    // when it was deleted does this fall back to all rules, and then it returns true.
+    boolean setProfiles(List<Profile> newProfiles, Map<String, String> renames) {
+        boolean activeDeleted;
+        synchronized (this) {
+            profiles = List.copyOf(newProfiles);
+            String activeName = activeProfile == null ? null : renames.getOrDefault(activeProfile.name(), activeProfile.name());
+            activeProfile = find(profiles, activeName);
+            activeDeleted = activeName != null && activeProfile == null;
+            List<String> keep = new ArrayList<>();
+            keep.add(key(null));
+            profiles.forEach(profile -> keep.add(key(profile)));
+            compiled.keySet().retainAll(keep);
+        }
+        recompile();
+        notifyListeners();
+        return activeDeleted;
+    }
+
+    // Runs after the active profile or the profile list changes (not when a compile finishes).
+    void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    void shutdown() {
+        compiler.shutdownNow();
+    }
+
+    // Coalesced: while a compile is queued, further changes are picked up by it.
+    private void recompile() {
+        if (!compileQueued.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            compiler.execute(this::compileAll);
+        } catch (RejectedExecutionException ex) {
+            // shut down on unload
+            compileQueued.set(false);
+        }
+    }
+
+    private void compileAll() {
+        compileQueued.set(false);
+        RuleStore.Version version = ruleStore.version();
+        Profile first;
+        List<Profile> all;
+        synchronized (this) {
+            first = activeProfile;
+            all = new ArrayList<>(profiles.size() + 1);
+            all.add(null);
+            all.addAll(profiles);
+        }
+        // The active profile first, so a rule edit reaches live traffic without waiting for the others.
+        all.remove(first);
+        all.add(0, first);
+        for (Profile profile : all) {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            CompiledRuleSet existing;
+            synchronized (this) {
+                existing = compiled.get(key(profile));
+            }
+            if (existing != null && existing.ruleVersion() == version.number() && Objects.equals(existing.profile(), profile)) {
+                publish(existing);
+                continue;
+            }
+            publish(CompiledRuleSet.compile(version, profile));
+        }
+    }
+
+    private synchronized void publish(CompiledRuleSet set) {
+        Profile profile = set.profile();
+        // The profile may have been edited or removed while compiling; the next compile covers that.
+        if (profile != null && !profiles.contains(profile)) {
+            return;
+        }
+        CompiledRuleSet previous = compiled.get(key(profile));
+        if (previous != null && previous.ruleVersion() > set.ruleVersion()) {
+            return;
+        }
+        compiled.put(key(profile), set);
+        if (Objects.equals(profile, activeProfile) && set.ruleVersion() >= active.ruleVersion()) {
+            active = set;
+        }
+    }
+
+    private boolean isCurrent(CompiledRuleSet set, Profile profile) {
+        return set != null && Objects.equals(set.profile(), profile) && set.ruleVersion() == ruleStore.version().number();
+    }
+
+    private void notifyListeners() {
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+    }
+
+    private static Profile find(List<Profile> profiles, String name) {
+        if (name == null) {
+            return null;
+        }
+        for (Profile profile : profiles) {
+            if (profile.name().equals(name)) {
+                return profile;
+            }
+        }
+        return null;
+    }
+
+    // Map key for a profile's compiled set; HashMap allows the null key used for all rules.
+    private static String key(Profile profile) {
+        return profile == null ? null : profile.name();
+    }
+}
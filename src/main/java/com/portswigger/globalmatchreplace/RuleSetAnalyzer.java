@@ -0,0 +1,378 @@
+package com.portswigger.globalmatchreplace;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+// Static checks over the whole rule list, for pruning rules that cost time on every message without
+// earning it: patterns prone to backtracking, rules that can never match or never change anything,
+// and literal rules whose matches an earlier rule has already rewritten. Nothing is executed.
+final class RuleSetAnalyzer {
+    private static final String RECREATE_NOTE = " Its output may still contain a match, e.g. where the replacement joins"
+        + " the text around it, so check before deleting.";
+
+    private RuleSetAnalyzer() {
+    }
+
+    enum Kind {
+        EXPONENTIAL_BACKTRACKING("Exponential backtracking"),
+        POLYNOMIAL_BACKTRACKING("Polynomial backtracking"),
+        NEVER_MATCHES("Never matches"),
+        NO_EFFECT("Never changes anything"),
+        DUPLICATE("Duplicate"),
+        SHADOWED("Shadowed"),
+        // The earlier rule's output might form its match again, so this rule could still change text.
+        LIKELY_DUPLICATE("Likely duplicate"),
+        LIKELY_SHADOWED("Likely shadowed");
+
+        private final String displayName;
+
+        Kind(String displayName) {
+            this.displayName = displayName;
+        }
+
+        String displayName() {
+            return displayName;
+        }
+    }
+
+    // ruleNumber is the 1-based row in the Rules table.
+    record Finding(int ruleNumber, Kind kind, String detail) {}
+
+    static List<Finding> analyze(List<Rule> rules) {
+        List<Finding> findings = new ArrayList<>();
+        for (int i = 0; i < rules.size(); i++) {
+            analyzeRule(rules, i, findings);
+        }
+        return findings;
+    }
+
+    private static void analyzeRule(List<Rule> rules, int index, List<Finding> findings) {
+        Rule rule = rules.get(index);
+        int number = index + 1;
+        if (rule.getMatch().isEmpty()) {
+            findings.add(new Finding(number, Kind.NEVER_MATCHES, "Match is empty."));
+            return;
+        }
+        if (rule.getTools().isEmpty()) {
+            findings.add(new Finding(number, Kind.NEVER_MATCHES, "No tools are selected, so the rule never runs."));
+        }
+        if (rule.getMatchType() == Rule.MatchType.SIMPLE && !rule.hasWildcards()) {
+            if (rule.getMatch().equals(rule.getReplace())) {
+                findings.add(new Finding(number, Kind.NO_EFFECT, "Replace is the same as Match."));
+            }
+        } else {
+            analyzePattern(rule, number, findings);
+        }
+        Finding earlier = earlierCover(rules, index);
+        if (earlier != null) {
+            findings.add(earlier);
+        }
+    }
+
+    private static void analyzePattern(Rule rule, int number, List<Finding> findings) {
+        Pattern pattern;
+        try {
+            pattern = rule.getMatchType() == Rule.MatchType.REGEX ? rule.compileRegexPattern() : rule.compileSimplePattern();
+        } catch (PatternSyntaxException ex) {
+            findings.add(new Finding(number, Kind.NEVER_MATCHES, "Pattern does not compile: " + ex.getDescription() + "."));
+            return;
+        }
+        RegexAst.Node ast;
+        try {
+            ast = RegexAst.parse(pattern.pattern(), pattern.flags());
+        } catch (RuntimeException ex) {
+            // Syntax the parser does not model; Pattern accepted it, so there is nothing to report.
+            return;
+        }
+        if (!RegexAst.canMatch(ast)) {
+            findings.add(new Finding(number, Kind.NEVER_MATCHES, "A required part of the pattern matches no character."));
+        }
+        if (rule.getMatchType() == Rule.MatchType.REGEX) {
+            String literal = RegexAst.literalText(ast);
+            String replace = rule.getReplace();
+            if (replace.equals("$0") || (literal != null && literal.equals(replace)
+                && replace.indexOf('$') < 0 && replace.indexOf('\\') < 0)) {
+                findings.add(new Finding(number, Kind.NO_EFFECT, "Every match is replaced with the same text."));
+            }
+        }
+        new BacktrackingCheck(number, findings).visit(ast);
+    }
+
+    // The first earlier rule that leaves this rule nothing to do: an identical match (with the same
+    // replacement, a duplicate), or for literal rules an earlier literal found inside this rule's match.
+    // Only enabled earlier rules with the same target and at least the same tools count, and only when
+    // no rule in between could write the text back. The finding is definite only when the earlier
+    // rule's output provably contains no match of its own; otherwise it is reported as likely.
+    private static Finding earlierCover(List<Rule> rules, int index) {
+        Rule rule = rules.get(index);
+        boolean literal = rule.getMatchType() == Rule.MatchType.SIMPLE && !rule.hasWildcards();
+        for (int i = 0; i < index; i++) {
+            Rule earlier = rules.get(i);
+            if (!earlier.isEnabled() || earlier.getTarget() != rule.getTarget() || earlier.getMatch().isEmpty()
+                || !earlier.getTools().containsAll(rule.getTools())) {
+                continue;
+            }
+            boolean earlierLiteral = earlier.getMatchType() == Rule.MatchType.SIMPLE && !earlier.hasWildcards();
+            boolean sameMatch = earlier.getMatchType() == rule.getMatchType() && earlier.isMultiline() == rule.isMultiline()
+                && earlier.getMatch().equals(rule.getMatch());
+            if (sameMatch && !reintroduces(earlier) && !rewrittenBetween(rules, i, index)) {
+                boolean certain = !canRecreate(earlier);
+                if (earlier.getReplace().equals(rule.getReplace())) {
+                    return new Finding(index + 1, certain ? Kind.DUPLICATE : Kind.LIKELY_DUPLICATE,
+                        "Same match and replacement as rule " + (i + 1) + "." + (certain ? "" : RECREATE_NOTE));
+                }
+                return new Finding(index + 1, certain ? Kind.SHADOWED : Kind.LIKELY_SHADOWED,
+                    "Rule " + (i + 1) + " has the same match and already replaces every occurrence." + (certain ? "" : RECREATE_NOTE));
+            }
+            if (literal && earlierLiteral && rule.getMatch().contains(earlier.getMatch())
+                && !earlier.getReplace().contains(earlier.getMatch())
+                && !rewrittenBetween(rules, i, index)) {
+                boolean certain = !canRecreate(earlier);
+                return new Finding(index + 1, certain ? Kind.SHADOWED : Kind.LIKELY_SHADOWED, "Every match contains \""
+                    + preview(earlier.getMatch()) + "\", which rule " + (i + 1) + " already replaces."
+                    + (certain ? "" : RECREATE_NOTE));
+            }
+        }
+        return null;
+    }
+
+    // Whether the text left after a rule replaces every match might contain a match again. Only plain
+    // text matches and replacements can be ruled out; anything else counts as possible.
+    private static boolean canRecreate(Rule rule) {
+        String match = literalMatch(rule);
+        String replace = literalReplacement(rule);
+        return match == null || replace == null || canRecreate(match, replace);
+    }
+
+    // Residual text between replacements holds no whole match (the scan would have found it), so a new
+    // match must include part of a replacement: the replacement itself contains the match, a proper
+    // prefix of the match ends the replacement (the rest coming from the following text), a proper suffix
+    // of the match starts it, or the match contains the whole replacement with text on either side.
+    // E.g. "ab" -> "a" turns "abb" into "ab".
+    private static boolean canRecreate(String match, String replace) {
+        if (replace.contains(match)) {
+            return true;
+        }
+        for (int k = 1; k < match.length() && k <= replace.length(); k++) {
+            if (replace.endsWith(match.substring(0, k)) || replace.startsWith(match.substring(match.length() - k))) {
+                return true;
+            }
+        }
+        // An empty replacement joins the text around it, which can form any match of two or more chars.
+        return match.length() > replace.length() && match.contains(replace) && (!replace.isEmpty() || match.length() > 1);
+    }
+
+    // The exact text a rule matches, or null if it is not a fixed string. Anchors and lookaround make
+    // a match depend on its surroundings, which a replacement can change, so they also give null.
+    private static String literalMatch(Rule rule) {
+        if (rule.getMatchType() == Rule.MatchType.SIMPLE) {
+            return rule.hasWildcards() ? null : rule.getMatch();
+        }
+        String regex = rule.getMatch();
+        if (regex.contains("^") || regex.contains("$") || regex.contains("(?=") || regex.contains("(?!")
+            || regex.contains("(?<") || regex.matches("(?s).*\\\\[bBAzZG].*")) {
+            return null;
+        }
+        try {
+            Pattern pattern = rule.compileRegexPattern();
+            return RegexAst.literalText(RegexAst.parse(pattern.pattern(), pattern.flags()));
+        } catch (RuntimeException ex) {
+            return null;
+        }
+    }
+
+    private static String literalReplacement(Rule rule) {
+        String replace = rule.getReplace();
+        if (rule.getMatchType() == Rule.MatchType.REGEX && (replace.contains("$") || replace.contains("\\"))) {
+            return null;
+        }
+        return replace;
+    }
+
+    // Whether a rule's replacement can itself be matched by the rule, so running it again may still
+    // change the text. Group references make the replacement unknown, so they count as a match.
+    private static boolean reintroduces(Rule rule) {
+        String replace = rule.getReplace();
+        if (rule.getMatchType() == Rule.MatchType.SIMPLE && !rule.hasWildcards()) {
+            return replace.contains(rule.getMatch());
+        }
+        if (rule.getMatchType() == Rule.MatchType.REGEX && (replace.contains("$") || replace.contains("\\"))) {
+            return true;
+        }
+        try {
+            Pattern pattern = rule.getMatchType() == Rule.MatchType.REGEX ? rule.compileRegexPattern() : rule.compileSimplePattern();
+            return pattern.matcher(replace).find();
+        } catch (PatternSyntaxException ex) {
+            return true;
+        }
+    }
+
+    // Whether an enabled rule between from and to (exclusive) could put the earlier rule's match back.
+    // For a pattern that is any rule on the same target, since its output could form a new match. For a
+    // fixed string it is any rule whose replacement can re-form it with the text around it (which includes
+    // rules that delete or shorten text, e.g. Q -> "" turns "abQc" into "abc"), and any regex or wildcard
+    // rule, whose varying matches are harder to reason about.
+    private static boolean rewrittenBetween(List<Rule> rules, int from, int to) {
+        Rule earlier = rules.get(from);
+        String match = literalMatch(earlier);
+        for (int i = from + 1; i < to; i++) {
+            Rule between = rules.get(i);
+            if (!between.isEnabled() || between.getMatch().isEmpty() || between.getTarget() != earlier.getTarget()) {
+                continue;
+            }
+            if (match == null || between.getMatchType() == Rule.MatchType.REGEX || between.hasWildcards()) {
+                return true;
+            }
+            String replace = literalReplacement(between);
+            if (replace == null || canRecreate(match, replace)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String preview(String text) {
+        String flat = text.replace("\r", "\\r").replace("\n", "\\n");
+        return flat.length() > 40 ? flat.substring(0, 37) + "..." : flat;
+    }
+
+    // Finds quantifier structures that let the engine split the same text in many ways, so a failing
+    // match retries all of them. Possessive repeats and atomic groups never retry and are skipped.
+    private static final class BacktrackingCheck {
+        private final int number;
+        private final List<Finding> findings;
+        private final Set<Kind> reported = EnumSet.noneOf(Kind.class);
+
+        BacktrackingCheck(int number, List<Finding> findings) {
+            this.number = number;
+            this.findings = findings;
+        }
+
+        void visit(RegexAst.Node node) {
+            switch (node) {
+                case RegexAst.Repeat repeat -> {
+                    // A bounded count like {12} still multiplies the splits, but only polynomially.
+                    if ((repeat.unbounded() || repeat.max() > 1) && !repeat.possessive()) {
+                        checkRepeatedBody(repeat.body(), repeat.unbounded() ? Kind.EXPONENTIAL_BACKTRACKING : Kind.POLYNOMIAL_BACKTRACKING);
+                    }
+                    visit(repeat.body());
+                }
+                case RegexAst.Sequence sequence -> {
+                    checkAdjacent(sequence.items());
+                    sequence.items().forEach(this::visit);
+                }
+                case RegexAst.Alternation alternation -> alternation.branches().forEach(this::visit);
+                case RegexAst.Group group -> visit(group.body());
+                default -> {
+                }
+            }
+        }
+
+        // (a+)+, (\w+\s?)*, (a|aa)+: one iteration's text can also be matched as several iterations.
+        private void checkRepeatedBody(RegexAst.Node body, Kind kind) {
+            RegexAst.Node inner = unwrap(body);
+            if (inner instanceof RegexAst.Group group && group.atomic()) {
+                return;
+            }
+            if (inner instanceof RegexAst.Alternation alternation) {
+                List<RegexAst.Node> branches = alternation.branches();
+                for (int i = 0; i < branches.size(); i++) {
+                    for (int j = i + 1; j < branches.size(); j++) {
+                        if (RegexAst.first(branches.get(i)).intersects(RegexAst.first(branches.get(j)))) {
+                            report(kind, "Alternatives inside a repeated group can start with the same character"
+                                + " (e.g. (a|ab)+), so the same text can be split between them in many ways.");
+                            return;
+                        }
+                    }
+                }
+                for (RegexAst.Node branch : branches) {
+                    checkNested(flatten(branch), kind);
+                }
+                return;
+            }
+            checkNested(flatten(inner), kind);
+        }
+
+        // An unbounded repeat inside the repeated body is ambiguous unless the rest of the body
+        // requires a character the inner repeat cannot consume (as the comma in (\d+,)* does).
+        private void checkNested(List<RegexAst.Node> items, Kind kind) {
+            for (int i = 0; i < items.size(); i++) {
+                if (!(items.get(i) instanceof RegexAst.Repeat inner) || !inner.unbounded() || inner.possessive()) {
+                    continue;
+                }
+                RegexAst.CharSet innerChars = RegexAst.chars(inner);
+                boolean separated = false;
+                for (int j = 0; j < items.size(); j++) {
+                    RegexAst.Node other = items.get(j);
+                    if (j != i && !RegexAst.nullable(other) && !RegexAst.chars(other).intersects(innerChars)) {
+                        separated = true;
+                        break;
+                    }
+                }
+                if (!separated) {
+                    report(kind, "A repeated group contains another unbounded quantifier over the same characters"
+                        + " (e.g. (a+)+ or (.*a){12}), so a failing match retries every way of splitting the text.");
+                    return;
+                }
+            }
+        }
+
+        // \w+\w+, .*x.*: two unbounded repeats that can both consume the text between them.
+        private void checkAdjacent(List<RegexAst.Node> sequence) {
+            List<RegexAst.Node> items = new ArrayList<>();
+            for (RegexAst.Node item : sequence) {
+                items.addAll(flatten(item));
+            }
+            for (int i = 0; i < items.size(); i++) {
+                if (!(items.get(i) instanceof RegexAst.Repeat left) || !left.unbounded() || left.possessive()) {
+                    continue;
+                }
+                RegexAst.CharSet leftChars = RegexAst.chars(left);
+                for (int j = i + 1; j < items.size(); j++) {
+                    RegexAst.Node next = items.get(j);
+                    if (next instanceof RegexAst.Repeat right && right.unbounded() && !right.possessive()
+                        && leftChars.intersects(RegexAst.chars(right))) {
+                        report(Kind.POLYNOMIAL_BACKTRACKING, "Unbounded quantifiers in sequence can share the same text (e.g. \\w+\\w+ or .*x.*),"
+                            + " so a failing match tries every split point.");
+                        return;
+                    }
+                    // Stop once something in between cannot be consumed by the left repeat.
+                    if (!RegexAst.nullable(next) && !leftChars.containsAll(RegexAst.chars(next))) {
+                        break;
+                    }
+                }
+            }
+        }
+
+        // One finding per kind and rule is enough to act on.
+        private void report(Kind kind, String detail) {
+            if (reported.add(kind)) {
+                findings.add(new Finding(number, kind, detail));
+            }
+        }
+
+        // Non-atomic groups do not change what can be matched, so they are looked through.
+        private static RegexAst.Node unwrap(RegexAst.Node node) {
+            while (node instanceof RegexAst.Group group && !group.atomic()) {
+                node = group.body();
+            }
+            return node;
+        }
+
+        private static List<RegexAst.Node> flatten(RegexAst.Node node) {
+            RegexAst.Node inner = unwrap(node);
+            if (inner instanceof RegexAst.Sequence sequence) {
+                List<RegexAst.Node> items = new ArrayList<>();
+                for (RegexAst.Node item : sequence.items()) {
+                    items.addAll(flatten(item));
+                }
+                return items;
+            }
+            return List.of(inner);
+        }
+    }
+}
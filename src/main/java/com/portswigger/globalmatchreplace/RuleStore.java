@@ -2,13 +2,32 @@ package com.portswigger.globalmatchreplace;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
+// Copy-on-write rule list. Every change publishes a new immutable Version through one volatile
+// write, so readers (the HTTP handler on every message, the UI) never take a lock. Writers are
+// serialized among themselves, and a batch of edits becomes one version and one notification.
 final class RuleStore {
-    private final List<Rule> rules = new ArrayList<>();
-    private final List<Runnable> listeners = new ArrayList<>();
+    private final Object writeLock = new Object();
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+    private volatile Version current = new Version(0, List.of(), false);
 
-    synchronized List<Rule> snapshot() {
+    // rules holds the store's own copies; they are never modified after publication.
+    record Version(long number, List<Rule> rules, boolean hasEnabledRules) {}
+
+    Version version() {
+        return current;
+    }
+
+    // The current rules without copying, for read-only callers such as the HTTP handler.
+    List<Rule> rules() {
+        return current.rules();
+    }
+
+    List<Rule> snapshot() {
         // Return copies to avoid external mutation of internal state.
+        List<Rule> rules = current.rules();
         List<Rule> copy = new ArrayList<>(rules.size());
         for (Rule rule : rules) {
             copy.add(rule.copy());
@@ -16,70 +35,113 @@ final class RuleStore {
         return copy;
     }
 
-    synchronized Rule get(int index) {
-        return rules.get(index).copy();
+    Rule get(int index) {
+        return current.rules().get(index).copy();
     }
 
-    synchronized int size() {
-        return rules.size();
+    int size() {
+        return current.rules().size();
+    }
+
+    boolean hasEnabledRules() {
+        return current.hasEnabledRules();
     }
 
     void add(Rule rule) {
-        synchronized (this) {
-            rules.add(rule.copy());
-        }
-        // Notify outside the synchronized block to avoid re-entrancy.
-        notifyListeners();
+        edit(batch -> batch.add(rule));
     }
 
     void update(int index, Rule rule) {
-        synchronized (this) {
-            rules.set(index, rule.copy());
-        }
-        // Notify outside the synchronized block to avoid re-entrancy.
-        notifyListeners();
+        edit(batch -> batch.set(index, rule));
     }
 
     void remove(int index) {
-        synchronized (this) {
-            rules.remove(index);
-        }
-        // Notify outside the synchronized block to avoid re-entrancy.
-        notifyListeners();
+        edit(batch -> batch.remove(index));
     }
 
     void setAll(List<Rule> newRules) {
-        synchronized (this) {
-            rules.clear();
-            for (Rule rule : newRules) {
-                rules.add(rule.copy());
-            }
-        }
-        // Notify outside the synchronized block to avoid re-entrancy.
-        notifyListeners();
+        edit(batch -> batch.setAll(newRules));
     }
 
-    synchronized boolean hasEnabledRules() {
-        for (Rule rule : rules) {
-            if (rule.isEnabled()) {
-                return true;
+    // Applies all edits to a private working copy and publishes it as one version. Listeners run once,
+    // after the swap and outside the write lock; nothing is published if edits throws or changes nothing.
+    void edit(Consumer<Batch> edits) {
+        boolean changed;
+        synchronized (writeLock) {
+            Batch batch = new Batch(current.rules());
+            edits.accept(batch);
+            changed = batch.changed;
+            if (changed) {
+                List<Rule> rules = List.copyOf(batch.working);
+                boolean anyEnabled = rules.stream().anyMatch(Rule::isEnabled);
+                current = new Version(current.number() + 1, rules, anyEnabled);
             }
         }
-        return false;
+        if (changed) {
+            notifyListeners();
+        }
     }
 
-    synchronized void addListener(Runnable listener) {
+    void addListener(Runnable listener) {
         listeners.add(listener);
     }
 
     private void notifyListeners() {
-        List<Runnable> snapshot;
-        synchronized (this) {
-            snapshot = List.copyOf(listeners);
-        }
-        // Iterate a snapshot to avoid concurrent modification during callbacks.
-        for (Runnable listener : snapshot) {
+        // CopyOnWriteArrayList iterates a snapshot, so listeners may add listeners.
+        for (Runnable listener : listeners) {
             listener.run();
         }
     }
+
+    // Mutable view used inside edit(); rules going in and coming out are copied, so the published
+    // versions stay immutable.
+    static final class Batch {
+        private final List<Rule> working;
+        private boolean changed;
+
+        private Batch(List<Rule> rules) {
+            this.working = new ArrayList<>(rules);
+        }
+
+        int size() {
+            return working.size();
+        }
+
+        Rule get(int index) {
+            return working.get(index).copy();
+        }
+
+        void add(Rule rule) {
+            working.add(rule.copy());
+            changed = true;
+        }
+
+        void set(int index, Rule rule) {
+            working.set(index, rule.copy());
+            changed = true;
+        }
+
+        void remove(int index) {
+            working.remove(index);
+            changed = true;
+        }
+
+        void setAll(List<Rule> rules) {
+            working.clear();
+            for (Rule rule : rules) {
+                working.add(rule.copy());
+            }
+            changed = true;
+        }
+
+        void setEnabled(int index, boolean enabled) {
+            if (working.get(index).isEnabled() == enabled) {
+                return;
+            }
+            Rule rule = working.get(index).copy();
+            rule.setEnabled(enabled);
+            working.set(index, rule);
+            changed = true;
+        }
+    }
 }
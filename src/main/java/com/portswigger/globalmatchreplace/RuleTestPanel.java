@@ -11,6 +11,9 @@ import javax.swing.JSplitPane;
 import javax.swing.JTextPane;
 import javax.swing.SwingUtilities;
 import javax.swing.SwingConstants;
+import javax.swing.Timer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.text.AttributeSet;
 import javax.swing.text.SimpleAttributeSet;
 import javax.swing.text.StyleConstants;
@@ -20,13 +23,31 @@ import java.awt.Color;
 import java.awt.Font;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Supplier;
 
 final class RuleTestPanel extends JPanel {
+    // Quiet period after the last edit before the rule is re-run.
+    private static final int DEBOUNCE_MS = 300;
+    private static final long TIMEOUT_MS = 2000;
+    // Highlights beyond this are not styled, so a pattern matching every character cannot stall the EDT.
+    private static final int MAX_STYLED_HIGHLIGHTS = 5000;
+
     private final JTextPane inputPane;
     private final JTextPane outputPane;
     private final JLabel statusLabel;
     private Supplier<Rule> ruleSupplier;
+    // Tests run on one background thread; a newer run supersedes (and interrupts) the previous one.
+    private final ExecutorService executor;
+    private final Timer debounce;
+    private final AtomicLong generation = new AtomicLong();
+    private Future<?> pending;
 
     RuleTestPanel(MontoyaApi api) {
         super(new BorderLayout(8, 8));
@@ -51,6 +72,32 @@ final class RuleTestPanel extends JPanel {
         header.add(new JLabel("Sample Input"), BorderLayout.WEST);
         header.add(new JLabel("Output"), BorderLayout.EAST);
 
+        executor = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "GMR-rule-test");
+            thread.setDaemon(true);
+            return thread;
+        });
+        api.extension().registerUnloadingHandler(executor::shutdownNow);
+        debounce = new Timer(DEBOUNCE_MS, event -> runTest());
+        debounce.setRepeats(false);
+        // Only text edits re-run the test; attribute changes from our own highlighting do not.
+        inputPane.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                scheduleTest();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                scheduleTest();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                // styling only
+            }
+        });
+
         JButton testButton = new JButton("Test Selected Rule");
         testButton.addActionListener(event -> runTest());
 
@@ -72,39 +119,126 @@ final class RuleTestPanel extends JPanel {
         this.ruleSupplier = ruleSupplier;
     }
 
+    // Called when the selected rule or its definition changes; must be called on the EDT.
+    void ruleChanged() {
+        scheduleTest();
+    }
+
+    private void scheduleTest() {
+        debounce.restart();
+    }
+
+    // Captures the rule and sample on the EDT, then matches on the worker thread.
     private void runTest() {
-        Rule rule = ruleSupplier == null ? null : ruleSupplier.get();
-        if (rule == null) {
+        debounce.stop();
+        long current = generation.incrementAndGet();
+        if (pending != null) {
+            pending.cancel(true);
+        }
+        Rule selected = ruleSupplier == null ? null : ruleSupplier.get();
+        if (selected == null) {
             statusLabel.setText("Select a rule to test.");
             return;
         }
+        Rule rule = selected.copy();
         String input = inputPane.getText();
-        // Rule test engine returns both updated text and highlight spans.
-        RuleTestResult result = RuleTestEngine.test(rule, input);
-        statusLabel.setText(result.message());
-        applyHighlights(inputPane, result.inputText(), result.inputHighlights());
-        applyHighlights(outputPane, result.outputText(), result.outputHighlights());
+        statusLabel.setText("Testing...");
+        try {
+            pending = executor.submit(() -> {
+                long start = System.nanoTime();
+                RuleTestResult result;
+                try {
+                    // Rule test engine returns both updated text and highlight spans.
+                    result = RuleTestEngine.test(rule, input, start + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MS));
+                } catch (DeadlineCharSequence.DeadlineExceededException ex) {
+                    showFailureLater(current, input, "Stopped after " + TIMEOUT_MS + " ms: the pattern takes too long on this sample"
+                        + " (likely catastrophic backtracking).");
+                    return;
+                } catch (CancellationException ex) {
+                    // superseded by a newer edit
+                    return;
+                } catch (StackOverflowError ex) {
+                    // Deeply recursive patterns (e.g. (a|aa)+ on a long run) overflow instead of timing out.
+                    showFailureLater(current, input, "Stopped: the pattern recurses too deeply on this sample"
+                        + " (e.g. a repeated alternation over a long run).");
+                    return;
+                } catch (RuntimeException ex) {
+                    showFailureLater(current, input, "Test failed: "
+                        + (ex.getMessage() == null ? ex.getClass().getSimpleName() : ex.getMessage()));
+                    return;
+                }
+                long elapsed = System.nanoTime() - start;
+                SwingUtilities.invokeLater(() -> {
+                    if (generation.get() == current) {
+                        showResult(result, elapsed);
+                    }
+                });
+            });
+        } catch (RejectedExecutionException ignored) {
+            // executor shut down on extension unload
+        }
     }
 
-    private void applyHighlights(JTextPane pane, String text, List<HighlightSegment> highlights) {
-        StyledDocument doc = pane.getStyledDocument();
+    private void showResult(RuleTestResult result, long elapsedNanos) {
+        String status = result.message() + " " + formatElapsed(elapsedNanos);
+        if (result.inputHighlights().size() > MAX_STYLED_HIGHLIGHTS || result.outputHighlights().size() > MAX_STYLED_HIGHLIGHTS) {
+            status += " (only the first " + MAX_STYLED_HIGHLIGHTS + " highlights are shown)";
+        }
+        statusLabel.setText(status);
+        // The sample keeps its text (the user may be typing in it); only its highlights are replaced.
+        styleHighlights(inputPane.getStyledDocument(), result.inputHighlights());
+        StyledDocument output = outputPane.getStyledDocument();
+        try {
+            output.remove(0, output.getLength());
+            output.insertString(0, result.outputText(), null);
+        } catch (Exception ex) {
+            // ignore rendering errors
+        }
+        styleHighlights(output, result.outputHighlights());
+    }
+
+    private void showFailureLater(long current, String input, String status) {
         SwingUtilities.invokeLater(() -> {
-            try {
-                doc.remove(0, doc.getLength());
-                doc.insertString(0, text, null);
-                for (HighlightSegment segment : highlights) {
-                    if (segment.length() == 0) {
-                        continue;
-                    }
-                    AttributeSet attrs = coloredBackground(segment.color());
-                    doc.setCharacterAttributes(segment.start(), segment.length(), attrs, false);
-                }
-            } catch (Exception ex) {
-                // ignore rendering errors
+            if (generation.get() == current) {
+                showFailure(input, status);
             }
         });
     }
 
+    // The sample is shown unchanged in the output, with no highlights.
+    private void showFailure(String input, String status) {
+        statusLabel.setText(status);
+        styleHighlights(inputPane.getStyledDocument(), List.of());
+        StyledDocument output = outputPane.getStyledDocument();
+        try {
+            output.remove(0, output.getLength());
+            output.insertString(0, input, null);
+        } catch (Exception ex) {
+            // ignore rendering errors
+        }
+    }
+
+    private void styleHighlights(StyledDocument doc, List<HighlightSegment> highlights) {
+        doc.setCharacterAttributes(0, doc.getLength(), SimpleAttributeSet.EMPTY, true);
+        int styled = 0;
+        for (HighlightSegment segment : highlights) {
+            if (segment.length() == 0 || segment.start() + segment.length() > doc.getLength()) {
+                continue;
+            }
+            if (++styled > MAX_STYLED_HIGHLIGHTS) {
+                break;
+            }
+            AttributeSet attrs = coloredBackground(segment.color());
+            doc.setCharacterAttributes(segment.start(), segment.length(), attrs, false);
+        }
+    }
+
+    private static String formatElapsed(long nanos) {
+        return nanos < 1_000_000L
+            ? String.format("(%d \u00b5s)", nanos / 1000)
+            : String.format("(%.1f ms)", nanos / 1_000_000.0);
+    }
+
     private AttributeSet coloredBackground(Color color) {
         SimpleAttributeSet attrs = new SimpleAttributeSet();
         StyleConstants.setBackground(attrs, color);
@@ -184,19 +318,20 @@ final class RuleTestPanel extends JPanel {
             new Color(178, 235, 242)
         };
 
-        static RuleTestResult test(Rule rule, String input) {
+        // Regex matching stops with DeadlineExceededException once deadlineNanos (System.nanoTime) passes.
+        static RuleTestResult test(Rule rule, String input, long deadlineNanos) {
             String safeInput = input == null ? "" : input;
             if (rule.getMatch().isEmpty()) {
                 return new RuleTestResult(safeInput, safeInput, new ArrayList<>(), new ArrayList<>(),
                     "Match is empty; no changes made.");
             }
             if (rule.getMatchType() == Rule.MatchType.SIMPLE) {
-                return testSimple(rule, safeInput);
+                return testSimple(rule, safeInput, deadlineNanos);
             }
-            return testRegex(rule, safeInput);
+            return testRegex(rule, safeInput, deadlineNanos);
         }
 
-        private static RuleTestResult testSimple(Rule rule, String input) {
+        private static RuleTestResult testSimple(Rule rule, String input, long deadlineNanos) {
             List<HighlightSegment> inputHighlights = new ArrayList<>();
             List<HighlightSegment> outputHighlights = new ArrayList<>();
             String match = rule.getMatch();
@@ -210,7 +345,7 @@ final class RuleTestPanel extends JPanel {
                 } catch (Exception ex) {
                     return new RuleTestResult(input, input, inputHighlights, outputHighlights, "Invalid wildcard pattern.");
                 }
-                java.util.regex.Matcher matcher = pattern.matcher(input);
+                java.util.regex.Matcher matcher = pattern.matcher(new DeadlineCharSequence(input, deadlineNanos));
                 StringBuilder output = new StringBuilder();
                 int last = 0;
                 int outPos = 0;
@@ -258,7 +393,7 @@ final class RuleTestPanel extends JPanel {
             return new RuleTestResult(input, output.toString(), inputHighlights, outputHighlights, message);
         }
 
-        private static RuleTestResult testRegex(Rule rule, String input) {
+        private static RuleTestResult testRegex(Rule rule, String input, long deadlineNanos) {
             List<HighlightSegment> inputHighlights = new ArrayList<>();
             List<HighlightSegment> outputHighlights = new ArrayList<>();
             if (!rule.hasValidPattern()) {
@@ -266,7 +401,7 @@ final class RuleTestPanel extends JPanel {
             }
             // Regex tests reuse the same flags as runtime application.
             java.util.regex.Pattern pattern = rule.compileRegexPattern();
-            java.util.regex.Matcher matcher = pattern.matcher(input);
+            java.util.regex.Matcher matcher = pattern.matcher(new DeadlineCharSequence(input, deadlineNanos));
             StringBuilder output = new StringBuilder();
 
             int last = 0;
@@ -3,34 +3,59 @@ package com.portswigger.globalmatchreplace;
 import burp.api.montoya.MontoyaApi;
 
 import javax.swing.BorderFactory;
+import javax.swing.DefaultComboBoxModel;
 import javax.swing.JButton;
+import javax.swing.JComboBox;
+import javax.swing.JFileChooser;
+import javax.swing.JLabel;
 import javax.swing.JOptionPane;
+import javax.swing.JMenuItem;
 import javax.swing.JPanel;
+import javax.swing.JPopupMenu;
 import javax.swing.JScrollPane;
 import javax.swing.JSplitPane;
 import javax.swing.JTable;
+import javax.swing.JTextArea;
 import javax.swing.ListSelectionModel;
 import javax.swing.SwingUtilities;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
+import javax.swing.filechooser.FileNameExtensionFilter;
 import java.awt.BorderLayout;
 import java.awt.Dimension;
+import java.awt.FlowLayout;
 import java.awt.Window;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 final class RulesPanel {
+    // Problems listed in the import report; the rest are only counted.
+    private static final int MAX_PROBLEMS_SHOWN = 500;
+
     private final MontoyaApi api;
     private final RuleStore ruleStore;
+    private final RuleProfiles profiles;
     private final JPanel panel;
     private final RuleTableModel tableModel;
     private final JTable table;
     private final RuleTestPanel testPanel;
+    private final DefaultComboBoxModel<String> profileModel = new DefaultComboBoxModel<>();
+    // Set while the combo is refilled, so that does not count as the user picking a profile.
+    private boolean updatingProfiles;
+    private DryRunDialog dryRunDialog;
+    private RuleAnalysisDialog analysisDialog;
     private int lastSelectedRow = -1;
 
-    RulesPanel(MontoyaApi api, RuleStore ruleStore) {
+    RulesPanel(MontoyaApi api, RuleStore ruleStore, RuleProfiles profiles) {
         this.api = api;
         this.ruleStore = ruleStore;
+        this.profiles = profiles;
         this.panel = new JPanel(new BorderLayout(8, 8));
         this.tableModel = new RuleTableModel(ruleStore);
         this.table = new JTable(tableModel);
@@ -50,6 +75,7 @@ final class RulesPanel {
                 if (!e.getValueIsAdjusting()) {
                     // Track selection to preserve row after edits.
                     lastSelectedRow = table.getSelectedRow();
+                    testPanel.ruleChanged();
                 }
             }
         });
@@ -63,8 +89,18 @@ final class RulesPanel {
             }
         });
 
+        JPopupMenu popup = new JPopupMenu();
+        JMenuItem enableAll = new JMenuItem("Enable all rules");
+        JMenuItem disableAll = new JMenuItem("Disable all rules");
+        enableAll.addActionListener(event -> setAllEnabled(true));
+        disableAll.addActionListener(event -> setAllEnabled(false));
+        popup.add(enableAll);
+        popup.add(disableAll);
+        table.setComponentPopupMenu(popup);
+
         JPanel top = new JPanel(new BorderLayout(8, 8));
         top.setBorder(BorderFactory.createTitledBorder("Rules"));
+        top.add(buildProfileBar(), BorderLayout.NORTH);
         top.add(new JScrollPane(table), BorderLayout.CENTER);
 
         JPanel buttons = new JPanel();
@@ -72,14 +108,26 @@ final class RulesPanel {
         JButton edit = new JButton("Edit");
         JButton duplicate = new JButton("Duplicate");
         JButton remove = new JButton("Remove");
+        JButton dryRun = new JButton("Dry run...");
+        JButton analyze = new JButton("Analyze");
+        JButton importPack = new JButton("Import...");
+        JButton exportPack = new JButton("Export...");
         add.addActionListener(event -> addRule());
         edit.addActionListener(event -> editRule());
         duplicate.addActionListener(event -> duplicateRule());
         remove.addActionListener(event -> removeRule());
+        dryRun.addActionListener(event -> showDryRun());
+        analyze.addActionListener(event -> showAnalysis());
+        importPack.addActionListener(event -> importRules());
+        exportPack.addActionListener(event -> exportRules());
         buttons.add(add);
         buttons.add(edit);
         buttons.add(duplicate);
         buttons.add(remove);
+        buttons.add(dryRun);
+        buttons.add(analyze);
+        buttons.add(importPack);
+        buttons.add(exportPack);
         top.add(buttons, BorderLayout.SOUTH);
 
         testPanel.setRuleSupplier(this::selectedRule);
@@ -90,8 +138,11 @@ final class RulesPanel {
         panel.add(split, BorderLayout.CENTER);
         api.userInterface().applyThemeToComponent(panel);
 
-        // Restore table selection after rule store updates.
-        ruleStore.addListener(() -> SwingUtilities.invokeLater(this::restoreSelection));
+        // Restore table selection after rule store updates, and re-test the (possibly edited) rule.
+        ruleStore.addListener(() -> SwingUtilities.invokeLater(() -> {
+            restoreSelection();
+            testPanel.ruleChanged();
+        }));
 
         table.getColumnModel().getColumn(0).setPreferredWidth(55);
         table.getColumnModel().getColumn(1).setPreferredWidth(80);
@@ -103,6 +154,58 @@ final class RulesPanel {
         table.getColumnModel().getColumn(7).setPreferredWidth(320);
     }
 
+    private JPanel buildProfileBar() {
+        JComboBox<String> profileCombo = new JComboBox<>(profileModel);
+        profileCombo.setPrototypeDisplayValue("XXXXXXXXXXXXXXXXXXXXXXXX");
+        profileCombo.addActionListener(event -> {
+            if (!updatingProfiles) {
+                String selected = (String) profileModel.getSelectedItem();
+                profiles.activate(RuleProfiles.ALL_RULES.equals(selected) ? null : selected);
+            }
+        });
+        JButton manage = new JButton("Manage profiles...");
+        manage.addActionListener(event -> manageProfiles());
+        JLabel hint = new JLabel("Enabled rules in the selected profile are applied, in the profile's order.");
+
+        JPanel bar = new JPanel(new FlowLayout(FlowLayout.LEFT, 8, 0));
+        bar.add(new JLabel("Active profile:"));
+        bar.add(profileCombo);
+        bar.add(manage);
+        bar.add(hint);
+        refreshProfiles();
+        // Switching can also come from another panel instance or from an edit that removed the profile.
+        profiles.addListener(() -> SwingUtilities.invokeLater(this::refreshProfiles));
+        return bar;
+    }
+
+    private void refreshProfiles() {
+        updatingProfiles = true;
+        try {
+            profileModel.removeAllElements();
+            profileModel.addElement(RuleProfiles.ALL_RULES);
+            for (RuleProfiles.Profile profile : profiles.profiles()) {
+                profileModel.addElement(profile.name());
+            }
+            String active = profiles.activeName();
+            profileModel.setSelectedItem(active == null ? RuleProfiles.ALL_RULES : active);
+        } finally {
+            updatingProfiles = false;
+        }
+    }
+
+    private void manageProfiles() {
+        ProfilesDialog dialog = new ProfilesDialog(ownerWindow(), api, ruleStore.rules(), profiles.profiles());
+        ProfilesDialog.Result result = dialog.showDialog();
+        if (result == null) {
+            return;
+        }
+        String previous = profiles.activeName();
+        if (profiles.setProfiles(result.profiles(), result.renames())) {
+            JOptionPane.showMessageDialog(panel, "The active profile \"" + previous + "\" was deleted. "
+                + RuleProfiles.ALL_RULES + " now applies: every enabled rule runs.", "Rule profiles", JOptionPane.WARNING_MESSAGE);
+        }
+    }
+
     private void addRule() {
         Rule rule = Rule.defaultRule();
         RuleDialog dialog = new RuleDialog(ownerWindow(), api, rule);
@@ -138,7 +241,7 @@ final class RulesPanel {
             JOptionPane.showMessageDialog(panel, "Select a rule to duplicate.");
             return;
         }
-        Rule copy = ruleStore.get(row).copy();
+        Rule copy = ruleStore.get(row).duplicate();
         // Duplicates are disabled to avoid accidental activation.
         copy.setEnabled(false);
         ruleStore.add(copy);
@@ -167,6 +270,175 @@ final class RulesPanel {
         }
     }
 
+    // One batch, so the whole toggle is a single version, notification and save.
+    private void setAllEnabled(boolean enabled) {
+        ruleStore.edit(batch -> {
+            for (int i = 0; i < batch.size(); i++) {
+                batch.setEnabled(i, enabled);
+            }
+        });
+    }
+
+    private void showDryRun() {
+        // One dialog per panel, kept between uses so the last report stays visible.
+        if (dryRunDialog == null) {
+            dryRunDialog = new DryRunDialog(ownerWindow(), api, ruleStore, this::selectedRule);
+        }
+        dryRunDialog.setVisible(true);
+        dryRunDialog.toFront();
+    }
+
+    private void showAnalysis() {
+        if (analysisDialog == null) {
+            analysisDialog = new RuleAnalysisDialog(ownerWindow(), api, ruleStore, this::selectRule);
+        }
+        analysisDialog.analyze();
+        analysisDialog.setVisible(true);
+        analysisDialog.toFront();
+    }
+
+    // Reading and validation run off the EDT; the rules are then added (or replace the table) in one batch.
+    private void importRules() {
+        JFileChooser chooser = packChooser();
+        if (chooser.showOpenDialog(panel) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        Path file = chooser.getSelectedFile().toPath();
+        RulePack.Format format = RulePack.Format.forFile(file);
+        if (format == null) {
+            JOptionPane.showMessageDialog(panel, "Unknown rule pack type. Use a .jsonl, .json, .yaml or .yml file.");
+            return;
+        }
+        Thread worker = new Thread(() -> {
+            try {
+                RulePack.ImportResult result = RulePack.read(file, format);
+                SwingUtilities.invokeLater(() -> finishImport(file, result));
+            } catch (IOException | RuntimeException ex) {
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(panel,
+                    "Could not read " + file.getFileName() + ": " + ex.getMessage(), "Import", JOptionPane.ERROR_MESSAGE));
+            }
+        }, "GMR-rule-import");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    private void finishImport(Path file, RulePack.ImportResult result) {
+        List<RulePack.Problem> problems = result.problems();
+        String summary = result.rules().size() + " of " + result.records() + " rules in " + file.getFileName() + " are valid.";
+        if (result.rules().isEmpty()) {
+            JOptionPane.showMessageDialog(panel, problemsView(summary + " Nothing to import.", problems), "Import",
+                JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+        Object[] options = {"Add to rules", "Replace all rules", "Cancel"};
+        Object message = problems.isEmpty() ? summary : problemsView(summary + " Invalid rules are skipped:", problems);
+        int choice = JOptionPane.showOptionDialog(panel, message, "Import", JOptionPane.DEFAULT_OPTION,
+            problems.isEmpty() ? JOptionPane.QUESTION_MESSAGE : JOptionPane.WARNING_MESSAGE, null, options, options[0]);
+        if (choice != 0 && choice != 1) {
+            return;
+        }
+        boolean replace = choice == 1;
+        int[] reassigned = new int[1];
+        ruleStore.edit(batch -> {
+            // Rule IDs key persistence and diff history, so a pack can never introduce a second rule
+            // with an ID already in the table or earlier in the pack.
+            Set<String> ids = new HashSet<>();
+            if (replace) {
+                batch.setAll(List.of());
+            } else {
+                for (Rule rule : ruleStore.rules()) {
+                    ids.add(rule.getId());
+                }
+            }
+            for (Rule rule : result.rules()) {
+                Rule unique = rule;
+                if (!ids.add(rule.getId())) {
+                    unique = rule.duplicate();
+                    ids.add(unique.getId());
+                    reassigned[0]++;
+                }
+                batch.add(unique);
+            }
+        });
+        if (reassigned[0] > 0) {
+            JOptionPane.showMessageDialog(panel, reassigned[0] + " imported rule(s) had an ID already in use and were given a new one.");
+        }
+    }
+
+    private static JScrollPane problemsView(String summary, List<RulePack.Problem> problems) {
+        StringBuilder text = new StringBuilder(summary).append('\n');
+        int shown = Math.min(problems.size(), MAX_PROBLEMS_SHOWN);
+        for (int i = 0; i < shown; i++) {
+            text.append('\n').append(problems.get(i));
+        }
+        if (problems.size() > shown) {
+            text.append("\n... and ").append(problems.size() - shown).append(" more");
+        }
+        JTextArea area = new JTextArea(text.toString(), Math.min(20, shown + 3), 80);
+        area.setEditable(false);
+        area.setCaretPosition(0);
+        return new JScrollPane(area);
+    }
+
+    private void exportRules() {
+        JFileChooser chooser = packChooser();
+        if (chooser.showSaveDialog(panel) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        Path chosen = chooser.getSelectedFile().toPath();
+        RulePack.Format format = RulePack.Format.forFile(chosen);
+        if (format == null) {
+            // No known extension: use the format picked in the chooser.
+            format = chooser.getFileFilter() instanceof FileNameExtensionFilter filter && filter.getExtensions()[0].equals("yaml")
+                ? RulePack.Format.YAML
+                : RulePack.Format.JSON_LINES;
+            chosen = chosen.resolveSibling(chosen.getFileName() + "." + format.extensions()[0]);
+        }
+        Path file = chosen;
+        if (Files.exists(file)) {
+            int choice = JOptionPane.showConfirmDialog(panel, file.getFileName() + " exists. Replace it?", "Export", JOptionPane.YES_NO_OPTION);
+            if (choice != JOptionPane.YES_OPTION) {
+                return;
+            }
+        }
+        // Published versions are immutable, so the writer can stream this list while editing continues.
+        List<Rule> rules = ruleStore.rules();
+        RulePack.Format fileFormat = format;
+        Thread worker = new Thread(() -> {
+            try {
+                int written = RulePack.write(rules, file, fileFormat);
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(panel,
+                    "Exported " + written + " rules to " + file.getFileName() + "."));
+            } catch (IOException | RuntimeException ex) {
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(panel,
+                    "Could not write " + file.getFileName() + ": " + ex.getMessage(), "Export", JOptionPane.ERROR_MESSAGE));
+            }
+        }, "GMR-rule-export");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    private JFileChooser packChooser() {
+        JFileChooser chooser = new JFileChooser();
+        for (RulePack.Format format : RulePack.Format.values()) {
+            String[] extensions = format.extensions();
+            chooser.addChoosableFileFilter(new FileNameExtensionFilter(
+                format.displayName() + " (*." + String.join(", *.", extensions) + ")", extensions));
+        }
+        chooser.setFileFilter(chooser.getChoosableFileFilters()[1]);
+        api.userInterface().applyThemeToComponent(chooser);
+        return chooser;
+    }
+
+    private void selectRule(int row) {
+        if (row < 0 || row >= ruleStore.size()) {
+            return;
+        }
+        lastSelectedRow = row;
+        restoreSelection();
+        table.scrollRectToVisible(table.getCellRect(row, 0, true));
+    }
+
     private Rule selectedRule() {
         int row = table.getSelectedRow();
         if (row < 0) {
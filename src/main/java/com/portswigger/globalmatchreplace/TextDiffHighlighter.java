@@ -1,184 +1,608 @@
 package com.portswigger.globalmatchreplace;
 
 import java.awt.Color;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.function.IntFunction;
 
 final class TextDiffHighlighter {
     static final Color DELETE_COLOR = new Color(255, 205, 210);
     static final Color INSERT_COLOR = new Color(200, 255, 200);
+    // Search steps (diagonal moves + snake slides) allowed before the remaining regions are diffed coarsely.
+    static final long DEFAULT_COST_LIMIT = 5_000_000L;
+    // Changed hunks larger than this (per side, after trimming shared ends) keep whole-line highlights.
+    static final int REFINE_MAX_CHARS = 256 * 1024;
+    // Search budget for refining a single hunk; over budget, the hunk keeps whole-line highlights.
+    private static final long REFINE_COST_LIMIT = 1_000_000L;
 
     static DiffResult diff(String original, String modified) {
+        return diff(original, modified, DiffAlgorithm.MYERS);
+    }
+
+    static DiffResult diff(String original, String modified, DiffAlgorithm algorithm) {
+        return diff(original, modified, algorithm, DEFAULT_COST_LIMIT);
+    }
+
+    static DiffResult diff(String original, String modified, DiffAlgorithm algorithm, long costLimit) {
         String a = original == null ? "" : original;
         String b = modified == null ? "" : modified;
         if (a.equals(b)) {
-            return new DiffResult(List.of(), List.of());
+            return new DiffResult(List.of(), List.of(), false);
         }
-        // Line-based diff keeps highlights stable and fast for large HTTP messages.
-        return diffByLines(a, b);
+        // Line-based diff keeps highlights stable and fast for large HTTP messages; hunks are refined afterwards.
+        return diffByLines(a, b, algorithm, costLimit);
     }
 
-    private static DiffResult diffByLines(String original, String modified) {
-        String[] aTokens = splitLines(original);
-        String[] bTokens = splitLines(modified);
+    private static DiffResult diffByLines(String original, String modified, DiffAlgorithm algorithm, long costLimit) {
+        // Skip the unchanged head and tail (whole lines only) before tokenizing, so a small edit
+        // in a large message never splits or hashes the untouched bulk of it.
+        int prefix = commonPrefixLines(original, modified);
+        int suffix = commonSuffixLines(original, modified, prefix);
+        Tokens aLines = Tokens.lines(original, prefix, original.length() - suffix);
+        Tokens bLines = Tokens.lines(modified, prefix, modified.length() - suffix);
+        int lineIds = intern(aLines, bLines);
 
-        // Myers diff on tokenized lines.
-        List<Edit> edits = myersDiff(aTokens, bTokens);
-        return buildHighlights(edits, aTokens, bTokens);
+        List<Edit> edits;
+        boolean approximate;
+        if (algorithm == DiffAlgorithm.HISTOGRAM) {
+            HistogramDiff histogram = new HistogramDiff(aLines.ids, bLines.ids, lineIds, costLimit);
+            edits = histogram.run();
+            approximate = histogram.approximate;
+        } else {
+            // Linear-space Myers diff on interned line IDs.
+            LinearMyers myers = new LinearMyers(aLines.ids, bLines.ids, costLimit);
+            edits = myers.run();
+            approximate = myers.approximate;
+        }
+        List<Highlight> originalHighlights = new ArrayList<>();
+        List<Highlight> modifiedHighlights = new ArrayList<>();
+        for (Hunk hunk : hunks(edits, aLines, bLines, prefix, prefix)) {
+            // Second pass: only changed line pairs are re-diffed by word, never the whole message.
+            if (!refine(original, modified, hunk, originalHighlights, modifiedHighlights)) {
+                addHighlight(originalHighlights, hunk.aStart, hunk.aEnd, DELETE_COLOR);
+                addHighlight(modifiedHighlights, hunk.bStart, hunk.bEnd, INSERT_COLOR);
+            }
+        }
+        return new DiffResult(originalHighlights, modifiedHighlights, approximate);
     }
 
-    private static String[] splitLines(String input) {
-        if (input.isEmpty()) {
-            return new String[0];
+    // Re-diffs a replaced hunk by word tokens; returns false (adding nothing) if it is too large or too costly.
+    // Always Myers: word tokens repeat too often for histogram anchors.
+    private static boolean refine(String original, String modified, Hunk hunk,
+                                  List<Highlight> originalHighlights, List<Highlight> modifiedHighlights) {
+        if (hunk.aEnd == hunk.aStart || hunk.bEnd == hunk.bStart) {
+            return false;
         }
-        List<String> tokens = new ArrayList<>();
-        int start = 0;
-        int len = input.length();
-        for (int i = 0; i < len; i++) {
-            if (input.charAt(i) == '\n') {
-                tokens.add(input.substring(start, i + 1));
-                start = i + 1;
-            }
+        // Trim shared characters at both ends (back to a word boundary) so one edit in a long
+        // minified line only tokenizes the part that actually differs.
+        int limit = Math.min(hunk.aEnd - hunk.aStart, hunk.bEnd - hunk.bStart);
+        int prefix = 0;
+        while (prefix < limit && original.charAt(hunk.aStart + prefix) == modified.charAt(hunk.bStart + prefix)) {
+            prefix++;
+        }
+        while (prefix > 0 && Tokens.isWordChar(original.charAt(hunk.aStart + prefix - 1))) {
+            prefix--;
+        }
+        int suffix = 0;
+        while (suffix < limit - prefix && original.charAt(hunk.aEnd - 1 - suffix) == modified.charAt(hunk.bEnd - 1 - suffix)) {
+            suffix++;
+        }
+        while (suffix > 0 && Tokens.isWordChar(original.charAt(hunk.aEnd - suffix))) {
+            suffix--;
+        }
+        int aStart = hunk.aStart + prefix;
+        int bStart = hunk.bStart + prefix;
+        int aEnd = hunk.aEnd - suffix;
+        int bEnd = hunk.bEnd - suffix;
+        if (aEnd - aStart > REFINE_MAX_CHARS || bEnd - bStart > REFINE_MAX_CHARS) {
+            return false;
         }
-        if (start < len) {
-            tokens.add(input.substring(start));
+        Tokens aWords = Tokens.words(original, aStart, aEnd);
+        Tokens bWords = Tokens.words(modified, bStart, bEnd);
+        intern(aWords, bWords);
+        LinearMyers myers = new LinearMyers(aWords.ids, bWords.ids, REFINE_COST_LIMIT);
+        List<Edit> edits = myers.run();
+        if (myers.approximate) {
+            return false;
         }
-        return tokens.toArray(new String[0]);
+        for (Hunk inner : hunks(edits, aWords, bWords, aStart, bStart)) {
+            addHighlight(originalHighlights, inner.aStart, inner.aEnd, DELETE_COLOR);
+            addHighlight(modifiedHighlights, inner.bStart, inner.bEnd, INSERT_COLOR);
+        }
+        return true;
     }
 
-    private static DiffResult buildHighlights(List<Edit> edits, String[] aTokens, String[] bTokens) {
-        List<Highlight> originalHighlights = new ArrayList<>();
-        List<Highlight> modifiedHighlights = new ArrayList<>();
+    private static void addHighlight(List<Highlight> highlights, int start, int end, Color color) {
+        if (end > start) {
+            highlights.add(new Highlight(start, end, color));
+        }
+    }
+
+    // Length of the common prefix, cut back to the start of a line.
+    private static int commonPrefixLines(String a, String b) {
+        int limit = Math.min(a.length(), b.length());
+        int i = 0;
+        while (i < limit && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        while (i > 0 && a.charAt(i - 1) != '\n') {
+            i--;
+        }
+        return i;
+    }
 
+    // Length of the common suffix (not overlapping the prefix), cut forward to a line start
+    // that lies strictly inside the shared text so both sides split at the same boundary.
+    private static int commonSuffixLines(String a, String b, int prefix) {
+        int limit = Math.min(a.length(), b.length()) - prefix;
+        int s = 0;
+        while (s < limit && a.charAt(a.length() - 1 - s) == b.charAt(b.length() - 1 - s)) {
+            s++;
+        }
+        int start = a.length() - s + 1;
+        while (start <= a.length() && a.charAt(start - 1) != '\n') {
+            start++;
+        }
+        return start > a.length() ? 0 : a.length() - start;
+    }
+
+    // Maps equal lines on both sides to the same small integer so comparisons are int compares.
+    // Returns the number of distinct IDs.
+    private static int intern(Tokens a, Tokens b) {
+        Map<String, Integer> ids = new HashMap<>();
+        a.assignIds(ids);
+        b.assignIds(ids);
+        return ids.size();
+    }
+
+    private static void append(List<Edit> edits, EditType type, int length) {
+        if (length <= 0) {
+            return;
+        }
+        int last = edits.size() - 1;
+        if (last >= 0 && edits.get(last).type == type) {
+            edits.set(last, new Edit(type, edits.get(last).length + length));
+        } else {
+            edits.add(new Edit(type, length));
+        }
+    }
+
+    // Groups consecutive deletes/inserts into hunks with absolute character ranges on each side.
+    private static List<Hunk> hunks(List<Edit> edits, Tokens aTokens, Tokens bTokens, int aBase, int bBase) {
+        List<Hunk> hunks = new ArrayList<>();
         int aIndex = 0;
         int bIndex = 0;
-        int aOffset = 0;
-        int bOffset = 0;
+        int aOffset = aBase;
+        int bOffset = bBase;
+        int aStart = -1;
+        int bStart = -1;
 
         for (Edit edit : edits) {
-            switch (edit.type) {
-                case EQUAL -> {
-                    for (int i = 0; i < edit.length; i++) {
-                        aOffset += aTokens[aIndex++].length();
-                        bOffset += bTokens[bIndex++].length();
-                    }
+            if (edit.type == EditType.EQUAL) {
+                if (aStart >= 0) {
+                    hunks.add(new Hunk(aStart, aOffset, bStart, bOffset));
+                    aStart = -1;
                 }
-                case DELETE -> {
-                    int start = aOffset;
-                    for (int i = 0; i < edit.length; i++) {
-                        aOffset += aTokens[aIndex++].length();
-                    }
-                    originalHighlights.add(new Highlight(start, aOffset, DELETE_COLOR));
+                for (int i = 0; i < edit.length; i++) {
+                    aOffset += aTokens.lengths[aIndex++];
+                    bOffset += bTokens.lengths[bIndex++];
                 }
-                case INSERT -> {
-                    int start = bOffset;
-                    for (int i = 0; i < edit.length; i++) {
-                        bOffset += bTokens[bIndex++].length();
-                    }
-                    modifiedHighlights.add(new Highlight(start, bOffset, INSERT_COLOR));
+                continue;
+            }
+            if (aStart < 0) {
+                aStart = aOffset;
+                bStart = bOffset;
+            }
+            if (edit.type == EditType.DELETE) {
+                for (int i = 0; i < edit.length; i++) {
+                    aOffset += aTokens.lengths[aIndex++];
+                }
+            } else {
+                for (int i = 0; i < edit.length; i++) {
+                    bOffset += bTokens.lengths[bIndex++];
                 }
             }
         }
-        return new DiffResult(originalHighlights, modifiedHighlights);
+        if (aStart >= 0) {
+            hunks.add(new Hunk(aStart, aOffset, bStart, bOffset));
+        }
+        return hunks;
     }
 
-    private static List<Edit> myersDiff(String[] a, String[] b) {
-        int n = a.length;
-        int m = b.length;
-        int max = n + m;
-        int size = 2 * max + 1;
-        int[] v = new int[size];
-        List<int[]> trace = new ArrayList<>();
+    // Myers' O((N+M)D) diff using the middle-snake divide and conquer from the same paper,
+    // so only two V arrays of size O(N+M) are kept instead of one per edit step.
+    private static final class LinearMyers {
+        private final int[] a;
+        private final int[] b;
+        private final int[] forward;
+        private final int[] backward;
+        private final int offset;
+        private final List<Edit> edits = new ArrayList<>();
+        private long budget;
+        private boolean approximate;
 
-        // Standard Myers diff (O((N+M)D)) for minimal edit script.
-        for (int d = 0; d <= max; d++) {
-            trace.add(v.clone());
-            for (int k = -d; k <= d; k += 2) {
-                int idx = k + max;
-                int x;
-                if (k == -d || (k != d && v[idx - 1] < v[idx + 1])) {
-                    x = v[idx + 1];
+        LinearMyers(int[] a, int[] b, long costLimit) {
+            this.a = a;
+            this.b = b;
+            int max = (a.length + b.length + 1) / 2 + 1;
+            this.offset = max + 1;
+            this.forward = new int[2 * max + 3];
+            this.backward = new int[2 * max + 3];
+            this.budget = Math.max(0, costLimit);
+        }
+
+        List<Edit> run() {
+            diff(0, a.length, 0, b.length);
+            return edits;
+        }
+
+        private void diff(int aLo, int aHi, int bLo, int bHi) {
+            int prefix = 0;
+            while (aLo + prefix < aHi && bLo + prefix < bHi && a[aLo + prefix] == b[bLo + prefix]) {
+                prefix++;
+            }
+            emit(EditType.EQUAL, prefix);
+            aLo += prefix;
+            bLo += prefix;
+            int suffix = 0;
+            while (aHi - suffix > aLo && bHi - suffix > bLo && a[aHi - 1 - suffix] == b[bHi - 1 - suffix]) {
+                suffix++;
+            }
+            aHi -= suffix;
+            bHi -= suffix;
+
+            if (aLo == aHi) {
+                emit(EditType.INSERT, bHi - bLo);
+            } else if (bLo == bHi) {
+                emit(EditType.DELETE, aHi - aLo);
+            } else {
+                int[] snake = budget > 0 ? middleSnake(aLo, aHi, bLo, bHi) : null;
+                if (snake == null) {
+                    // Over the cost limit: report the rest of this region as one replaced block.
+                    approximate = true;
+                    emit(EditType.DELETE, aHi - aLo);
+                    emit(EditType.INSERT, bHi - bLo);
                 } else {
-                    x = v[idx - 1] + 1;
+                    diff(aLo, snake[0], bLo, snake[1]);
+                    emit(EditType.EQUAL, snake[2] - snake[0]);
+                    diff(snake[2], aHi, snake[3], bHi);
+                }
+            }
+            emit(EditType.EQUAL, suffix);
+        }
+
+        // Returns {x, y, u, v}: the middle snake from (x, y) to (u, v), or null once the budget is spent.
+        private int[] middleSnake(int aLo, int aHi, int bLo, int bHi) {
+            int n = aHi - aLo;
+            int m = bHi - bLo;
+            int delta = n - m;
+            boolean odd = (delta & 1) != 0;
+            int maxD = (n + m + 1) / 2;
+            forward[offset + 1] = 0;
+            backward[offset + 1] = 0;
+            for (int d = 0; d <= maxD; d++) {
+                if (Thread.currentThread().isInterrupted()) {
+                    // The viewer moved on to another message.
+                    throw new CancellationException();
+                }
+                for (int k = -d; k <= d; k += 2) {
+                    int x = k == -d || (k != d && forward[offset + k - 1] < forward[offset + k + 1])
+                        ? forward[offset + k + 1]
+                        : forward[offset + k - 1] + 1;
+                    int y = x - k;
+                    int startX = x;
+                    int startY = y;
+                    while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                        x++;
+                        y++;
+                    }
+                    budget -= 1 + x - startX;
+                    forward[offset + k] = x;
+                    int reverseK = delta - k;
+                    if (odd && reverseK >= -(d - 1) && reverseK <= d - 1 && x + backward[offset + reverseK] >= n) {
+                        return new int[] {aLo + startX, bLo + startY, aLo + x, bLo + y};
+                    }
                 }
-                int y = x - k;
-                while (x < n && y < m && a[x].equals(b[y])) {
-                    x++;
-                    y++;
+                for (int k = -d; k <= d; k += 2) {
+                    int x = k == -d || (k != d && backward[offset + k - 1] < backward[offset + k + 1])
+                        ? backward[offset + k + 1]
+                        : backward[offset + k - 1] + 1;
+                    int y = x - k;
+                    int startX = x;
+                    int startY = y;
+                    while (x < n && y < m && a[aHi - 1 - x] == b[bHi - 1 - y]) {
+                        x++;
+                        y++;
+                    }
+                    budget -= 1 + x - startX;
+                    backward[offset + k] = x;
+                    int forwardK = delta - k;
+                    if (!odd && forwardK >= -d && forwardK <= d && x + forward[offset + forwardK] >= n) {
+                        return new int[] {aHi - x, bHi - y, aHi - startX, bHi - startY};
+                    }
                 }
-                v[idx] = x;
-                if (x >= n && y >= m) {
-                    return backtrack(trace, a, b, max);
+                if (budget <= 0) {
+                    return null;
                 }
             }
+            return null;
+        }
+
+        private void emit(EditType type, int length) {
+            append(edits, type, length);
         }
-        return Collections.emptyList();
     }
 
-    private static List<Edit> backtrack(List<int[]> trace, String[] a, String[] b, int max) {
-        int x = a.length;
-        int y = b.length;
-        List<Edit> edits = new ArrayList<>();
+    // Histogram diff (as in JGit): each region is split at the longest common run of its rarest lines
+    // in A, then both sides are diffed the same way. Unique lines such as JSON keys or HTML block
+    // openers make good anchors, so moved blocks come out as whole hunks instead of interleaved
+    // fragments. Regions without an anchor occurring at most MAX_CHAIN times fall back to Myers.
+    private static final class HistogramDiff {
+        private static final int MAX_CHAIN = 64;
 
-        for (int d = trace.size() - 1; d >= 0; d--) {
-            int[] v = trace.get(d);
-            int k = x - y;
-            int idx = k + max;
-            int prevK;
-            if (k == -d || (k != d && v[idx - 1] < v[idx + 1])) {
-                prevK = k + 1;
-            } else {
-                prevK = k - 1;
+        private final int[] a;
+        private final int[] b;
+        // Occurrences of each line ID in the A region being split, and its first position there;
+        // next[i] links position i to the following occurrence of the same line.
+        private final int[] count;
+        private final int[] head;
+        private final int[] next;
+        private final List<Edit> edits = new ArrayList<>();
+        private long budget;
+        private boolean approximate;
+        // Whether the region last searched by findAnchor() has any line in common between A and B.
+        private boolean shared;
+
+        HistogramDiff(int[] a, int[] b, int idCount, long costLimit) {
+            this.a = a;
+            this.b = b;
+            this.count = new int[idCount];
+            this.head = new int[idCount];
+            this.next = new int[a.length];
+            Arrays.fill(head, -1);
+            this.budget = Math.max(0, costLimit);
+        }
+
+        // Regions are split with an explicit stack so long runs of anchors never recurse deeply.
+        // Items are either regions {aLo, aHi, bLo, bHi} or equal runs {length}, in output order.
+        List<Edit> run() {
+            Deque<int[]> work = new ArrayDeque<>();
+            work.push(new int[] {0, a.length, 0, b.length});
+            while (!work.isEmpty()) {
+                int[] item = work.pop();
+                if (item.length == 1) {
+                    append(edits, EditType.EQUAL, item[0]);
+                } else {
+                    split(item[0], item[1], item[2], item[3], work);
+                }
             }
-            int prevX = v[prevK + max];
-            int prevY = prevX - prevK;
+            return edits;
+        }
 
-            while (x > prevX && y > prevY) {
-                edits.add(new Edit(EditType.EQUAL, 1));
-                x--;
-                y--;
+        private void split(int aLo, int aHi, int bLo, int bHi, Deque<int[]> work) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new CancellationException();
             }
+            int prefix = 0;
+            while (aLo + prefix < aHi && bLo + prefix < bHi && a[aLo + prefix] == b[bLo + prefix]) {
+                prefix++;
+            }
+            append(edits, EditType.EQUAL, prefix);
+            aLo += prefix;
+            bLo += prefix;
+            int suffix = 0;
+            while (aHi - suffix > aLo && bHi - suffix > bLo && a[aHi - 1 - suffix] == b[bHi - 1 - suffix]) {
+                suffix++;
+            }
+            aHi -= suffix;
+            bHi -= suffix;
 
-            if (d == 0) {
-                break;
+            shared = true;
+            int[] anchor = aLo < aHi && bLo < bHi && budget > 0 ? findAnchor(aLo, aHi, bLo, bHi) : null;
+            if (anchor == null) {
+                fallback(aLo, aHi, bLo, bHi);
+                append(edits, EditType.EQUAL, suffix);
+                return;
             }
+            int length = anchor[2];
+            work.push(new int[] {suffix});
+            work.push(new int[] {anchor[0] + length, aHi, anchor[1] + length, bHi});
+            work.push(new int[] {length});
+            work.push(new int[] {aLo, anchor[0], bLo, anchor[1]});
+        }
 
-            if (x == prevX) {
-                edits.add(new Edit(EditType.INSERT, 1));
-                y--;
-            } else {
-                edits.add(new Edit(EditType.DELETE, 1));
-                x--;
+        // Returns {aStart, bStart, length} of the best anchor run, or null if there is none.
+        private int[] findAnchor(int aLo, int aHi, int bLo, int bHi) {
+            for (int i = aHi - 1; i >= aLo; i--) {
+                int id = a[i];
+                next[i] = head[id];
+                head[id] = i;
+                count[id]++;
+            }
+            budget -= aHi - aLo;
+            int bestA = -1;
+            int bestB = -1;
+            int bestLength = 0;
+            int bestCount = MAX_CHAIN;
+            shared = false;
+            int bi = bLo;
+            while (bi < bHi && budget > 0) {
+                int occurrences = count[b[bi]];
+                int nextB = bi + 1;
+                shared |= occurrences > 0;
+                if (occurrences > 0 && occurrences <= bestCount) {
+                    for (int ai = head[b[bi]]; ai >= 0; ai = next[ai]) {
+                        int aStart = ai;
+                        int bStart = bi;
+                        int rarest = occurrences;
+                        while (aStart > aLo && bStart > bLo && a[aStart - 1] == b[bStart - 1]) {
+                            aStart--;
+                            bStart--;
+                            rarest = Math.min(rarest, count[a[aStart]]);
+                        }
+                        int aEnd = ai + 1;
+                        int bEnd = bi + 1;
+                        while (aEnd < aHi && bEnd < bHi && a[aEnd] == b[bEnd]) {
+                            rarest = Math.min(rarest, count[a[aEnd]]);
+                            aEnd++;
+                            bEnd++;
+                        }
+                        budget -= 1 + aEnd - aStart;
+                        // Rarer runs win; among equally rare ones, the longest.
+                        if (rarest < bestCount || (rarest == bestCount && aEnd - aStart > bestLength)) {
+                            bestA = aStart;
+                            bestB = bStart;
+                            bestLength = aEnd - aStart;
+                            bestCount = rarest;
+                        }
+                        // Positions inside this run would only rediscover it.
+                        nextB = Math.max(nextB, bEnd);
+                    }
+                }
+                bi = nextB;
             }
+            for (int i = aLo; i < aHi; i++) {
+                count[a[i]] = 0;
+                head[a[i]] = -1;
+            }
+            return bestLength == 0 || budget <= 0 ? null : new int[] {bestA, bestB, bestLength};
         }
 
-        Collections.reverse(edits);
-        return coalesce(edits);
+        // Regions where every shared line is too common to anchor on (or the budget ran out).
+        private void fallback(int aLo, int aHi, int bLo, int bHi) {
+            if (aLo == aHi || bLo == bHi || !shared || budget <= 0) {
+                // Nothing in common is an exact answer; running out of budget is not.
+                approximate |= aLo < aHi && bLo < bHi && (shared || budget <= 0);
+                append(edits, EditType.DELETE, aHi - aLo);
+                append(edits, EditType.INSERT, bHi - bLo);
+                return;
+            }
+            LinearMyers myers = new LinearMyers(Arrays.copyOfRange(a, aLo, aHi), Arrays.copyOfRange(b, bLo, bHi), budget);
+            for (Edit edit : myers.run()) {
+                append(edits, edit.type, edit.length);
+            }
+            budget = myers.budget;
+            approximate |= myers.approximate;
+        }
     }
 
-    private static List<Edit> coalesce(List<Edit> edits) {
-        if (edits.isEmpty()) {
-            return edits;
+    // Tokens of text[start, end): per-token lengths plus interned IDs (assigned by intern()).
+    private static final class Tokens {
+        private final String text;
+        private final int start;
+        private final int[] lengths;
+        private int[] ids;
+
+        private Tokens(String text, int start, int[] lengths) {
+            this.text = text;
+            this.start = start;
+            this.lengths = lengths;
         }
-        List<Edit> merged = new ArrayList<>();
-        Edit current = edits.get(0);
-        for (int i = 1; i < edits.size(); i++) {
-            Edit next = edits.get(i);
-            if (next.type == current.type) {
-                current = new Edit(current.type, current.length + next.length);
-            } else {
-                merged.add(current);
-                current = next;
+
+        static Tokens lines(String text, int start, int end) {
+            int count = 0;
+            for (int i = start; i < end; i++) {
+                if (text.charAt(i) == '\n') {
+                    count++;
+                }
+            }
+            if (end > start && text.charAt(end - 1) != '\n') {
+                count++;
+            }
+            int[] lengths = new int[count];
+            int line = 0;
+            int lineStart = start;
+            for (int i = start; i < end; i++) {
+                if (text.charAt(i) == '\n') {
+                    lengths[line++] = i + 1 - lineStart;
+                    lineStart = i + 1;
+                }
+            }
+            if (lineStart < end) {
+                lengths[line] = end - lineStart;
+            }
+            return new Tokens(text, start, lengths);
+        }
+
+        // Words (letters, digits, '_'), runs of whitespace, and single punctuation characters.
+        static Tokens words(String text, int start, int end) {
+            int[] lengths = new int[Math.max(1, (end - start) / 4)];
+            int count = 0;
+            int i = start;
+            while (i < end) {
+                int tokenEnd = i + 1;
+                char c = text.charAt(i);
+                if (isWordChar(c)) {
+                    while (tokenEnd < end && isWordChar(text.charAt(tokenEnd))) {
+                        tokenEnd++;
+                    }
+                } else if (Character.isWhitespace(c)) {
+                    while (tokenEnd < end && Character.isWhitespace(text.charAt(tokenEnd))) {
+                        tokenEnd++;
+                    }
+                }
+                if (count == lengths.length) {
+                    lengths = Arrays.copyOf(lengths, count * 2);
+                }
+                lengths[count++] = tokenEnd - i;
+                i = tokenEnd;
+            }
+            return new Tokens(text, start, Arrays.copyOf(lengths, count));
+        }
+
+        static boolean isWordChar(char c) {
+            return Character.isLetterOrDigit(c) || c == '_';
+        }
+
+        void assignIds(Map<String, Integer> table) {
+            ids = new int[lengths.length];
+            int position = start;
+            for (int i = 0; i < lengths.length; i++) {
+                String line = text.substring(position, position + lengths[i]);
+                Integer id = table.get(line);
+                if (id == null) {
+                    id = table.size();
+                    table.put(line, id);
+                }
+                ids[i] = id;
+                position += lengths[i];
             }
         }
-        merged.add(current);
-        return merged;
     }
 
-    record DiffResult(List<Highlight> originalHighlights, List<Highlight> modifiedHighlights) {}
+    // approximate is set when the cost limit was reached and some regions are shown as whole-block replacements.
+    record DiffResult(List<Highlight> originalHighlights, List<Highlight> modifiedHighlights, boolean approximate) {}
+
+    // Highlights from recorded edit spans; no diffing, and each one is labelled with its rule.
+    static DiffResult fromSpans(EditSpans spans, IntFunction<String> ruleLabel) {
+        List<Highlight> originalHighlights = new ArrayList<>(spans.size());
+        List<Highlight> modifiedHighlights = new ArrayList<>(spans.size());
+        for (int i = 0; i < spans.size(); i++) {
+            String label = ruleLabel.apply(spans.rulePosition(i));
+            if (spans.originalEnd(i) > spans.originalStart(i)) {
+                originalHighlights.add(new Highlight(spans.originalStart(i), spans.originalEnd(i), DELETE_COLOR, label));
+            }
+            if (spans.modifiedEnd(i) > spans.modifiedStart(i)) {
+                modifiedHighlights.add(new Highlight(spans.modifiedStart(i), spans.modifiedEnd(i), INSERT_COLOR, label));
+            }
+        }
+        return new DiffResult(originalHighlights, modifiedHighlights, false);
+    }
+
+    // label names the rule that produced the change, when known (null for computed diffs).
+    record Highlight(int start, int end, Color color, String label) {
+        Highlight(int start, int end, Color color) {
+            this(start, end, color, null);
+        }
+    }
 
-    record Highlight(int start, int end, Color color) {}
+    private record Hunk(int aStart, int aEnd, int bStart, int bEnd) {}
 
     private enum EditType { EQUAL, INSERT, DELETE }
 